@@ -0,0 +1,91 @@
+package Benchmarks;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import Util.ConnectionUtil;
+
+/**
+ * BenchmarkDatabase.java
+ *
+ * Points the application at a dedicated H2 file database and seeds it with a fixed number of accounts and messages.
+ * Each size gets its own file under target/bench, and seeding is skipped when the file already holds exactly the
+ * requested rows, so the 1M and 10M row databases are only built once.
+ *
+ * Must be called before anything else touches ConnectionUtil in the benchmark JVM, since the database URL is read
+ * when ConnectionUtil is first loaded. JMH forks a fresh JVM per benchmark and parameter set, which guarantees that.
+ */
+final class BenchmarkDatabase {
+
+    private static final int INSERT_CHUNK = 1_000_000;
+
+    private BenchmarkDatabase() {
+    }
+
+    /**
+     * Selects the database file for this JVM.
+     *
+     * @param name the file name under target/bench
+     */
+    static void use(String name) {
+        System.setProperty("socialmedia.db.url", "jdbc:h2:./target/bench/" + name);
+    }
+
+    /**
+     * Makes sure the current database holds exactly the given rows. Message i is posted by account (i mod accounts)
+     * + 1 with text "benchmark message i"; account i is named "user i".
+     *
+     * @param accounts the number of accounts
+     * @param messages the number of messages
+     * @throws SQLException if seeding fails
+     */
+    static void seed(int accounts, int messages) throws SQLException {
+        ConnectionUtil.applyMigrations();
+        try (Connection conn = ConnectionUtil.getConnection(); Statement stmt = conn.createStatement()) {
+            if (count(stmt, "account") == accounts && count(stmt, "message") == messages) {
+                return;
+            }
+            stmt.execute("SET REFERENTIAL_INTEGRITY FALSE");
+            stmt.execute("TRUNCATE TABLE message RESTART IDENTITY");
+            stmt.execute("TRUNCATE TABLE account RESTART IDENTITY");
+            stmt.execute("SET REFERENTIAL_INTEGRITY TRUE");
+            stmt.execute("INSERT INTO account (username, password) "
+                    + "SELECT 'user' || X, 'password' FROM SYSTEM_RANGE(1, " + accounts + ")");
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                    "INSERT INTO message (posted_by, message_text, time_posted_epoch) "
+                    + "SELECT MOD(X, ?) + 1, 'benchmark message ' || X, 1669947792 + X FROM SYSTEM_RANGE(?, ?)")) {
+                for (int from = 1; from <= messages; from += INSERT_CHUNK) {
+                    pstmt.setInt(1, accounts);
+                    pstmt.setInt(2, from);
+                    pstmt.setInt(3, Math.min(messages, from + INSERT_CHUNK - 1));
+                    pstmt.executeUpdate();
+                }
+            }
+            stmt.execute("ANALYZE");
+        }
+    }
+
+    /**
+     * Deletes rows added by write benchmarks so the next trial finds the seeded row counts again.
+     *
+     * @param accounts the number of seeded accounts
+     * @param messages the number of seeded messages
+     * @throws SQLException if the cleanup fails
+     */
+    static void removeRowsAfter(int accounts, int messages) throws SQLException {
+        try (Connection conn = ConnectionUtil.getConnection(); Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("DELETE FROM message WHERE message_id > " + messages);
+            stmt.executeUpdate("DELETE FROM account WHERE account_id > " + accounts);
+        }
+    }
+
+    private static int count(Statement stmt, String table) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("SELECT count(*) FROM " + table)) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}
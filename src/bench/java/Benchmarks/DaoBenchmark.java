@@ -0,0 +1,151 @@
+package Benchmarks;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import DAO.AccountDAO;
+import DAO.MessageDAO;
+import Model.Account;
+import Model.Message;
+
+/**
+ * DaoBenchmark.java
+ *
+ * Measures every MessageDAO and AccountDAO method against a seeded H2 file database at 1k, 1M and 10M messages
+ * (1000 accounts each). Reads pick random keys; write benchmarks clean up after each iteration so the seeded data
+ * stays stable. getAllMessages and streamAllMessages read the whole table per operation, so expect them to be slow
+ * at the larger sizes; that is what they are here to show.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DaoBenchmark {
+
+    private static final int ACCOUNTS = 1000;
+
+    @Param({ "1000", "1000000", "10000000" })
+    public int messageCount;
+
+    private MessageDAO messageDAO;
+    private AccountDAO accountDAO;
+    private final AtomicLong usernameSequence = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        BenchmarkDatabase.use("dao-" + messageCount);
+        BenchmarkDatabase.seed(ACCOUNTS, messageCount);
+        messageDAO = new MessageDAO();
+        accountDAO = new AccountDAO();
+    }
+
+    @TearDown(Level.Iteration)
+    public void removeWrites() throws SQLException {
+        BenchmarkDatabase.removeRowsAfter(ACCOUNTS, messageCount);
+    }
+
+    @Benchmark
+    public Message getMessageById() throws SQLException {
+        return messageDAO.getMessageById(randomMessageId());
+    }
+
+    @Benchmark
+    public List<Message> getMessagesByUserId() throws SQLException {
+        return messageDAO.getMessagesByUserId(randomAccountId());
+    }
+
+    @Benchmark
+    public List<Message> getMessagesPage() throws SQLException {
+        return messageDAO.getMessagesPage(randomMessageId(), 100);
+    }
+
+    @Benchmark
+    public List<Message> getAllMessages() throws SQLException {
+        return messageDAO.getAllMessages();
+    }
+
+    @Benchmark
+    public void streamAllMessages(Blackhole blackhole) throws SQLException, IOException {
+        messageDAO.forEachMessage(0, Integer.MAX_VALUE, blackhole::consume);
+    }
+
+    @Benchmark
+    public Message createMessage() throws SQLException {
+        return messageDAO.createMessage(new Message(randomAccountId(), "benchmark insert", 1669947792));
+    }
+
+    /**
+     * 100 inserts in one batch and transaction; divide by 100 to compare with createMessage.
+     */
+    @Benchmark
+    public List<Message> createMessages() throws SQLException {
+        List<Message> messages = new ArrayList<>(100);
+        for (int i = 0; i < 100; i++) {
+            messages.add(new Message(randomAccountId(), "benchmark batch insert", 1669947792));
+        }
+        return messageDAO.createMessages(messages);
+    }
+
+    @Benchmark
+    public Message updateMessage() throws SQLException {
+        int messageId = randomMessageId();
+        return messageDAO.updateMessage(new Message(messageId, 0, "benchmark message " + messageId, 0));
+    }
+
+    @Benchmark
+    public Message createAndDeleteMessage() throws SQLException {
+        Message message = messageDAO.createMessage(new Message(randomAccountId(), "benchmark delete", 1669947792));
+        return messageDAO.deleteMessageById(message.getMessage_id());
+    }
+
+    @Benchmark
+    public Account getAccountById() throws SQLException {
+        return accountDAO.getAccountById(randomAccountId());
+    }
+
+    @Benchmark
+    public Account getAccountByUsername() throws SQLException {
+        return accountDAO.getAccountByUsername("user" + randomAccountId());
+    }
+
+    @Benchmark
+    public Account createAccount() throws SQLException {
+        return accountDAO.createAccount(new Account("bench" + System.nanoTime() + "-" + usernameSequence.incrementAndGet(), "password"));
+    }
+
+    @Benchmark
+    public Map<String, Integer> getAccountIdsByUsername() throws SQLException {
+        return accountDAO.getAccountIdsByUsername();
+    }
+
+    private int randomMessageId() {
+        return ThreadLocalRandom.current().nextInt(messageCount) + 1;
+    }
+
+    private static int randomAccountId() {
+        return ThreadLocalRandom.current().nextInt(ACCOUNTS) + 1;
+    }
+}
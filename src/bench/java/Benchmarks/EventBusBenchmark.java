@@ -0,0 +1,111 @@
+package Benchmarks;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Model.Message;
+import Service.MessageEventBus;
+
+/**
+ * EventBusBenchmark.java
+ *
+ * Fan-out cost of MessageEventBus with many subscribers connected at once. Subscribers only count what they get, so
+ * this measures the bus, not the network.
+ *
+ *  publishToAll          one event that every subscriber wants, timed until all of them have received it
+ *  publishToOnePoster    one event when every subscriber follows a different poster, so exactly one wants it
+ *  publishOnly           just the publish call with every subscriber interested: what a request thread pays
+ *
+ * publishOnly publishes far faster than 10k subscribers can be served, so its dispatch queue soon fills up and most
+ * of its events are dropped there; that is the cost it measures once warmed up.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class EventBusBenchmark {
+
+    @Param({ "10000" })
+    public int subscribers;
+
+    @Param({ "4" })
+    public int deliveryThreads;
+
+    private MessageEventBus allBus;
+    private MessageEventBus perPosterBus;
+    private final AtomicLong received = new AtomicLong();
+    private final Message message = new Message(1, 0, "benchmark message", 1669947792);
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        allBus = new MessageEventBus(256, MessageEventBus.OverflowPolicy.DROP_OLDEST, deliveryThreads, 0, 10_000);
+        perPosterBus = new MessageEventBus(256, MessageEventBus.OverflowPolicy.DROP_OLDEST, deliveryThreads, 0, 10_000);
+        MessageEventBus.Subscriber counting = new MessageEventBus.Subscriber() {
+            @Override
+            public CompletionStage<Void> send(List<MessageEventBus.Event> events) {
+                received.addAndGet(events.size());
+                return CompletableFuture.completedFuture(null);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        for (int i = 0; i < subscribers; i++) {
+            allBus.subscribe(null, counting);
+            perPosterBus.subscribe(i, counting);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        allBus.close();
+        perPosterBus.close();
+    }
+
+    @Benchmark
+    public long publishToAll() {
+        long target = received.get() + subscribers;
+        allBus.publish(MessageEventBus.EventType.CREATED, message);
+        return awaitReceived(target);
+    }
+
+    @Benchmark
+    public long publishToOnePoster() {
+        long target = received.get() + 1;
+        perPosterBus.publish(MessageEventBus.EventType.CREATED, message);
+        return awaitReceived(target);
+    }
+
+    @Benchmark
+    public void publishOnly() {
+        allBus.publish(MessageEventBus.EventType.CREATED, message);
+    }
+
+    private long awaitReceived(long target) {
+        long now;
+        while ((now = received.get()) < target) {
+            Thread.onSpinWait();
+        }
+        return now;
+    }
+}
@@ -0,0 +1,111 @@
+package Benchmarks;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Controller.SocialMediaController;
+import io.javalin.Javalin;
+
+/**
+ * HttpBenchmark.java
+ *
+ * Measures end-to-end handler throughput: requests go through java.net.http.HttpClient to the Javalin app built by
+ * SocialMediaController.startAPI on an ephemeral port, backed by a seeded H2 file database. Rate limits are off,
+ * since every request comes from the one local IP.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Threads(4)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class HttpBenchmark {
+
+    private static final int ACCOUNTS = 100;
+    private static final int MESSAGES = 10_000;
+
+    private Javalin app;
+    private HttpClient client;
+    private String baseUrl;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        BenchmarkDatabase.use("http");
+        BenchmarkDatabase.seed(ACCOUNTS, MESSAGES);
+        System.setProperty("socialmedia.ratelimit.enabled", "false"); // One client posting as fast as it can
+        app = new SocialMediaController().startAPI().start(0);
+        baseUrl = "http://localhost:" + app.port();
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    }
+
+    @TearDown(Level.Iteration)
+    public void removeWrites() throws SQLException {
+        BenchmarkDatabase.removeRowsAfter(ACCOUNTS, MESSAGES);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        app.stop();
+    }
+
+    @Benchmark
+    public int getMessageById() throws IOException, InterruptedException {
+        return get("/messages/" + (ThreadLocalRandom.current().nextInt(MESSAGES) + 1));
+    }
+
+    @Benchmark
+    public int getMessagesPage() throws IOException, InterruptedException {
+        return get("/messages?limit=100&after=" + ThreadLocalRandom.current().nextInt(MESSAGES));
+    }
+
+    @Benchmark
+    public int getMessagesByUserId() throws IOException, InterruptedException {
+        return get("/accounts/" + (ThreadLocalRandom.current().nextInt(ACCOUNTS) + 1) + "/messages");
+    }
+
+    @Benchmark
+    public int createMessage() throws IOException, InterruptedException {
+        return post("/messages", "{\"posted_by\":" + (ThreadLocalRandom.current().nextInt(ACCOUNTS) + 1)
+                + ",\"message_text\":\"benchmark post\",\"time_posted_epoch\":1669947792}");
+    }
+
+    @Benchmark
+    public int login() throws IOException, InterruptedException {
+        return post("/login", "{\"username\":\"user" + (ThreadLocalRandom.current().nextInt(ACCOUNTS) + 1)
+                + "\",\"password\":\"password\"}");
+    }
+
+    private int get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + path)).build();
+        return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    private int post(String path, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+}
@@ -0,0 +1,100 @@
+package Benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Model.Message;
+import Util.JsonCodec;
+
+/**
+ * JsonCodecBenchmark.java
+ *
+ * Per-request JSON cost before and after JsonCodec. The "before" methods do what the handlers used to: PATCH built
+ * a new ObjectMapper and a JsonNode tree for every request, and responses went through a mapper looking up its
+ * serializer by runtime class. The "after" methods use the shared codec. Run with -prof gc; gc.alloc.rate.norm is
+ * the allocation per request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class JsonCodecBenchmark {
+
+    private final ObjectMapper sharedMapper = new ObjectMapper();
+    private byte[] patchBody;
+    private String patchBodyString;
+    private Message message;
+    private List<Message> messages;
+
+    @Setup
+    public void setUp() {
+        patchBodyString = "{\"message_text\": \"updated message text\"}";
+        patchBody = patchBodyString.getBytes(StandardCharsets.UTF_8);
+        message = new Message(1, 1, "benchmark message", 1669947792);
+        messages = new ArrayList<>();
+        for (int i = 1; i <= 20; i++) {
+            messages.add(new Message(i, 1, "benchmark message " + i, 1669947792));
+        }
+    }
+
+    @Benchmark
+    public String patchBodyBefore() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        JsonNode jsonNode = mapper.readTree(patchBodyString);
+        return jsonNode.get("message_text").asText();
+    }
+
+    @Benchmark
+    public String patchBodyAfter() throws IOException {
+        return JsonCodec.INSTANCE.readStringField(patchBody, "message_text");
+    }
+
+    @Benchmark
+    public Message readMessageBefore() throws IOException {
+        return sharedMapper.readValue(patchBodyString, Message.class);
+    }
+
+    @Benchmark
+    public Message readMessageAfter() {
+        return JsonCodec.INSTANCE.fromJsonString(patchBodyString, Message.class);
+    }
+
+    @Benchmark
+    public String writeMessageBefore() throws IOException {
+        return sharedMapper.writeValueAsString(message);
+    }
+
+    @Benchmark
+    public String writeMessageAfter() {
+        return JsonCodec.INSTANCE.toJsonString(message, Message.class);
+    }
+
+    @Benchmark
+    public String writeMessageListBefore() throws IOException {
+        return sharedMapper.writeValueAsString(messages);
+    }
+
+    @Benchmark
+    public String writeMessageListAfter() {
+        return JsonCodec.INSTANCE.toJsonString(messages, messages.getClass());
+    }
+}
@@ -0,0 +1,82 @@
+package Benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Model.Account;
+import Model.Message;
+
+/**
+ * JsonSerializationBenchmark.java
+ *
+ * Measures Jackson serialization and deserialization of Message and Account lists of various sizes, the way the
+ * handlers use it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class JsonSerializationBenchmark {
+
+    private static final TypeReference<List<Message>> MESSAGE_LIST = new TypeReference<List<Message>>() {};
+
+    @Param({ "1", "100", "10000" })
+    public int listSize;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private List<Message> messages;
+    private List<Account> accounts;
+    private byte[] messagesJson;
+    private byte[] messageJson;
+
+    @Setup
+    public void setUp() throws IOException {
+        messages = new ArrayList<>(listSize);
+        accounts = new ArrayList<>(listSize);
+        for (int i = 1; i <= listSize; i++) {
+            messages.add(new Message(i, i % 100 + 1, "benchmark message " + i, 1669947792 + i));
+            accounts.add(new Account(i, "user" + i, "password"));
+        }
+        messagesJson = mapper.writeValueAsBytes(messages);
+        messageJson = mapper.writeValueAsBytes(messages.get(0));
+    }
+
+    @Benchmark
+    public byte[] writeMessageList() throws IOException {
+        return mapper.writeValueAsBytes(messages);
+    }
+
+    @Benchmark
+    public byte[] writeAccountList() throws IOException {
+        return mapper.writeValueAsBytes(accounts);
+    }
+
+    @Benchmark
+    public List<Message> readMessageList() throws IOException {
+        return mapper.readValue(messagesJson, MESSAGE_LIST);
+    }
+
+    @Benchmark
+    public Message readMessage() throws IOException {
+        return mapper.readValue(messageJson, Message.class);
+    }
+}
@@ -0,0 +1,308 @@
+package Benchmarks;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import Controller.SocialMediaController;
+import io.javalin.Javalin;
+
+/**
+ * LoadGenerator.java
+ *
+ * An open-loop HTTP load generator for the eight routes in SocialMediaController.startAPI. Requests are started on
+ * a fixed schedule (the arrival rate) whether or not earlier ones have finished, and each latency is measured from
+ * the time the request was scheduled to start, so a stalled server shows up in the percentiles instead of quietly
+ * slowing the generator down (no coordinated omission). Latencies are recorded per route in HdrHistograms and
+ * written as a fixed-layout text report meant to be diffed between builds.
+ *
+ * Without -url the generator starts the app in-process on an ephemeral port, backed by a freshly seeded H2 file
+ * database, so runs are self-contained and repeatable. The route sequence is drawn from a seeded Random, so two runs
+ * with the same options send the same requests in the same order.
+ *
+ * Options (all optional):
+ *  -url http://host:port   target an already running server seeded like BenchmarkDatabase (default: self-hosted)
+ *  -rate 200               requests per second across all routes
+ *  -duration 30            measured seconds
+ *  -warmup 5               seconds of load before measuring starts
+ *  -mix GET_MESSAGE=30,... relative route weights (defaults below)
+ *  -accounts 1000          seeded accounts
+ *  -messages 100000        seeded messages
+ *  -seed 42                random seed for the route sequence
+ *  -maxInFlight 10000      requests allowed in flight before new arrivals are dropped and counted
+ *  -serverThreads platform execution mode of the self-hosted server, platform or virtual (socialmedia.server.threads)
+ *  -rateLimits false       whether the self-hosted server applies its rate limits (socialmedia.ratelimit.enabled)
+ *  -report target/loadtest-report.txt
+ */
+public class LoadGenerator {
+
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.SECONDS.toMicros(60);
+
+    /**
+     * The routes under load with their default share of the traffic.
+     */
+    enum Route {
+        REGISTER("POST /register", 3),
+        LOGIN("POST /login", 10),
+        CREATE_MESSAGE("POST /messages", 15),
+        GET_MESSAGES("GET /messages", 7),
+        GET_MESSAGE("GET /messages/{message_id}", 35),
+        UPDATE_MESSAGE("PATCH /messages/{message_id}", 10),
+        DELETE_MESSAGE("DELETE /messages/{message_id}", 5),
+        GET_ACCOUNT_MESSAGES("GET /accounts/{account_id}/messages", 15);
+
+        private final String label;
+        private final int defaultWeight;
+
+        Route(String label, int defaultWeight) {
+            this.label = label;
+            this.defaultWeight = defaultWeight;
+        }
+    }
+
+    private final Map<String, String> options;
+    private final int rate;
+    private final int durationSeconds;
+    private final int warmupSeconds;
+    private final int accounts;
+    private final int messages;
+    private final long seed;
+    private final int maxInFlight;
+    private final Map<Route, Integer> mix = new EnumMap<>(Route.class);
+
+    private final Map<Route, Histogram> latencies = new EnumMap<>(Route.class);
+    private final AtomicLongArray errors = new AtomicLongArray(Route.values().length);
+    private final AtomicLongArray dropped = new AtomicLongArray(Route.values().length);
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong usernameSequence = new AtomicLong();
+
+    private HttpClient client;
+    private String baseUrl;
+
+    LoadGenerator(Map<String, String> options) {
+        this.options = options;
+        this.rate = Integer.parseInt(options.getOrDefault("rate", "200"));
+        this.durationSeconds = Integer.parseInt(options.getOrDefault("duration", "30"));
+        this.warmupSeconds = Integer.parseInt(options.getOrDefault("warmup", "5"));
+        this.accounts = Integer.parseInt(options.getOrDefault("accounts", "1000"));
+        this.messages = Integer.parseInt(options.getOrDefault("messages", "100000"));
+        this.seed = Long.parseLong(options.getOrDefault("seed", "42"));
+        this.maxInFlight = Integer.parseInt(options.getOrDefault("maxInFlight", "10000"));
+        if (options.containsKey("serverThreads")) {
+            System.setProperty("socialmedia.server.threads", options.get("serverThreads"));
+        }
+        for (Route route : Route.values()) {
+            mix.put(route, route.defaultWeight);
+            latencies.put(route, new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3));
+        }
+        if (options.containsKey("mix")) {
+            mix.replaceAll((route, weight) -> 0);
+            for (String entry : options.get("mix").split(",")) {
+                String[] parts = entry.split("=");
+                mix.put(Route.valueOf(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i].replaceFirst("^-+", ""), args[i + 1]);
+        }
+        String report = new LoadGenerator(options).run();
+        System.out.println(report);
+        Path reportPath = Paths.get(options.getOrDefault("report", "target/loadtest-report.txt"));
+        if (reportPath.getParent() != null) {
+            Files.createDirectories(reportPath.getParent());
+        }
+        Files.write(reportPath, report.getBytes(StandardCharsets.UTF_8));
+        System.exit(0);
+    }
+
+    /**
+     * Runs warmup and measurement and returns the report.
+     *
+     * @return the report text
+     * @throws SQLException if seeding the self-hosted database fails
+     * @throws InterruptedException if interrupted while waiting for requests to finish
+     */
+    String run() throws SQLException, InterruptedException {
+        Javalin app = null;
+        if (options.containsKey("url")) {
+            baseUrl = options.get("url");
+        } else {
+            BenchmarkDatabase.use("loadtest");
+            BenchmarkDatabase.seed(accounts, messages);
+            System.setProperty("socialmedia.ratelimit.enabled", options.getOrDefault("rateLimits", "false"));
+            app = new SocialMediaController().startAPI().start(0);
+            baseUrl = "http://localhost:" + app.port();
+        }
+        client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+
+        try {
+            generate();
+        } finally {
+            if (app != null) {
+                app.stop();
+            }
+        }
+        return report();
+    }
+
+    private void generate() throws InterruptedException {
+        Random random = new Random(seed);
+        int totalWeight = mix.values().stream().mapToInt(Integer::intValue).sum();
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+
+        for (long i = 0; ; i++) {
+            long intended = start + i * intervalNanos;
+            if (intended >= end) {
+                break;
+            }
+            long wait;
+            while ((wait = intended - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+
+            Route route = pick(random, totalWeight);
+            HttpRequest request = build(route, random);
+            boolean measured = intended >= measureFrom;
+            if (inFlight.get() >= maxInFlight) {
+                if (measured) {
+                    dropped.incrementAndGet(route.ordinal());
+                }
+                continue;
+            }
+            inFlight.incrementAndGet();
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+                long latencyMicros = (System.nanoTime() - intended) / 1000;
+                inFlight.decrementAndGet();
+                if (!measured) {
+                    return;
+                }
+                if (error != null || response.statusCode() >= 500) {
+                    errors.incrementAndGet(route.ordinal());
+                } else {
+                    latencies.get(route).recordValue(Math.min(latencyMicros, HIGHEST_TRACKABLE_MICROS));
+                }
+            });
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (inFlight.get() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private Route pick(Random random, int totalWeight) {
+        int ticket = random.nextInt(totalWeight);
+        for (Map.Entry<Route, Integer> entry : mix.entrySet()) {
+            ticket -= entry.getValue();
+            if (ticket < 0) {
+                return entry.getKey();
+            }
+        }
+        throw new IllegalStateException("Empty route mix");
+    }
+
+    private HttpRequest build(Route route, Random random) {
+        int accountId = random.nextInt(accounts) + 1;
+        int messageId = random.nextInt(messages) + 1;
+        switch (route) {
+            case REGISTER:
+                return json("/register", "POST", "{\"username\":\"load" + System.nanoTime() + "-"
+                        + usernameSequence.incrementAndGet() + "\",\"password\":\"password\"}");
+            case LOGIN:
+                return json("/login", "POST", "{\"username\":\"user" + accountId + "\",\"password\":\"password\"}");
+            case CREATE_MESSAGE:
+                return json("/messages", "POST", "{\"posted_by\":" + accountId
+                        + ",\"message_text\":\"load test message\",\"time_posted_epoch\":1669947792}");
+            case GET_MESSAGES:
+                return HttpRequest.newBuilder(URI.create(baseUrl + "/messages?limit=100&after=" + messageId)).build();
+            case GET_MESSAGE:
+                return HttpRequest.newBuilder(URI.create(baseUrl + "/messages/" + messageId)).build();
+            case UPDATE_MESSAGE:
+                return json("/messages/" + messageId, "PATCH", "{\"message_text\":\"updated by load test\"}");
+            case DELETE_MESSAGE:
+                return HttpRequest.newBuilder(URI.create(baseUrl + "/messages/" + messageId)).DELETE().build();
+            case GET_ACCOUNT_MESSAGES:
+                return HttpRequest.newBuilder(URI.create(baseUrl + "/accounts/" + accountId + "/messages")).build();
+            default:
+                throw new IllegalArgumentException(route.name());
+        }
+    }
+
+    private HttpRequest json(String path, String method, String body) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .method(method, HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+    }
+
+    private String report() {
+        StringWriter text = new StringWriter();
+        PrintWriter out = new PrintWriter(text);
+        out.println("# Load test report");
+        out.printf("# target: %s%n", options.containsKey("url") ? baseUrl : "self-hosted");
+        out.printf("# server threads: %s, java %s%n", System.getProperty("socialmedia.server.threads", "platform"),
+                Runtime.version());
+        out.printf("# rate: %d req/s, duration: %d s, warmup: %d s, seed: %d%n", rate, durationSeconds, warmupSeconds, seed);
+        out.printf("# data: %d accounts, %d messages%n", accounts, messages);
+        out.printf("# mix: %s%n", mix);
+        out.printf("%-38s %9s %7s %8s %10s %10s %10s %10s %10s%n",
+                "route", "count", "errors", "dropped", "p50_ms", "p90_ms", "p99_ms", "p999_ms", "max_ms");
+
+        Histogram all = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+        long allErrors = 0;
+        long allDropped = 0;
+        for (Route route : Route.values()) {
+            Histogram histogram = latencies.get(route);
+            all.add(histogram);
+            allErrors += errors.get(route.ordinal());
+            allDropped += dropped.get(route.ordinal());
+            row(out, route.label, histogram, errors.get(route.ordinal()), dropped.get(route.ordinal()));
+        }
+        row(out, "ALL", all, allErrors, allDropped);
+        out.printf("# achieved: %.1f req/s%n", (double) all.getTotalCount() / durationSeconds);
+        out.flush();
+        return text.toString();
+    }
+
+    private static void row(PrintWriter out, String label, Histogram histogram, long errors, long dropped) {
+        out.printf("%-38s %9d %7d %8d %10.3f %10.3f %10.3f %10.3f %10.3f%n", label, histogram.getTotalCount(), errors,
+                dropped, millis(histogram, 50), millis(histogram, 90), millis(histogram, 99), millis(histogram, 99.9),
+                histogram.getMaxValue() / 1000.0);
+    }
+
+    private static double millis(Histogram histogram, double percentile) {
+        return histogram.getValueAtPercentile(percentile) / 1000.0;
+    }
+}
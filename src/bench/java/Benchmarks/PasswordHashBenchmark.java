@@ -0,0 +1,76 @@
+package Benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Service.PasswordHasher;
+
+/**
+ * PasswordHashBenchmark.java
+ *
+ * Logins per second per core at a given PBKDF2 cost. Each benchmark runs on one thread, so its score is what one
+ * core of the hashing pool can do; multiply by socialmedia.password.threads for the pool's capacity.
+ *
+ *  register          hashing a new password
+ *  login             checking a password that was not checked recently: one full PBKDF2 run
+ *  rememberedLogin   checking it again within the remembered-login TTL: one HMAC
+ *  legacyLogin       checking a password still stored as plain text, before its rehash
+ *
+ * Pick the cost with -p iterations=...; the default is the one new hashes get.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(1)
+@Fork(1)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PasswordHashBenchmark {
+
+    @Param({ "210000" })
+    public int iterations;
+
+    private PasswordHasher uncached;
+    private PasswordHasher cached;
+    private String storedHash;
+
+    @Setup
+    public void setUp() {
+        uncached = new PasswordHasher(iterations, 1, 1, 0, 0);
+        cached = new PasswordHasher(iterations, 1, 1, 1024 * 1024, 0);
+        storedHash = uncached.hash("benchmark password");
+        cached.verify("benchmark password", storedHash);
+    }
+
+    @Benchmark
+    public String register() {
+        return uncached.hash("benchmark password");
+    }
+
+    @Benchmark
+    public boolean login() {
+        return uncached.verify("benchmark password", storedHash);
+    }
+
+    @Benchmark
+    public boolean rememberedLogin() {
+        return cached.verify("benchmark password", storedHash);
+    }
+
+    @Benchmark
+    public boolean legacyLogin() {
+        return uncached.verify("benchmark password", "benchmark password");
+    }
+}
@@ -0,0 +1,67 @@
+package Benchmarks;
+
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Util.RateLimiter;
+
+/**
+ * RateLimiterBenchmark.java
+ *
+ * What a request pays for the rate limits of POST /messages (IP, account and global buckets), with four threads
+ * competing for the buckets. The limits are set so high that nothing is refused, which is the common case.
+ *
+ *  sameCaller    every thread posts as the same account from the same IP: all CAS on the same three buckets
+ *  manyCallers   each request comes from one of 10000 IPs and accounts: map lookups spread over many buckets
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(4)
+@Fork(1)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RateLimiterBenchmark {
+
+    private static final int CALLERS = 10_000;
+
+    private RateLimiter limiter;
+    private String[] ips;
+
+    @Setup
+    public void setUp() {
+        Properties properties = new Properties();
+        properties.setProperty("socialmedia.ratelimit.postMessage.ip", "1000000000:1000000000");
+        properties.setProperty("socialmedia.ratelimit.postMessage.account", "1000000000:1000000000");
+        properties.setProperty("socialmedia.ratelimit.postMessage.global", "1000000000:1000000000");
+        limiter = new RateLimiter(properties, System::nanoTime);
+        ips = new String[CALLERS];
+        for (int i = 0; i < CALLERS; i++) {
+            ips[i] = "10.0." + (i / 256) + "." + (i % 256);
+        }
+    }
+
+    @Benchmark
+    public long sameCaller() {
+        return limiter.acquire(RateLimiter.Route.POST_MESSAGE, ips[0], 1);
+    }
+
+    @Benchmark
+    public long manyCallers() {
+        int caller = ThreadLocalRandom.current().nextInt(CALLERS);
+        return limiter.acquire(RateLimiter.Route.POST_MESSAGE, ips[caller], caller + 1);
+    }
+}
@@ -0,0 +1,78 @@
+package Benchmarks;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import DAO.MessageDAO;
+import Model.Message;
+import Util.ConnectionUtil;
+
+/**
+ * RowMappingBenchmark.java
+ *
+ * Reads 100k messages through the same keyset query two ways: the way the DAOs used to (SELECT *, columns looked up
+ * by name, list grown as rows arrive) and the way MessageDAO does now (explicit columns read by position into a
+ * pre-sized list). Run with -prof gc to compare allocation as well as time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RowMappingBenchmark {
+
+    private static final int ACCOUNTS = 1000;
+    private static final String SELECT_STAR_PAGE = "SELECT * FROM Message WHERE message_id > ? ORDER BY message_id LIMIT ?";
+
+    @Param({ "100000" })
+    public int rowCount;
+
+    private final MessageDAO messageDAO = new MessageDAO();
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        BenchmarkDatabase.use("rowmapping-" + rowCount);
+        BenchmarkDatabase.seed(ACCOUNTS, rowCount);
+    }
+
+    @Benchmark
+    public List<Message> byColumnName() throws SQLException {
+        List<Message> messages = new ArrayList<>();
+        try (Connection conn = ConnectionUtil.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(SELECT_STAR_PAGE)) {
+            pstmt.setInt(1, 0);
+            pstmt.setInt(2, rowCount);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    messages.add(new Message(rs.getInt("message_id"), rs.getInt("posted_by"),
+                                             rs.getString("message_text"), rs.getLong("time_posted_epoch")));
+                }
+            }
+        }
+        return messages;
+    }
+
+    @Benchmark
+    public List<Message> byColumnIndex() throws SQLException {
+        return messageDAO.getMessagesPage(0, rowCount);
+    }
+}
@@ -0,0 +1,53 @@
+package Controller;
+
+import Model.Message;
+import Util.JsonCodec;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * MessageJsonWriter.java
+ * 
+ * Writes Message objects straight to a JsonGenerator field by field. Streaming handlers use it to emit each row
+ * while it is being read from the database instead of building a List and serializing it in one go. The field
+ * names and order match what Jackson produces for Message, so both paths return the same JSON.
+ */
+final class MessageJsonWriter {
+
+    private MessageJsonWriter() {
+    }
+
+    /**
+     * Opens a generator on the given stream. Closing the generator flushes it but leaves the stream open, so the
+     * web server stays in charge of finishing the response. Open arrays are not closed automatically either, so a
+     * stream cut short by an error ends in invalid JSON rather than in a valid but incomplete list.
+     * 
+     * @param out the stream to write to, usually the response output stream
+     * @return a new JsonGenerator
+     * @throws IOException if the generator can not be created
+     */
+    static JsonGenerator createGenerator(OutputStream out) throws IOException {
+        JsonGenerator generator = JsonCodec.INSTANCE.getFactory().createGenerator(out);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+        return generator;
+    }
+
+    /**
+     * Writes one message as a JSON object.
+     * 
+     * @param generator the generator to write to
+     * @param message the message to write
+     * @throws IOException if writing fails
+     */
+    static void writeMessage(JsonGenerator generator, Message message) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("message_id", message.getMessage_id());
+        generator.writeNumberField("posted_by", message.getPosted_by());
+        generator.writeStringField("message_text", message.getMessage_text());
+        generator.writeNumberField("time_posted_epoch", message.getTime_posted_epoch());
+        generator.writeEndObject();
+    }
+}
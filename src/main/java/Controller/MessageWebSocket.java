@@ -0,0 +1,311 @@
+package Controller;
+
+import Service.MessageEventBus;
+import Service.MessageService;
+import Util.JsonCodec;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import io.javalin.websocket.WsCloseContext;
+import io.javalin.websocket.WsConfig;
+import io.javalin.websocket.WsConnectContext;
+import io.javalin.websocket.WsContext;
+import io.javalin.websocket.WsErrorContext;
+import io.javalin.websocket.WsMessageContext;
+
+import org.eclipse.jetty.websocket.api.StatusCode;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * MessageWebSocket.java
+ *
+ * The /ws/messages WebSocket: the same message changes as GET /messages/stream, but a client can follow several
+ * accounts over one connection and change whom it follows without reconnecting. The accounts to start with can be
+ * given as a comma separated posted_by query parameter. After that the client sends text frames such as
+ *
+ *  {"action": "subscribe", "posted_by": [1, 2]}      follow more accounts
+ *  {"action": "unsubscribe", "posted_by": [2]}       stop following some
+ *  {"action": "ping"}                                 answered with {"type": "pong"}
+ *
+ * and the server answers subscribe and unsubscribe with {"type": "subscribed", "posted_by": [...]}, the accounts now
+ * followed, and a malformed request with {"type": "error", "message": "..."}. Changes arrive as
+ *
+ *  {"type": "events", "events": [{"id": 7, "event": "created", "message": {...}}, ...]}
+ *
+ * where one frame carries every change that was waiting for the client, so a busy server sends fewer, larger frames
+ * instead of one per change. See MessageEventBus for ordering and what happens to a client that falls behind.
+ *
+ * Liveness uses WebSocket control frames rather than the bus heartbeats: the server pings every
+ * socialmedia.ws.pingSeconds (default 20), and a connection that has seen no frame at all, not even the pong, for
+ * socialmedia.ws.idleTimeoutSeconds (default 60) is closed by Jetty and its subscription dropped. A connection may
+ * follow at most socialmedia.ws.maxFollowedAccounts accounts (default 100).
+ *
+ * Frames are written asynchronously, so no delivery or handler thread waits for a client that does not read. Up to
+ * socialmedia.ws.maxOutgoingFrames frames (default 64) may be waiting to be written to one client; a write beyond
+ * that fails, and an event frame that fails drops the subscription.
+ */
+final class MessageWebSocket {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MessageWebSocket.class);
+
+    private static final long PING_SECONDS = Long.getLong("socialmedia.ws.pingSeconds", 20);
+    private static final long IDLE_TIMEOUT_SECONDS = Long.getLong("socialmedia.ws.idleTimeoutSeconds", 60);
+    private static final int MAX_FOLLOWED_ACCOUNTS = Integer.getInteger("socialmedia.ws.maxFollowedAccounts", 100);
+    private static final int MAX_OUTGOING_FRAMES = Integer.getInteger("socialmedia.ws.maxOutgoingFrames", 64);
+
+    private final MessageService messageService;
+    private final Map<String, Connection> connections = new ConcurrentHashMap<>();
+
+    private final AtomicLong framesSent = new AtomicLong();
+    private final AtomicLong eventsSent = new AtomicLong();
+    private final AtomicLong badRequests = new AtomicLong();
+
+    /**
+     * @param messageService the service whose changes are pushed
+     */
+    MessageWebSocket(MessageService messageService) {
+        this.messageService = messageService;
+    }
+
+    /**
+     * Installs the handlers; pass as the configuration of app.ws.
+     *
+     * @param ws the Javalin WebSocket handler configuration
+     */
+    void configure(WsConfig ws) {
+        ws.onConnect(this::onConnect);
+        ws.onMessage(this::onMessage);
+        ws.onClose(this::onClose);
+        ws.onError(this::onError);
+    }
+
+    /**
+     * Takes a point-in-time view of the WebSocket connections for the /metrics endpoint.
+     *
+     * @return the number of open connections, how many event frames and events were sent, and how many client
+     *         requests were rejected
+     */
+    Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("connections", connections.size());
+        stats.put("framesSent", framesSent.get());
+        stats.put("eventsSent", eventsSent.get());
+        stats.put("badRequests", badRequests.get());
+        return stats;
+    }
+
+    private void onConnect(WsConnectContext context) {
+        context.session.setIdleTimeout(Duration.ofSeconds(IDLE_TIMEOUT_SECONDS));
+        context.session.getRemote().setMaxOutgoingFrames(MAX_OUTGOING_FRAMES);
+        if (PING_SECONDS > 0) {
+            context.enableAutomaticPings(PING_SECONDS, TimeUnit.SECONDS);
+        }
+        Connection connection = new Connection(context);
+        connection.subscription = messageService.subscribe(connection);
+        connections.put(context.getSessionId(), connection);
+
+        String postedByParam = context.queryParam("posted_by");
+        if (postedByParam != null && !postedByParam.isBlank()) {
+            List<Integer> postedBy = new ArrayList<>();
+            try {
+                for (String accountId : postedByParam.split(",")) {
+                    postedBy.add(Integer.valueOf(accountId.trim()));
+                }
+            } catch (NumberFormatException e) {
+                connection.reject("posted_by must be a comma separated list of numbers");
+                return;
+            }
+            connection.follow(postedBy);
+        }
+    }
+
+    private void onMessage(WsMessageContext context) {
+        Connection connection = connections.get(context.getSessionId());
+        if (connection == null) {
+            return; // Closing
+        }
+        JsonNode request;
+        try {
+            request = JsonCodec.INSTANCE.readerFor(JsonNode.class).readTree(context.message());
+        } catch (JsonProcessingException e) {
+            connection.reject("Requests must be JSON objects");
+            return;
+        }
+        String action = request.path("action").asText();
+        switch (action) {
+            case "ping":
+                connection.sendJson(Map.of("type", "pong"));
+                return;
+            case "subscribe":
+            case "unsubscribe":
+                break;
+            default:
+                connection.reject("Unknown action: " + action);
+                return;
+        }
+        JsonNode postedByNode = request.path("posted_by");
+        List<Integer> postedBy = new ArrayList<>();
+        if (postedByNode.isInt()) {
+            postedBy.add(postedByNode.intValue());
+        } else if (postedByNode.isArray()) {
+            for (JsonNode accountId : postedByNode) {
+                if (!accountId.isInt()) {
+                    connection.reject("posted_by must be a number or a list of numbers");
+                    return;
+                }
+                postedBy.add(accountId.intValue());
+            }
+        } else {
+            connection.reject("posted_by must be a number or a list of numbers");
+            return;
+        }
+        if (action.equals("subscribe")) {
+            connection.follow(postedBy);
+        } else {
+            connection.unfollow(postedBy);
+        }
+    }
+
+    private void onClose(WsCloseContext context) {
+        disconnect(context);
+    }
+
+    private void onError(WsErrorContext context) {
+        LOGGER.debug("WebSocket {} failed", context.getSessionId(), context.error());
+        disconnect(context);
+    }
+
+    private void disconnect(WsContext context) {
+        Connection connection = connections.remove(context.getSessionId());
+        if (connection != null) {
+            connection.subscription.cancel();
+        }
+    }
+
+    /**
+     * One open socket: its subscription, and a lock so event frames from the delivery threads and replies from the
+     * handler threads are queued for writing one at a time.
+     */
+    private final class Connection implements MessageEventBus.Subscriber {
+        private final WsContext context;
+        private final ReentrantLock sendLock = new ReentrantLock();
+        private volatile MessageEventBus.Subscription subscription;
+
+        private Connection(WsContext context) {
+            this.context = context;
+        }
+
+        @Override
+        public CompletableFuture<Void> send(List<MessageEventBus.Event> events) {
+            StringBuilder frame = new StringBuilder(64 + 160 * events.size()).append("{\"type\":\"events\",\"events\":[");
+            int count = 0;
+            for (MessageEventBus.Event event : events) {
+                if (event.isHeartbeat()) {
+                    continue; // Pings keep the socket alive
+                }
+                if (count++ > 0) {
+                    frame.append(',');
+                }
+                // The data is already JSON, so the frame is assembled as text rather than re-serialized
+                frame.append("{\"id\":").append(event.getId())
+                        .append(",\"event\":\"").append(event.getName())
+                        .append("\",\"message\":").append(event.getData()).append('}');
+            }
+            if (count == 0) {
+                return CompletableFuture.completedFuture(null);
+            }
+            int sentEvents = count;
+            return sendText(frame.append("]}").toString()).thenRun(() -> {
+                framesSent.incrementAndGet();
+                eventsSent.addAndGet(sentEvents);
+            });
+        }
+
+        @Override
+        public void close() {
+            context.closeSession(StatusCode.TRY_AGAIN_LATER, "Fell too far behind");
+        }
+
+        private void follow(List<Integer> postedBy) {
+            for (Integer accountId : postedBy) {
+                if (!subscription.isFollowing(accountId) && subscription.followedCount() >= MAX_FOLLOWED_ACCOUNTS) {
+                    reject("At most " + MAX_FOLLOWED_ACCOUNTS + " accounts can be followed");
+                    return;
+                }
+                subscription.follow(accountId);
+            }
+            confirm();
+        }
+
+        private void unfollow(List<Integer> postedBy) {
+            for (Integer accountId : postedBy) {
+                subscription.unfollow(accountId);
+            }
+            confirm();
+        }
+
+        private void confirm() {
+            sendJson(Map.of("type", "subscribed", "posted_by", subscription.getFollowed()));
+        }
+
+        private void reject(String reason) {
+            badRequests.incrementAndGet();
+            sendJson(Map.of("type", "error", "message", reason));
+        }
+
+        private void sendJson(Map<String, ?> value) {
+            String text;
+            try {
+                text = JsonCodec.INSTANCE.writerFor(Map.class).writeValueAsString(value);
+            } catch (JsonProcessingException e) {
+                LOGGER.warn("Could not serialize a reply for WebSocket {}", context.getSessionId(), e);
+                return;
+            }
+            sendText(text).exceptionally(failure -> {
+                LOGGER.debug("Could not reply on WebSocket {}", context.getSessionId(), failure);
+                return null;
+            });
+        }
+
+        /**
+         * Queues a text frame for writing without waiting for it.
+         *
+         * @return completed once the frame is written, or exceptionally if it can not be
+         */
+        private CompletableFuture<Void> sendText(String text) {
+            CompletableFuture<Void> written = new CompletableFuture<>();
+            sendLock.lock();
+            try {
+                context.session.getRemote().sendString(text, new WriteCallback() {
+                    @Override
+                    public void writeSuccess() {
+                        written.complete(null);
+                    }
+
+                    @Override
+                    public void writeFailed(Throwable failure) {
+                        written.completeExceptionally(failure);
+                    }
+                });
+            } catch (RuntimeException e) {
+                written.completeExceptionally(e);
+            } finally {
+                sendLock.unlock();
+            }
+            return written;
+        }
+    }
+}
@@ -1,17 +1,44 @@
 package Controller;
 
 import io.javalin.Javalin;
+import io.javalin.http.ContentType;
 import io.javalin.http.Context;
+import io.javalin.http.Header;
+import io.javalin.http.sse.SseClient;
+import io.javalin.util.LoomThreadPool;
+import io.javalin.util.LoomUtil;
 import Service.AccountService;
+import Service.MessageEventBus;
 import Service.MessageService;
+import Service.OverloadedException;
 import Model.Account;
 import Model.Message;
+import Util.ConnectionUtil;
+import Util.EncodedJson;
+import Util.JsonCodec;
+import Util.RateLimiter;
+import Util.ResponseCompression;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.sql.*;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import org.eclipse.jetty.server.LowResourceMonitor;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.StatisticsHandler;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * SocialMediaController.java
@@ -25,8 +52,57 @@ import com.fasterxml.jackson.databind.JsonNode;
  */
 public class SocialMediaController {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(SocialMediaController.class);
+
+    /**
+     * Largest page GET /messages returns when paginating, however large the requested limit.
+     */
+    private static final int MAX_PAGE_SIZE = Integer.getInteger("socialmedia.messages.maxPageSize", 1000);
+
+    /**
+     * How many messages a streamed list reads from the database at a time; see streamMessages.
+     */
+    private static final int STREAM_PAGE_SIZE = Integer.getInteger("socialmedia.messages.streamPageSize", 500);
+
+    /**
+     * Largest number of messages POST /messages/batch accepts in one request.
+     */
+    private static final int MAX_BATCH_SIZE = Integer.getInteger("socialmedia.messages.maxBatchSize", 1000);
+
+    /**
+     * How Jetty runs the handlers: "platform" runs them on a bounded pool of socialmedia.server.maxThreads platform
+     * threads, "virtual" starts one virtual thread per request so a handler blocked on JDBC no longer holds a scarce
+     * pool thread. Virtual threads need a JDK 21 or newer runtime (the build's jdk21 profile runs the tests in this
+     * mode); on JDK 17 the mode logs a warning and falls back to the platform pool.
+     * 
+     * Platform stays the default because it measured better. With LoadGenerator on JDK 21 and one CPU, at 200 req/s
+     * with the default mix, p50 was about the same in both modes, but p99 was 60-70 ms on the platform pool and
+     * 340-540 ms on virtual threads. jdk.tracePinnedThreads reported no pinning. The likely reason is that all
+     * handlers then share one carrier thread, which competes with the database and hashing pools for the CPU.
+     * Handlers also hand their JDBC work to the DatabaseExecutor, so there is little blocking for virtual threads
+     * to absorb.
+     */
+    private static final String SERVER_THREADS = System.getProperty("socialmedia.server.threads", "platform");
+    private static final int MAX_SERVER_THREADS = Integer.getInteger("socialmedia.server.maxThreads", 250);
+
+    /**
+     * Whether the message writes that name an account (POST /messages and /messages/batch) need a session token.
+     * Off by default, so clients that never log in keep working; a token that is presented is checked either way.
+     */
+    private static final boolean SESSION_REQUIRED = Boolean.getBoolean("socialmedia.auth.required");
+
+    /**
+     * Response header that carries the session token issued by POST /login.
+     */
+    static final String SESSION_TOKEN_HEADER = "X-Auth-Token";
+
+    private static final String BEARER_PREFIX = "Bearer ";
+
     private final AccountService accountService = new AccountService();
     private final MessageService messageService = new MessageService();
+    private final MessageWebSocket messageWebSocket = new MessageWebSocket(messageService);
+    private final RateLimiter rateLimiter = RateLimiter.fromSystemProperties();
+    private volatile ThreadPool serverThreads; // Of the server last created by startAPI
 
     /**
      * Starts the Javalin API with the defined endpoints.
@@ -34,203 +110,742 @@ public class SocialMediaController {
      * @return the Javalin app instance
      */
     public Javalin startAPI() {
-        Javalin app = Javalin.create();
+        Javalin app = Javalin.create(config -> {
+            config.jetty.server(this::createServer);
+            config.jsonMapper(JsonCodec.INSTANCE);
+            config.compression.custom(ResponseCompression.strategy());
+        });
         app.get("/example-endpoint", this::exampleHandler);
 
         app.post("/register", this::registerUser);
         app.post("/login", this::loginUser);
         app.post("/messages", this::createMessage);
+        app.post("/messages/batch", this::createMessages);
         app.get("/messages", this::getAllMessages);
+        app.sse("/messages/stream", this::streamMessageEvents); // Before /messages/{message_id}, which would match too
         app.get("/messages/{message_id}", this::getMessageById);
         app.delete("/messages/{message_id}", this::deleteMessageById);
         app.patch("/messages/{message_id}", this::updateMessageById);
         app.get("/accounts/{account_id}/messages", this::getMessagesByUserId);
+        app.get("/metrics", this::getMetrics);
+        app.ws("/ws/messages", messageWebSocket::configure);
+
+        app.events(event -> event.serverStopped(messageService::close));
 
         return app;
     }
 
     /**
-     * Handles user registration by validating input and creating a new account.
+     * Builds the Jetty server the same way Javalin's default does (low resource monitor and statistics handler), but
+     * with the thread pool picked by socialmedia.server.threads.
+     *
+     * @return a new, unstarted Jetty server
+     */
+    private Server createServer() {
+        ThreadPool threadPool;
+        if ("virtual".equalsIgnoreCase(SERVER_THREADS) && LoomUtil.INSTANCE.getLoomAvailable()) {
+            threadPool = new LoomThreadPool("JettyServerThreadPool");
+        } else {
+            if ("virtual".equalsIgnoreCase(SERVER_THREADS)) {
+                LOGGER.warn("Virtual threads are not available on Java {}, using platform threads",
+                        Runtime.version().feature());
+            }
+            QueuedThreadPool queuedThreadPool = new QueuedThreadPool(MAX_SERVER_THREADS, 8, 60_000);
+            queuedThreadPool.setName("JettyServerThreadPool");
+            threadPool = queuedThreadPool;
+        }
+        serverThreads = threadPool;
+        Server server = new Server(threadPool);
+        server.addBean(new LowResourceMonitor(server));
+        server.insertHandler(new StatisticsHandler());
+        return server;
+    }
+
+    /**
+     * Handles user registration by validating input and creating a new account. The account is written on the
+     * DatabaseExecutor, and the request thread is released meanwhile.
      * 
      * @param context the Javalin context
      */
     private void registerUser(Context context) {
+        if (rateLimited(context, RateLimiter.Route.REGISTER, 0)) {
+            return;
+        }
+        Account account;
         try {
-            Account account = context.bodyAsClass(Account.class);
-    
-            // Check for blank username
-            if (account.getUsername() == null || account.getUsername().isBlank()) {
-                context.status(400).result(""); // Return 400 for blank username
-                return;
-            }
-    
-            // Check for short password
-            if (account.getPassword() == null || account.getPassword().length() < 4) {
-                context.status(400).result(""); // Return 400 for short password
-                return;
-            }
-    
-            // Register the account
-            Account createdAccount = accountService.registerAccount(account);
-            if (createdAccount != null) {
-                context.status(200).json(createdAccount); // Use 200 for successful registration
-            } else {
-                context.status(400).result(""); // Handle any other issues that arise
-            }
-    
-        } catch (IllegalArgumentException e) {
-            context.status(400).result(""); // Return 400 for validation issues (like duplicate username)
+            account = context.bodyAsClass(Account.class);
         } catch (Exception e) {
             context.status(500).result("Error registering user: " + e.getMessage());
+            return;
+        }
+
+        // Check for blank username
+        if (account.getUsername() == null || account.getUsername().isBlank()) {
+            context.status(400).result(""); // Return 400 for blank username
+            return;
         }
+
+        // Check for short password
+        if (account.getPassword() == null || account.getPassword().length() < 4) {
+            context.status(400).result(""); // Return 400 for short password
+            return;
+        }
+
+        // Register the account
+        context.future(() -> accountService.registerAccountAsync(account)
+                .thenAccept(createdAccount -> {
+                    if (createdAccount != null) {
+                        context.status(200).json(createdAccount); // Use 200 for successful registration
+                    } else {
+                        context.status(400).result(""); // Handle any other issues that arise
+                    }
+                })
+                .exceptionally(failure -> {
+                    Throwable e = causeOf(failure);
+                    if (e instanceof IllegalArgumentException) {
+                        context.status(400).result(""); // Return 400 for validation issues (like duplicate username)
+                    } else if (!overloaded(context, e)) {
+                        context.status(500).result("Error registering user: " + e.getMessage());
+                    }
+                    return null;
+                }));
     }
 
     /**
-     * Handles user login by validating credentials and returning account details.
+     * Handles user login by validating credentials and returning account details. The account is read on the
+     * DatabaseExecutor, and the request thread is released meanwhile. The response carries a session token in the
+     * X-Auth-Token header; the body is the account, as before.
      * 
      * @param context the Javalin context
      */
     private void loginUser(Context context) {
+        if (rateLimited(context, RateLimiter.Route.LOGIN, 0)) {
+            return;
+        }
+        Account account;
         try {
-            Account account = context.bodyAsClass(Account.class);
-            Account loggedInAccount = accountService.loginAccount(account);
-            if (loggedInAccount != null) {
-                context.status(200).json(loggedInAccount);
-            } else {
-                context.status(401).result(""); // This line may be unnecessary if loginAccount() always returns an Account or throws an exception
-            }
-        } catch (IllegalArgumentException e) {
-            context.status(401).result(""); // Set status to 401 for invalid credentials
+            account = context.bodyAsClass(Account.class);
         } catch (Exception e) {
             context.status(500).result("Error logging in user: " + e.getMessage());
+            return;
         }
+        context.future(() -> accountService.loginAccountAsync(account)
+                .thenAccept(loggedInAccount -> {
+                    if (loggedInAccount != null) {
+                        context.header(SESSION_TOKEN_HEADER, accountService.issueSessionToken(loggedInAccount));
+                        context.status(200).json(loggedInAccount);
+                    } else {
+                        context.status(401).result(""); // This line may be unnecessary if loginAccount() always returns an Account or throws an exception
+                    }
+                })
+                .exceptionally(failure -> {
+                    Throwable e = causeOf(failure);
+                    if (e instanceof IllegalArgumentException) {
+                        context.status(401).result(""); // Set status to 401 for invalid credentials
+                    } else if (!overloaded(context, e)) {
+                        context.status(500).result("Error logging in user: " + e.getMessage());
+                    }
+                    return null;
+                }));
     }
 
     /**
-     * Creates a new message after validating input and checking account existence.
+     * Creates a new message after validating input and checking account existence. Both run without holding the
+     * request thread: the account check is usually answered from memory, and the insert runs on the
+     * DatabaseExecutor.
      * 
      * @param context the Javalin context
      */
     private void createMessage(Context context) {
+        // Limited before the body is read, so malformed floods count too, and per account only for a session: the
+        // posted_by of the body is not the caller's to spend
+        int sessionAccountId = authenticate(context);
+        if (sessionAccountId < 0 || rateLimited(context, RateLimiter.Route.POST_MESSAGE, sessionAccountId)) {
+            return;
+        }
+        Message message;
         try {
-            Message message = context.bodyAsClass(Message.class);
+            message = context.bodyAsClass(Message.class);
     
             // Validate message text
             if (message.getMessage_text().trim().isEmpty() || message.getMessage_text().length() > 255) {
                 context.status(400).result("");
                 return;
             }
-    
-            // Check if the account exists
-            if (!accountService.doesAccountExist(message.getPosted_by())) {
-                context.status(400).result("");
-                return;
-            }
-    
-            // Create the message
-            Message createdMessage = messageService.createMessage(message);
-    
-            if (createdMessage == null || createdMessage.getMessage_id() <= 0) {
-                context.status(500).result("");
-                return;
-            }
-    
-            context.status(200).json(createdMessage);
         } catch (Exception e) {
             e.printStackTrace();
             context.status(500).result("");
+            return;
+        }
+        if (!mayActFor(context, sessionAccountId, message.getPosted_by())) {
+            return;
         }
+
+        context.future(() -> accountService.doesAccountExistAsync(message.getPosted_by())
+                .thenCompose(accountExists -> {
+                    // Check if the account exists
+                    if (!accountExists) {
+                        context.status(400).result("");
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    // Create the message
+                    return messageService.createMessageAsync(message).thenAccept(createdMessage -> {
+                        if (createdMessage == null || createdMessage.getMessage_id() <= 0) {
+                            context.status(500).result("");
+                            return;
+                        }
+                        context.status(200).json(createdMessage);
+                    });
+                })
+                .exceptionally(failure -> {
+                    Throwable e = causeOf(failure);
+                    if (!overloaded(context, e)) {
+                        e.printStackTrace();
+                        context.status(500).result("");
+                    }
+                    return null;
+                }));
     }
 
     /**
-     * Retrieves all messages and returns them in JSON format.
+     * Creates a batch of messages from a JSON array. Every message is checked up front with the same rules as
+     * POST /messages; the valid ones are then written together in a single transaction on the DatabaseExecutor. The
+     * response holds one result per input message, in input order: {"message_id": id} if it was created,
+     * {"error": reason} if not.
      * 
      * @param context the Javalin context
      */
-    private void getAllMessages(Context context) {
+    private void createMessages(Context context) {
+        // Without a session a batch may name any number of accounts, so it is then only limited per IP
+        int sessionAccountId = authenticate(context);
+        if (sessionAccountId < 0 || rateLimited(context, RateLimiter.Route.POST_MESSAGES, sessionAccountId)) {
+            return;
+        }
+        Message[] batch;
         try {
-            List<Message> messages = messageService.getAllMessages();
-            context.status(200).json(messages);
+            batch = context.bodyAsClass(Message[].class);
         } catch (Exception e) {
-            context.status(500).result("Error retrieving messages: " + e.getMessage());
+            context.status(400).result(""); // Not a JSON array of messages
+            return;
+        }
+        if (batch.length == 0 || batch.length > MAX_BATCH_SIZE) {
+            context.status(400).result("");
+            return;
         }
+        for (Message message : batch) {
+            if (message != null && !mayActFor(context, sessionAccountId, message.getPosted_by())) {
+                return;
+            }
+        }
+
+        // The text is checked here; the accounts are checked together, from memory or in one lookup on the
+        // DatabaseExecutor, so the request thread never waits for the database
+        List<Map<String, Object>> results = new ArrayList<>(batch.length);
+        Set<Integer> postedBy = new HashSet<>();
+        for (Message message : batch) {
+            String error = validateMessage(message);
+            results.add(error == null ? null : Map.of("error", error)); // null is filled in below
+            if (error == null) {
+                postedBy.add(message.getPosted_by());
+            }
+        }
+
+        context.future(() -> accountService.existingAccountsAsync(postedBy)
+                .thenCompose(existingAccounts -> {
+                    List<Message> valid = new ArrayList<>(batch.length);
+                    List<Integer> validPositions = new ArrayList<>(batch.length);
+                    for (int i = 0; i < batch.length; i++) {
+                        if (results.get(i) != null) {
+                            continue;
+                        }
+                        if (existingAccounts.contains(batch[i].getPosted_by())) {
+                            valid.add(batch[i]);
+                            validPositions.add(i);
+                        } else {
+                            results.set(i, Map.of("error", "posted_by does not refer to an existing account"));
+                        }
+                    }
+                    if (valid.isEmpty()) {
+                        context.status(200).json(results);
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    return messageService.createMessagesAsync(valid).thenAccept(createdMessages -> {
+                        for (int i = 0; i < createdMessages.size(); i++) {
+                            results.set(validPositions.get(i),
+                                    Map.of("message_id", createdMessages.get(i).getMessage_id()));
+                        }
+                        context.status(200).json(results);
+                    });
+                })
+                .exceptionally(failure -> {
+                    Throwable e = causeOf(failure);
+                    if (!overloaded(context, e)) {
+                        e.printStackTrace();
+                        context.status(500).result("");
+                    }
+                    return null;
+                }));
     }
 
     /**
-     * Retrieves a message by its ID and returns it in JSON format.
+     * Takes a token from the rate limits of a route, and answers 429 with Retry-After if one of them is used up.
+     * The IP is the connection's remote address; X-Forwarded-For is not trusted, as any client can send it.
+     *
+     * @param context the Javalin context
+     * @param route the route requested
+     * @param accountId the account the request acts for, or 0 if it is not known
+     * @return true if the request has been answered with 429
+     */
+    private boolean rateLimited(Context context, RateLimiter.Route route, int accountId) {
+        long retryAfterSeconds = rateLimiter.acquire(route, context.ip(), accountId);
+        if (retryAfterSeconds == 0) {
+            return false;
+        }
+        context.status(429).header(Header.RETRY_AFTER, Long.toString(retryAfterSeconds)).result("");
+        return true;
+    }
+
+    /**
+     * Reads the session token from the Authorization header, in place. Answers 401 itself if a token is presented
+     * but not valid, or if none is presented while socialmedia.auth.required is set.
      * 
      * @param context the Javalin context
+     * @return the ID of the token's account, 0 if no token was presented and none is required, or -1 if the
+     *         request has been answered with 401
      */
-    private void getMessageById(Context context) {
+    private int authenticate(Context context) {
+        String authorization = context.header(Header.AUTHORIZATION);
+        if (authorization == null || !authorization.regionMatches(true, 0, BEARER_PREFIX, 0, BEARER_PREFIX.length())) {
+            if (!SESSION_REQUIRED) {
+                return 0;
+            }
+        } else {
+            int accountId = accountService.authenticate(authorization, BEARER_PREFIX.length());
+            if (accountId >= 0) {
+                return accountId;
+            }
+        }
+        context.status(401).header(Header.WWW_AUTHENTICATE, "Bearer").result("");
+        return -1;
+    }
+
+    /**
+     * Checks that an authenticated request only writes for its own account, and answers 403 if not.
+     * 
+     * @param context the Javalin context
+     * @param sessionAccountId what authenticate returned
+     * @param accountId the account the request writes for
+     * @return true if the request may go ahead
+     */
+    private static boolean mayActFor(Context context, int sessionAccountId, int accountId) {
+        if (sessionAccountId < 0) {
+            return false; // Already answered with 401
+        }
+        if (sessionAccountId > 0 && sessionAccountId != accountId) {
+            context.status(403).result("");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks a message against the rules for creating one that need no database: everything but whether posted_by
+     * refers to an existing account.
+     * 
+     * @param message the message to check
+     * @return why the message can not be created, or null if it may be
+     */
+    private static String validateMessage(Message message) {
+        if (message == null) {
+            return "message must be an object";
+        }
+        if (message.getMessage_text() == null || message.getMessage_text().trim().isEmpty()) {
+            return "message_text must not be blank";
+        }
+        if (message.getMessage_text().length() > 255) {
+            return "message_text must not exceed 255 characters";
+        }
+        return null;
+    }
+
+    /**
+     * Retrieves messages and returns them in JSON format. Without query parameters every message is streamed to the
+     * response a page at a time (see streamMessages), so memory use stays flat regardless of the number of rows. With limit and/or after the messages are paginated by message ID (keyset pagination):
+     * a page holds the next limit messages with an ID greater than after, and a Link header points at the next page
+     * when this one is full. With stream=true a range given by after and limit is streamed instead of paginated.
+     * 
+     * @param context the Javalin context
+     */
+    private void getAllMessages(Context context) {
+        String afterParam = context.queryParam("after");
+        String limitParam = context.queryParam("limit");
+        boolean stream = "true".equalsIgnoreCase(context.queryParam("stream"))
+                || (afterParam == null && limitParam == null);
+
+        int afterMessageId;
+        int limit;
+        try {
+            afterMessageId = afterParam == null ? 0 : Integer.parseInt(afterParam);
+            limit = limitParam == null ? (stream ? Integer.MAX_VALUE : MAX_PAGE_SIZE) : Integer.parseInt(limitParam);
+        } catch (NumberFormatException e) {
+            context.status(400).result(""); // Non-numeric cursor or limit
+            return;
+        }
+        if (afterMessageId < 0 || limit < 1) {
+            context.status(400).result("");
+            return;
+        }
+
+        if (stream) {
+            streamMessages(context, afterMessageId, limit, messageService::getMessagesPageAsync);
+            return;
+        }
+        int pageSize = Math.min(limit, MAX_PAGE_SIZE);
+        context.future(() -> messageService.getMessagesPageAsync(afterMessageId, pageSize)
+                .thenAccept(messages -> {
+                    if (messages.size() == pageSize) {
+                        int lastMessageId = messages.get(messages.size() - 1).getMessage_id();
+                        context.header("Link", "</messages?after=" + lastMessageId + "&limit=" + pageSize + ">; rel=\"next\"");
+                    }
+                    context.status(200).json(messages);
+                })
+                .exceptionally(failure -> {
+                    Throwable e = causeOf(failure);
+                    if (!overloaded(context, e)) {
+                        context.status(500).result("Error retrieving messages: " + e.getMessage());
+                    }
+                    return null;
+                }));
+    }
+
+    /**
+     * Writes messages to the response as a JSON array, reading them from the database STREAM_PAGE_SIZE at a time by
+     * message ID (keyset pagination). Nothing sets a content length, so once the body outgrows Jetty's response buffer
+     * it is sent with chunked transfer encoding. For a client that does not accept compression, the first page is
+     * flushed to the socket as soon as it is read. Javalin decides whether to compress on each write until one is large
+     * enough (see ResponseCompression), so when the response may be compressed nothing is flushed early: a small first
+     * write would go out plain and a later, larger one gzipped, corrupting the body. The first write is then the
+     * generator's full 8000 byte buffer; a minSize above that leaves streamed lists uncompressed, but still intact.
+     * 
+     * Each page is read into memory on the DatabaseExecutor, whose thread and connection are then free again, and is
+     * written to the client on a server thread while the request thread is released. So a client that reads slowly
+     * holds a server thread, of which there are many, but no database thread or connection, and the LIST_MESSAGES
+     * bulkhead only counts reads that are actually running. The next page is read once the last one is written. As
+     * the pages are separate reads, a message created or deleted meanwhile is listed or left out as of the page its ID
+     * falls in.
+     * 
+     * If reading fails before anything was sent, the buffered output is discarded and a 500 is returned, or a 503 if
+     * the read was turned away by its bulkhead. After that the status can no longer change, so the failure is logged
+     * and the array is left unterminated, which the client sees as invalid JSON.
+     * 
+     * @param context the Javalin context
+     * @param afterMessageId the ID after which the list starts
+     * @param limit the most messages to list
+     * @param source reads the pages
+     */
+    private void streamMessages(Context context, int afterMessageId, int limit, MessageSource source) {
+        context.status(200).contentType(ContentType.APPLICATION_JSON);
+        boolean flushFirst = !ResponseCompression.negotiated(context.header(Header.ACCEPT_ENCODING));
+        JsonGenerator generator;
         try {
-            int messageId = Integer.parseInt(context.pathParam("message_id"));
-            Message message = messageService.getMessageById(messageId);
-            if (message != null) {
-                context.status(200).json(message);
+            generator = MessageJsonWriter.createGenerator(context.outputStream());
+            generator.writeStartArray();
+        } catch (IOException e) {
+            streamFailed(context, e);
+            return;
+        }
+        CompletableFuture<Void> streamed = new CompletableFuture<>();
+        context.future(() -> streamed.handle((done, failure) -> {
+            Throwable e = failure == null ? null : causeOf(failure);
+            try {
+                if (e == null) {
+                    generator.writeEndArray();
+                }
+                generator.close();
+            } catch (IOException closeFailure) {
+                e = e == null ? closeFailure : e;
+            }
+            if (e != null) {
+                streamFailed(context, e);
+            }
+            return null;
+        }));
+        streamPage(context, generator, flushFirst, source, afterMessageId, limit, streamed);
+    }
+
+    /**
+     * Reads the next page of a streamMessages on the DatabaseExecutor and writes it on a server thread, then goes on
+     * with the page after it, until a page comes back short or the limit is reached.
+     * 
+     * @param flushFirst whether to flush this page to the client at once, for the first page of an uncompressed list
+     */
+    private void streamPage(Context context, JsonGenerator generator, boolean flushFirst, MessageSource source,
+                            int afterMessageId, int remaining, CompletableFuture<Void> streamed) {
+        int pageSize = Math.min(remaining, STREAM_PAGE_SIZE);
+        source.page(afterMessageId, pageSize).whenCompleteAsync((messages, failure) -> {
+            if (failure != null) {
+                streamed.completeExceptionally(failure);
+                return;
+            }
+            try {
+                for (Message message : messages) {
+                    MessageJsonWriter.writeMessage(generator, message);
+                }
+                if (flushFirst) {
+                    generator.flush();
+                    context.res().flushBuffer();
+                }
+            } catch (IOException | RuntimeException e) {
+                streamed.completeExceptionally(e);
+                return;
+            }
+            if (messages.size() < pageSize || remaining == pageSize) {
+                streamed.complete(null);
             } else {
-                context.status(200).result("");
+                int lastMessageId = messages.get(messages.size() - 1).getMessage_id();
+                streamPage(context, generator, false, source, lastMessageId, remaining - pageSize, streamed);
             }
-        } catch (Exception e) {
+        }, serverThreads);
+    }
+
+    /**
+     * Turns a failed streamMessages into an error response, if nothing was sent yet.
+     * 
+     * @param context the Javalin context
+     * @param e why streaming failed
+     */
+    private static void streamFailed(Context context, Throwable e) {
+        if (context.res().isCommitted()) {
+            LOGGER.warn("Streaming messages failed after the response was committed", e);
+            return;
+        }
+        context.res().resetBuffer();
+        context.res().setHeader(Header.ETAG, null); // The error is not the resource the tag stands for
+        if (!overloaded(context, e)) {
+            context.status(500).result("Error retrieving messages: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Unwraps the exception a failed future hands to the stages after it.
+     * 
+     * @param failure what the stage received
+     * @return the exception the database work actually threw
+     */
+    private static Throwable causeOf(Throwable failure) {
+        return failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+    }
+
+    /**
+     * Answers 503 Service Unavailable, with a Retry-After of one second, when the work was turned away because its
+     * pool was full: the bulkhead of its database operation (see DatabaseExecutor), or the password hashing pool.
+     * 
+     * @param context the Javalin context
+     * @param e why the work failed
+     * @return true if the 503 was sent and the handler is done
+     */
+    private static boolean overloaded(Context context, Throwable e) {
+        if (!(e instanceof OverloadedException)) {
+            return false;
+        }
+        context.status(503).header(Header.RETRY_AFTER, "1").result("");
+        return true;
+    }
+
+    /**
+     * Reads pages of messages for streamMessages on the DatabaseExecutor.
+     */
+    @FunctionalInterface
+    private interface MessageSource {
+        /**
+         * @return a future of at most limit messages with an ID greater than afterMessageId, in ascending ID order;
+         *         fewer only when there are no more
+         */
+        CompletableFuture<List<Message>> page(int afterMessageId, int limit);
+    }
+
+    /**
+     * Sends message changes to the client as Server-Sent Events while it stays connected: a "created", "updated" or
+     * "deleted" event with the message as JSON for every change, and a comment as heartbeat when idle. With the
+     * posted_by query parameter only the changes to that account's messages are sent. The client must ask for
+     * text/event-stream in its Accept header.
+     * 
+     * Events are written without blocking (see SseEventWriter), so a client that reads too slowly loses events or is
+     * dropped rather than slowing anyone else down; see MessageEventBus.
+     * 
+     * @param client the Javalin SSE client
+     */
+    private void streamMessageEvents(SseClient client) {
+        String postedByParam = client.ctx.queryParam("posted_by");
+        Integer postedBy;
+        try {
+            postedBy = postedByParam == null ? null : Integer.valueOf(postedByParam);
+        } catch (NumberFormatException e) {
+            // The stream is already open with status 200, so say what went wrong in the stream and end it
+            client.sendEvent("error", "posted_by must be a number");
+            client.close();
+            return;
+        }
+        client.keepAlive();
+        SseEventWriter writer;
+        try {
+            writer = new SseEventWriter(client);
+        } catch (IOException e) {
+            LOGGER.debug("Could not start the event stream", e);
+            client.close();
+            return;
+        }
+        MessageEventBus.Subscription subscription = messageService.subscribe(postedBy, writer);
+        client.onClose(subscription::cancel); // Runs when a write fails, or when the bus drops the client
+    }
+
+    /**
+     * Retrieves a message by its ID and returns it in JSON format. The response carries an ETag, and a request whose
+     * If-None-Match holds the current one gets 304 without the message being read.
+     * 
+     * @param context the Javalin context
+     */
+    private void getMessageById(Context context) {
+        int messageId;
+        try {
+            messageId = Integer.parseInt(context.pathParam("message_id"));
+        } catch (NumberFormatException e) {
             context.status(500).result("Error retrieving message: " + e.getMessage());
+            return;
+        }
+        String etag = messageService.getMessageETag(messageId); // Before reading, see VersionCounters
+        if (notModified(context, etag)) {
+            return;
+        }
+        // A cached message completes at once; otherwise it is read on the DatabaseExecutor
+        context.future(() -> messageService.getEncodedMessageByIdAsync(messageId)
+                .thenAccept(message -> {
+                    context.header(Header.ETAG, etag).header(Header.CACHE_CONTROL, "no-cache");
+                    if (message == null) {
+                        context.status(200).result("");
+                        return;
+                    }
+                    try {
+                        writeEncoded(context, message);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                })
+                .exceptionally(failure -> {
+                    Throwable e = causeOf(failure);
+                    if (!overloaded(context, e)) {
+                        context.status(500).result("Error retrieving message: " + e.getMessage());
+                    }
+                    return null;
+                }));
+    }
+
+    /**
+     * Sends JSON that was serialized ahead of time, gzipped too if the client accepts it (q-values honoured) and a
+     * gzip form exists. The bytes go to the servlet stream directly, past Javalin's compression, which would otherwise
+     * compress them again.
+     * 
+     * @param context the Javalin context
+     * @param encoded the response body
+     * @throws IOException if writing the response fails
+     */
+    private static void writeEncoded(Context context, EncodedJson encoded) throws IOException {
+        context.status(200).contentType(ContentType.APPLICATION_JSON);
+        byte[] body = encoded.getJson();
+        if (encoded.getGzip() != null) {
+            context.header(Header.VARY, Header.ACCEPT_ENCODING);
+            String acceptEncoding = context.header(Header.ACCEPT_ENCODING);
+            if (ResponseCompression.acceptsGzip(acceptEncoding)) {
+                context.header(Header.CONTENT_ENCODING, "gzip");
+                body = encoded.getGzip();
+            }
+        }
+        context.res().setContentLength(body.length);
+        context.res().getOutputStream().write(body);
+    }
+
+    /**
+     * Answers a conditional GET whose If-None-Match lists the current ETag with 304 Not Modified, so an unchanged
+     * resource is neither read nor serialized. The ETag is sent along, as a 304 must.
+     * 
+     * @param context the Javalin context
+     * @param etag the current ETag of the requested resource
+     * @return true if the 304 was sent and the handler is done
+     */
+    private static boolean notModified(Context context, String etag) {
+        String ifNoneMatch = context.header(Header.IF_NONE_MATCH);
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        // If-None-Match compares weakly, so W/ prefixes are ignored on both sides
+        String opaqueTag = etag.startsWith("W/") ? etag.substring(2) : etag;
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals(opaqueTag)) {
+                context.status(304).header(Header.ETAG, etag).header(Header.CACHE_CONTROL, "no-cache");
+                return true;
+            }
         }
+        return false;
     }
 
     /**
-     * Deletes a message by its ID and returns the deleted message in JSON format.
+     * Deletes a message by its ID and returns the deleted message in JSON format. The message is read and deleted
+     * in one database round trip.
      * 
      * @param context the Javalin context
      */
     private void deleteMessageById(Context context) {
+        if (rateLimited(context, RateLimiter.Route.DELETE_MESSAGE, 0)) {
+            return;
+        }
+        // Get the message ID from the URL
+        int messageId;
         try {
-            // Get the message ID from the URL
-            int messageId = Integer.parseInt(context.pathParam("message_id"));
-            
-            // Check if the message exists
-            Message message = messageService.getMessageById(messageId);
-            if (message == null) {
-                context.status(200).result(""); // Message not found, return status 200 with empty body
-                return;
-            }
-            
-            // Delete the message
-            messageService.deleteMessageById(messageId);
-            
-            // Return the deleted message
-            context.status(200).json(message);
-        } catch (Exception e) {
+            messageId = Integer.parseInt(context.pathParam("message_id"));
+        } catch (NumberFormatException e) {
             context.status(500).result(""); // Server error
+            return;
         }
+
+        // Delete the message on the DatabaseExecutor, getting back what was deleted
+        context.future(() -> messageService.deleteMessageByIdAsync(messageId)
+                .thenAccept(message -> {
+                    if (message == null) {
+                        context.status(200).result(""); // Message not found, return status 200 with empty body
+                        return;
+                    }
+
+                    // Return the deleted message
+                    context.status(200).json(message);
+                })
+                .exceptionally(failure -> {
+                    if (!overloaded(context, causeOf(failure))) {
+                        context.status(500).result(""); // Server error
+                    }
+                    return null;
+                }));
     }
 
     /**
-     * Updates a message by its ID with new text from the request.
+     * Updates a message by its ID with new text from the request. The request is validated first, so the message
+     * is updated and read back in one database round trip.
      * 
      * @param context the Javalin context
      */
     private void updateMessageById(Context context) {
-        int messageId = Integer.parseInt(context.pathParam("message_id"));
-    
-        Message message;
-        try {
-            message = messageService.getMessageById(messageId);
-            if (message == null) {
-                context.status(400); // 400 Bad Request if the message does not exist
-                return;
-            }
-        } catch (SQLException e) {
-            context.status(500).result("Database error occurred"); // 500 Internal Server Error
+        if (rateLimited(context, RateLimiter.Route.UPDATE_MESSAGE, 0)) {
             return;
         }
+        int messageId = Integer.parseInt(context.pathParam("message_id"));
     
-        // Obtain the message text from the request body
-        String requestBody = context.body();
-        ObjectMapper mapper = new ObjectMapper();
-        JsonNode jsonNode;
+        // Obtain the message text from the request body; it is the only field PATCH looks at
         String messageText;
-    
         try {
-            jsonNode = mapper.readTree(requestBody);
-            messageText = jsonNode.get("message_text").asText();
+            messageText = JsonCodec.INSTANCE.readStringField(context.bodyAsBytes(), "message_text");
         } catch (IOException e) {
             context.status(400).result("Invalid JSON"); 
             return;
@@ -246,34 +861,62 @@ public class SocialMediaController {
             return;
         }
     
-        message.setMessage_text(messageText);
-        try {
-            messageService.updateMessage(message);
-        } catch (SQLException e) {
-            context.status(500).result("Database error occurred during update"); // 500 Internal Server Error
-            return;
-        }
-        context.status(200).json(message); // Return the updated message
+        context.future(() -> messageService.updateMessageAsync(new Message(messageId, 0, messageText, 0))
+                .thenAccept(message -> context.status(200).json(message)) // Return the updated message
+                .exceptionally(failure -> {
+                    Throwable e = causeOf(failure);
+                    if (e instanceof IllegalArgumentException) {
+                        context.status(400); // 400 Bad Request if the message does not exist
+                    } else if (!overloaded(context, e)) {
+                        context.status(500).result("Database error occurred during update"); // 500 Internal Server Error
+                    }
+                    return null;
+                }));
     }
 
     /**
-     * Retrieves messages for a specific user by their account ID.
+     * Retrieves messages for a specific user by their account ID, streaming them to the response a page at a time.
+     * Like GET /messages/{message_id}, the response carries an ETag and a matching If-None-Match gets 304.
      * 
      * @param context the Javalin context
      */
     private void getMessagesByUserId(Context context) {
+        int accountId;
         try {
-            int accountId = Integer.parseInt(context.pathParam("account_id"));
-            List<Message> messages = messageService.getMessagesByUserId(accountId);
-            if (messages.isEmpty()) {
-                context.status(200).json(messages); // Return status 200 with empty list
-            } else {
-                context.status(200).json(messages);
-            }
-        } catch (Exception e) {
+            accountId = Integer.parseInt(context.pathParam("account_id"));
+        } catch (NumberFormatException e) {
             context.status(500).result("Error retrieving user messages: " + e.getMessage());
+            return;
         }
-   
+        String etag = messageService.getMessagesByUserIdETag(accountId); // Before reading, see VersionCounters
+        if (notModified(context, etag)) {
+            return;
+        }
+        context.header(Header.ETAG, etag).header(Header.CACHE_CONTROL, "no-cache");
+        // Streamed like GET /messages; an account without messages gets an empty list with status 200
+        streamMessages(context, 0, Integer.MAX_VALUE,
+                (afterMessageId, limit) -> messageService.getMessagesByUserIdPageAsync(accountId, afterMessageId, limit));
+    }
+
+    /**
+     * Returns runtime statistics for scraping, such as connection pool usage and acquire latency.
+     * 
+     * @param context the Javalin context
+     */
+    private void getMetrics(Context context) {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("connectionPool", ConnectionUtil.getPool().stats());
+        metrics.put("messageCache", messageService.getCacheStats());
+        metrics.put("messageWrites", messageService.getWriteStats());
+        metrics.put("timelineCache", messageService.getTimelineStats());
+        metrics.put("messageEvents", messageService.getEventStats());
+        metrics.put("webSockets", messageWebSocket.stats());
+        metrics.put("databaseExecutor", messageService.getDatabaseExecutorStats());
+        metrics.put("accountDirectory", Map.of("accounts", accountService.getDirectorySize()));
+        metrics.put("passwordHashing", accountService.getPasswordStats());
+        metrics.put("sessionTokens", accountService.getSessionTokenStats());
+        metrics.put("rateLimits", rateLimiter.stats());
+        context.status(200).json(metrics);
     }
 
     /**
@@ -0,0 +1,176 @@
+package Controller;
+
+import Service.MessageEventBus;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import io.javalin.http.sse.SseClient;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * SseEventWriter.java
+ *
+ * Writes bus events to one GET /messages/stream client as Server-Sent Events, in the same format as Javalin's
+ * SseClient, but without blocking. The response's output stream is switched to non-blocking mode. A batch is handed
+ * to the stream as far as the client takes it, and Jetty calls back to write the rest once the client reads again.
+ * Only then is the future returned by send completed. So a client that stops reading holds up no delivery thread;
+ * its events queue up on the bus until the bus's write timeout drops it.
+ *
+ * The SseClient is only used to keep the request open and to end it.
+ */
+final class SseEventWriter implements MessageEventBus.Subscriber, WriteListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SseEventWriter.class);
+    private static final long LISTEN_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final Executor LISTEN_RETRY = CompletableFuture.delayedExecutor(1, TimeUnit.MILLISECONDS);
+
+    private final SseClient client;
+    private final ServletOutputStream out;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final long listenDeadline;
+
+    // Guarded by lock: the batch being written, and the future to complete once it is written and flushed
+    private byte[] pending;
+    private boolean flushPending;
+    private CompletableFuture<Void> written;
+    private boolean listening;
+
+    /**
+     * Takes over the client's response. Nothing may be written through the SseClient after this.
+     *
+     * @param client the Javalin SSE client, whose response headers have already been sent
+     * @throws IOException if the output stream can not be obtained
+     */
+    SseEventWriter(SseClient client) throws IOException {
+        this.client = client;
+        this.out = client.ctx.res().getOutputStream();
+        this.listenDeadline = System.nanoTime() + LISTEN_TIMEOUT_NANOS;
+    }
+
+    @Override
+    public CompletableFuture<Void> send(List<MessageEventBus.Event> events) {
+        StringBuilder text = new StringBuilder(160 * events.size());
+        for (MessageEventBus.Event event : events) {
+            if (event.isHeartbeat()) {
+                text.append(": heartbeat\n");
+            } else {
+                // The data is single-line JSON, so it needs one data field
+                text.append("id: ").append(event.getId()).append('\n')
+                        .append("event: ").append(event.getName()).append('\n')
+                        .append("data: ").append(event.getData()).append("\n\n");
+            }
+        }
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        lock.lock();
+        try {
+            pending = text.toString().getBytes(StandardCharsets.UTF_8);
+            flushPending = true;
+            written = future;
+        } finally {
+            lock.unlock();
+        }
+        write();
+        return future;
+    }
+
+    @Override
+    public void close() {
+        client.close();
+    }
+
+    /**
+     * Switches the response to non-blocking writes on the first call, then writes what the stream takes.
+     *
+     * Javalin calls the SSE handler, and so may deliver the first events, a moment before the request thread has put
+     * the request in async mode, and the write listener can only be set after that. Until then this tries again
+     * shortly, rather than have the delivery thread wait.
+     */
+    private void write() {
+        try {
+            lock.lock();
+            try {
+                if (!listening) {
+                    if (written == null) {
+                        return; // Failed or closed while waiting
+                    }
+                    if (!client.ctx.req().isAsyncStarted()) {
+                        if (System.nanoTime() - listenDeadline > 0) {
+                            throw new IllegalStateException("The event stream request did not go into async mode");
+                        }
+                        LISTEN_RETRY.execute(this::write);
+                        return;
+                    }
+                    out.setWriteListener(this);
+                    listening = true;
+                }
+            } finally {
+                lock.unlock();
+            }
+            onWritePossible();
+        } catch (IOException | RuntimeException e) {
+            onError(e);
+        }
+    }
+
+    /**
+     * Writes as much of the pending batch as the stream takes without blocking. Called by send, and by Jetty when a
+     * write that was not finished can go on.
+     */
+    @Override
+    public void onWritePossible() throws IOException {
+        CompletableFuture<Void> done;
+        lock.lock();
+        try {
+            while (true) {
+                if (written == null || !out.isReady()) {
+                    return; // Nothing to write, or Jetty calls back when the client has read
+                }
+                if (pending != null) {
+                    byte[] bytes = pending;
+                    pending = null;
+                    out.write(bytes);
+                } else if (flushPending) {
+                    flushPending = false;
+                    out.flush();
+                } else {
+                    done = written;
+                    written = null;
+                    break;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        done.complete(null);
+    }
+
+    /**
+     * Fails the batch being written, if any, and ends the request, which cancels the subscription.
+     */
+    @Override
+    public void onError(Throwable failure) {
+        LOGGER.debug("Server-Sent Events client could not be written to", failure);
+        CompletableFuture<Void> failed;
+        lock.lock();
+        try {
+            failed = written;
+            written = null;
+            pending = null;
+        } finally {
+            lock.unlock();
+        }
+        if (failed != null) {
+            failed.completeExceptionally(failure);
+        }
+        client.close();
+    }
+}
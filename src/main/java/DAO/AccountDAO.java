@@ -2,6 +2,8 @@ package DAO;
 
 import Util.ConnectionUtil;
 import java.sql.*;
+import java.util.HashMap;
+import java.util.Map;
 import Model.Account;
 
 /**
@@ -15,6 +17,17 @@ import Model.Account;
  */
 public class AccountDAO {
 
+    // Every query reading whole accounts selects these columns in this order, so ACCOUNT_ROW can read them by position.
+    static final String ACCOUNT_COLUMNS = "account_id, username, password";
+    static final RowMapper<Account> ACCOUNT_ROW = rs -> new Account(rs.getInt(1), rs.getString(2), rs.getString(3));
+
+    // SQL is kept in constants so QueryPlanTest can EXPLAIN exactly what runs here.
+    static final String INSERT_ACCOUNT = "INSERT INTO Account (username, password) VALUES (?, ?)";
+    static final String SELECT_ACCOUNT_BY_USERNAME = "SELECT " + ACCOUNT_COLUMNS + " FROM Account WHERE username = ?";
+    static final String SELECT_ACCOUNT_BY_ID = "SELECT " + ACCOUNT_COLUMNS + " FROM Account WHERE account_id = ?";
+    static final String SELECT_ACCOUNT_IDS = "SELECT account_id, username FROM Account";
+    static final String UPDATE_ACCOUNT_PASSWORD = "UPDATE Account SET password = ? WHERE account_id = ? AND password = ?";
+
     /**
      * Creates a new account in the database and returns the created account with the generated ID.
      * 
@@ -23,9 +36,8 @@ public class AccountDAO {
      * @throws SQLException if a database access error occurs
      */
     public Account createAccount(Account account) throws SQLException {
-        String query = "INSERT INTO Account (username, password) VALUES (?, ?)";
         try (Connection conn = ConnectionUtil.getConnection(); 
-             PreparedStatement pstmt = conn.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
+             PreparedStatement pstmt = conn.prepareStatement(INSERT_ACCOUNT, Statement.RETURN_GENERATED_KEYS)) {
             pstmt.setString(1, account.getUsername());
             pstmt.setString(2, account.getPassword());
             pstmt.executeUpdate();
@@ -47,13 +59,12 @@ public class AccountDAO {
      * @throws SQLException if a database access error occurs
      */
     public Account getAccountByUsername(String username) throws SQLException {
-        String query = "SELECT * FROM Account WHERE username = ?";
         try (Connection conn = ConnectionUtil.getConnection(); 
-             PreparedStatement pstmt = conn.prepareStatement(query)) {
+             PreparedStatement pstmt = conn.prepareStatement(SELECT_ACCOUNT_BY_USERNAME)) {
             pstmt.setString(1, username);
             try (ResultSet rs = pstmt.executeQuery()) {
                 if (rs.next()) {
-                    return new Account(rs.getInt("account_id"), rs.getString("username"), rs.getString("password"));
+                    return ACCOUNT_ROW.map(rs);
                 }
             }
         }
@@ -68,16 +79,53 @@ public class AccountDAO {
      * @throws SQLException if a database access error occurs
      */
     public Account getAccountById(int accountId) throws SQLException {
-        String query = "SELECT * FROM Account WHERE account_id = ?";
         try (Connection conn = ConnectionUtil.getConnection(); 
-             PreparedStatement pstmt = conn.prepareStatement(query)) {
+             PreparedStatement pstmt = conn.prepareStatement(SELECT_ACCOUNT_BY_ID)) {
             pstmt.setInt(1, accountId);
             try (ResultSet rs = pstmt.executeQuery()) {
                 if (rs.next()) {
-                    return new Account(rs.getInt("account_id"), rs.getString("username"), rs.getString("password"));
+                    return ACCOUNT_ROW.map(rs);
                 }
             }
         }
         return null;
     }
+
+    /**
+     * Replaces the stored password of an account, but only if it is still the one the caller read, so two
+     * concurrent replacements can not overwrite each other.
+     * 
+     * @param accountId the ID of the account
+     * @param expectedPassword the stored password as it was read
+     * @param newPassword the password to store instead
+     * @return true if the password was replaced, false if it had changed meanwhile or the account does not exist
+     * @throws SQLException if a database access error occurs
+     */
+    public boolean updatePassword(int accountId, String expectedPassword, String newPassword) throws SQLException {
+        try (Connection conn = ConnectionUtil.getConnection(); 
+             PreparedStatement pstmt = conn.prepareStatement(UPDATE_ACCOUNT_PASSWORD)) {
+            pstmt.setString(1, newPassword);
+            pstmt.setInt(2, accountId);
+            pstmt.setString(3, expectedPassword);
+            return pstmt.executeUpdate() == 1;
+        }
+    }
+
+    /**
+     * Retrieves the ID and username of every account, without the passwords.
+     * 
+     * @return account IDs keyed by username
+     * @throws SQLException if a database access error occurs
+     */
+    public Map<String, Integer> getAccountIdsByUsername() throws SQLException {
+        Map<String, Integer> accounts = new HashMap<>();
+        try (Connection conn = ConnectionUtil.getConnection(); 
+             Statement stmt = conn.createStatement(); 
+             ResultSet rs = stmt.executeQuery(SELECT_ACCOUNT_IDS)) {
+            while (rs.next()) {
+                accounts.put(rs.getString(2), rs.getInt(1));
+            }
+        }
+        return accounts;
+    }
 }
@@ -2,6 +2,7 @@ package DAO;
 
 import Model.Message;
 import Util.ConnectionUtil;
+import java.io.IOException;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
@@ -17,6 +18,28 @@ import java.util.List;
  */
 public class MessageDAO {
 
+    // Every query reading messages selects these columns in this order, so MESSAGE_ROW can read them by position.
+    static final String MESSAGE_COLUMNS = "message_id, posted_by, message_text, time_posted_epoch";
+    static final RowMapper<Message> MESSAGE_ROW =
+            rs -> new Message(rs.getInt(1), rs.getInt(2), rs.getString(3), rs.getLong(4));
+    // Lists are pre-sized from the requested limit, but no further than this.
+    private static final int MAX_PRESIZED_ROWS = 100_000;
+
+    // SQL is kept in constants so QueryPlanTest can EXPLAIN exactly what runs here.
+    static final String INSERT_MESSAGE = "INSERT INTO Message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?)";
+    static final String SELECT_ALL_MESSAGES = "SELECT " + MESSAGE_COLUMNS + " FROM Message";
+    static final String SELECT_MESSAGES_PAGE = "SELECT " + MESSAGE_COLUMNS + " FROM Message WHERE message_id > ? ORDER BY message_id LIMIT ?";
+    static final String SELECT_MESSAGE_BY_ID = "SELECT " + MESSAGE_COLUMNS + " FROM Message WHERE message_id = ?";
+    static final String DELETE_MESSAGE_BY_ID = "DELETE FROM Message WHERE message_id = ?";
+    static final String UPDATE_MESSAGE_TEXT = "UPDATE Message SET message_text = ? WHERE message_id = ?";
+    static final String SELECT_MESSAGES_BY_POSTER = "SELECT " + MESSAGE_COLUMNS + " FROM Message WHERE posted_by = ? ORDER BY message_id";
+    static final String SELECT_MESSAGES_BY_POSTER_PAGE = "SELECT " + MESSAGE_COLUMNS + " FROM Message WHERE posted_by = ? AND message_id > ? AND message_id < ? ORDER BY message_id LIMIT ?";
+    static final String SELECT_LATEST_MESSAGES_BY_POSTER = "SELECT " + MESSAGE_COLUMNS + " FROM Message WHERE posted_by = ? ORDER BY message_id DESC LIMIT ?";
+    // H2 data-change delta tables: the row as it was before the DELETE, and as it is after the UPDATE. EXPLAIN does
+    // not show the plan of the wrapped statement, so QueryPlanTest checks the plain statements above instead.
+    static final String DELETE_MESSAGE_RETURNING = "SELECT " + MESSAGE_COLUMNS + " FROM OLD TABLE (" + DELETE_MESSAGE_BY_ID + ")";
+    static final String UPDATE_MESSAGE_TEXT_RETURNING = "SELECT " + MESSAGE_COLUMNS + " FROM FINAL TABLE (" + UPDATE_MESSAGE_TEXT + ")";
+
     /**
      * Creates a new message in the database and returns the created message with the generated ID.
      * 
@@ -25,9 +48,8 @@ public class MessageDAO {
      * @throws SQLException if a database access error occurs
      */
     public Message createMessage(Message message) throws SQLException {
-        String query = "INSERT INTO Message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?)";
         try (Connection conn = ConnectionUtil.getConnection(); 
-             PreparedStatement pstmt = conn.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
+             PreparedStatement pstmt = conn.prepareStatement(INSERT_MESSAGE, Statement.RETURN_GENERATED_KEYS)) {
             pstmt.setInt(1, message.getPosted_by());
             pstmt.setString(2, message.getMessage_text());
             pstmt.setLong(3, message.getTime_posted_epoch());
@@ -42,6 +64,40 @@ public class MessageDAO {
         return message;
     }
 
+    /**
+     * Creates several messages with one JDBC batch in a single transaction and sets their generated IDs. Either all
+     * of the messages are written or, if any insert fails, none of them are.
+     *
+     * @param messages the Message objects to be created
+     * @return the same list, with every message ID set, in input order
+     * @throws SQLException if a database access error occurs; the transaction is rolled back
+     */
+    public List<Message> createMessages(List<Message> messages) throws SQLException {
+        try (Connection conn = ConnectionUtil.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement(INSERT_MESSAGE, Statement.RETURN_GENERATED_KEYS)) {
+                for (Message message : messages) {
+                    pstmt.setInt(1, message.getPosted_by());
+                    pstmt.setString(2, message.getMessage_text());
+                    pstmt.setLong(3, message.getTime_posted_epoch());
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+
+                try (ResultSet rs = pstmt.getGeneratedKeys()) {
+                    for (int i = 0; i < messages.size() && rs.next(); i++) {
+                        messages.get(i).setMessage_id(rs.getInt(1));
+                    }
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+        return messages;
+    }
+
     /**
      * Retrieves all messages from the database.
      * 
@@ -50,21 +106,125 @@ public class MessageDAO {
      */
     public List<Message> getAllMessages() throws SQLException {
         List<Message> messages = new ArrayList<>();
-        String query = "SELECT * FROM message";
         
         try (Connection conn = ConnectionUtil.getConnection(); 
              Statement stmt = conn.createStatement(); 
-             ResultSet rs = stmt.executeQuery(query)) {
+             ResultSet rs = stmt.executeQuery(SELECT_ALL_MESSAGES)) {
             
             while (rs.next()) {
-                messages.add(new Message(rs.getInt("message_id"), rs.getInt("posted_by"), 
-                                         rs.getString("message_text"), rs.getLong("time_posted_epoch")));
+                messages.add(MESSAGE_ROW.map(rs));
             }
         }
         
         return messages;
     }
 
+    /**
+     * Retrieves one page of messages ordered by message ID, starting after the given ID (keyset pagination).
+     * 
+     * @param afterMessageId only messages with a greater ID are returned; 0 starts from the beginning
+     * @param limit the maximum number of messages to return
+     * @return a list of at most limit Message objects in ascending ID order
+     * @throws SQLException if a database access error occurs
+     */
+    public List<Message> getMessagesPage(int afterMessageId, int limit) throws SQLException {
+        List<Message> messages = new ArrayList<>(Math.min(limit, MAX_PRESIZED_ROWS));
+        try (Connection conn = ConnectionUtil.getConnection(); 
+             PreparedStatement pstmt = conn.prepareStatement(SELECT_MESSAGES_PAGE)) {
+            pstmt.setInt(1, afterMessageId);
+            pstmt.setInt(2, limit);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    messages.add(MESSAGE_ROW.map(rs));
+                }
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Reads messages ordered by message ID, starting after the given ID, and hands each one to the consumer as soon
+     * as it is read. Nothing is accumulated, here or in H2 (see streamQuery), so memory use does not depend on how
+     * many rows are read. The connection is held until the consumer has taken the last row, so the consumer must not
+     * wait on anything slow, such as a client.
+     * 
+     * @param afterMessageId only messages with a greater ID are read; 0 starts from the beginning
+     * @param limit the maximum number of messages to read
+     * @param consumer receives each message in ascending ID order
+     * @throws SQLException if a database access error occurs
+     * @throws IOException if the consumer fails to write a message out
+     */
+    public void forEachMessage(int afterMessageId, int limit, RowConsumer<Message> consumer) throws SQLException, IOException {
+        streamQuery(SELECT_MESSAGES_PAGE, pstmt -> {
+            pstmt.setInt(1, afterMessageId);
+            pstmt.setInt(2, limit);
+        }, consumer);
+    }
+
+    /**
+     * Reads the messages posted by one user in ascending ID order and hands each one to the consumer as soon as it
+     * is read, without accumulating them.
+     * 
+     * @param accountId the ID of the user whose messages are read
+     * @param consumer receives each message
+     * @throws SQLException if a database access error occurs
+     * @throws IOException if the consumer fails to write a message out
+     */
+    public void forEachMessageByUserId(int accountId, RowConsumer<Message> consumer) throws SQLException, IOException {
+        streamQuery(SELECT_MESSAGES_BY_POSTER, pstmt -> pstmt.setInt(1, accountId), consumer);
+    }
+
+    /**
+     * Retrieves one page of the messages posted by one user, ordered by message ID, starting after the given ID and
+     * stopping before another (keyset pagination).
+     * 
+     * @param accountId the ID of the user whose messages are read
+     * @param afterMessageId only messages with a greater ID are returned; 0 starts from the beginning
+     * @param beforeMessageId only messages with a smaller ID are returned; Integer.MAX_VALUE for no bound
+     * @param limit the maximum number of messages to return
+     * @return a list of at most limit Message objects in ascending ID order
+     * @throws SQLException if a database access error occurs
+     */
+    public List<Message> getMessagesByUserIdPage(int accountId, int afterMessageId, int beforeMessageId, int limit) throws SQLException {
+        List<Message> messages = new ArrayList<>(Math.min(limit, MAX_PRESIZED_ROWS));
+        try (Connection conn = ConnectionUtil.getConnection(); 
+             PreparedStatement pstmt = conn.prepareStatement(SELECT_MESSAGES_BY_POSTER_PAGE)) {
+            pstmt.setInt(1, accountId);
+            pstmt.setInt(2, afterMessageId);
+            pstmt.setInt(3, beforeMessageId);
+            pstmt.setInt(4, limit);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    messages.add(MESSAGE_ROW.map(rs));
+                }
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Retrieves the most recent messages posted by one user.
+     * 
+     * @param accountId the ID of the user whose messages are read
+     * @param limit the maximum number of messages to return
+     * @return a list of at most limit Message objects in descending ID order, newest first
+     * @throws SQLException if a database access error occurs
+     */
+    public List<Message> getLatestMessagesByUserId(int accountId, int limit) throws SQLException {
+        List<Message> messages = new ArrayList<>(Math.min(limit, MAX_PRESIZED_ROWS));
+        try (Connection conn = ConnectionUtil.getConnection(); 
+             PreparedStatement pstmt = conn.prepareStatement(SELECT_LATEST_MESSAGES_BY_POSTER)) {
+            pstmt.setInt(1, accountId);
+            pstmt.setInt(2, limit);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    messages.add(MESSAGE_ROW.map(rs));
+                }
+            }
+        }
+        return messages;
+    }
+
     /**
      * Retrieves a message from the database by its ID.
      * 
@@ -73,13 +233,12 @@ public class MessageDAO {
      * @throws SQLException if a database access error occurs
      */
     public Message getMessageById(int messageId) throws SQLException {
-        String query = "SELECT * FROM Message WHERE message_id = ?";
         try (Connection conn = ConnectionUtil.getConnection(); 
-             PreparedStatement pstmt = conn.prepareStatement(query)) {
+             PreparedStatement pstmt = conn.prepareStatement(SELECT_MESSAGE_BY_ID)) {
             pstmt.setInt(1, messageId);
             try (ResultSet rs = pstmt.executeQuery()) {
                 if (rs.next()) {
-                    return new Message(rs.getInt("message_id"), rs.getInt("posted_by"), rs.getString("message_text"), rs.getLong("time_posted_epoch"));
+                    return MESSAGE_ROW.map(rs);
                 }
             }
         }
@@ -87,55 +246,91 @@ public class MessageDAO {
     }
 
     /**
-     * Deletes a message from the database by its ID.
+     * Deletes a message from the database by its ID and returns the row that was deleted, in one statement.
      * 
      * @param messageId the ID of the message to be deleted
+     * @return the deleted Message object, or null if no message has this ID
      * @throws SQLException if a database access error occurs
      */
-    public void deleteMessageById(int messageId) throws SQLException {
-        String query = "DELETE FROM Message WHERE message_id = ?";
+    public Message deleteMessageById(int messageId) throws SQLException {
         try (Connection conn = ConnectionUtil.getConnection(); 
-             PreparedStatement pstmt = conn.prepareStatement(query)) {
+             PreparedStatement pstmt = conn.prepareStatement(DELETE_MESSAGE_RETURNING)) {
             pstmt.setInt(1, messageId);
-            pstmt.executeUpdate();
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    return MESSAGE_ROW.map(rs);
+                }
+            }
         }
+        return null;
     }
 
     /**
-     * Updates an existing message in the database.
+     * Updates the text of an existing message and returns the updated row, in one statement.
      * 
-     * @param message the Message object with updated information
+     * @param message the Message object with the message ID and the new message text
+     * @return the updated Message object, or null if no message has this ID
      * @throws SQLException if a database access error occurs
      */
-    public void updateMessage(Message message) throws SQLException {
-        String query = "UPDATE Message SET message_text = ? WHERE message_id = ?";
+    public Message updateMessage(Message message) throws SQLException {
         try (Connection conn = ConnectionUtil.getConnection(); 
-             PreparedStatement pstmt = conn.prepareStatement(query)) {
+             PreparedStatement pstmt = conn.prepareStatement(UPDATE_MESSAGE_TEXT_RETURNING)) {
             pstmt.setString(1, message.getMessage_text());
             pstmt.setInt(2, message.getMessage_id());
-            pstmt.executeUpdate();
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    return MESSAGE_ROW.map(rs);
+                }
+            }
         }
+        return null;
     }
 
     /**
      * Retrieves messages from the database by the ID of the user who posted them.
      * 
      * @param accountId the ID of the user whose messages are to be retrieved
-     * @return a list of Message objects posted by the specified user
+     * @return a list of Message objects posted by the specified user, in ascending ID order
      * @throws SQLException if a database access error occurs
      */
     public List<Message> getMessagesByUserId(int accountId) throws SQLException {
         List<Message> messages = new ArrayList<>();
-        String query = "SELECT * FROM Message WHERE posted_by = ?";
         try (Connection conn = ConnectionUtil.getConnection(); 
-             PreparedStatement pstmt = conn.prepareStatement(query)) {
+             PreparedStatement pstmt = conn.prepareStatement(SELECT_MESSAGES_BY_POSTER)) {
             pstmt.setInt(1, accountId);
             try (ResultSet rs = pstmt.executeQuery()) {
                 while (rs.next()) {
-                    messages.add(new Message(rs.getInt("message_id"), rs.getInt("posted_by"), rs.getString("message_text"), rs.getLong("time_posted_epoch")));
+                    messages.add(MESSAGE_ROW.map(rs));
                 }
             }
         }
         return messages;
     }
+
+    /**
+     * Runs a message query with H2's lazy query execution switched on for the session, so rows are produced as the
+     * ResultSet is advanced instead of being materialized up front. The setting belongs to the session, so it is
+     * switched off again before the connection goes back to the pool.
+     */
+    private void streamQuery(String sql, ParameterBinder binder, RowConsumer<Message> consumer) throws SQLException, IOException {
+        try (Connection conn = ConnectionUtil.getConnection(); 
+             Statement settings = conn.createStatement()) {
+            settings.execute("SET LAZY_QUERY_EXECUTION TRUE");
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                binder.bind(pstmt);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        consumer.accept(MESSAGE_ROW.map(rs));
+                    }
+                }
+            } finally {
+                settings.execute("SET LAZY_QUERY_EXECUTION FALSE");
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface ParameterBinder {
+        void bind(PreparedStatement pstmt) throws SQLException;
+    }
 }
@@ -0,0 +1,23 @@
+package DAO;
+
+import java.io.IOException;
+
+/**
+ * RowConsumer.java
+ * 
+ * Receives rows one at a time while a DAO is still reading them from the ResultSet, so callers can write each row
+ * out (for example to an HTTP response) without first collecting the whole result into a list.
+ *
+ * @param <T> the type of row handed to the consumer
+ */
+@FunctionalInterface
+public interface RowConsumer<T> {
+
+    /**
+     * Handles a single row.
+     * 
+     * @param row the mapped row
+     * @throws IOException if writing the row out fails, which stops the read
+     */
+    void accept(T row) throws IOException;
+}
@@ -0,0 +1,26 @@
+package DAO;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * RowMapper.java
+ * 
+ * Turns the current row of a ResultSet into an object. Mappers read columns by position rather than by name, which
+ * saves a column-name lookup per field per row, so each mapper is paired with the column list its queries select
+ * (see MessageDAO.MESSAGE_COLUMNS and AccountDAO.ACCOUNT_COLUMNS).
+ *
+ * @param <T> the type of object a row is mapped to
+ */
+@FunctionalInterface
+public interface RowMapper<T> {
+
+    /**
+     * Maps the row the ResultSet is currently positioned on.
+     * 
+     * @param rs the ResultSet, positioned on a row
+     * @return the mapped row
+     * @throws SQLException if a column can not be read
+     */
+    T map(ResultSet rs) throws SQLException;
+}
@@ -1,4 +1,5 @@
 import Controller.SocialMediaController;
+import Util.ConnectionUtil;
 import io.javalin.Javalin;
 
 /**
@@ -7,6 +8,7 @@ import io.javalin.Javalin;
  */
 public class Main {
     public static void main(String[] args) {
+        ConnectionUtil.applyMigrations();
         SocialMediaController controller = new SocialMediaController();
         Javalin app = controller.startAPI();
         app.start(8080);
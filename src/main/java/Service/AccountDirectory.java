@@ -0,0 +1,92 @@
+package Service;
+
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * AccountDirectory.java
+ * 
+ * An in-memory index of every account: a bitmap of account IDs for existence checks and a username to ID map for
+ * logins and duplicate-username checks. It is warmed from the database once at startup and kept in sync by
+ * AccountService as accounts are registered, so those checks never need a database round trip. Accounts are only
+ * ever created through AccountService and never deleted, which is what makes the directory authoritative.
+ */
+public class AccountDirectory {
+
+    private final BitSet accountIds = new BitSet();
+    private final ReentrantReadWriteLock accountIdsLock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> idsByUsername = new ConcurrentHashMap<>();
+
+    /**
+     * Adds every account in the given map to the directory.
+     * 
+     * @param accounts account IDs keyed by username
+     */
+    public void load(Map<String, Integer> accounts) {
+        accountIdsLock.writeLock().lock();
+        try {
+            for (Map.Entry<String, Integer> account : accounts.entrySet()) {
+                accountIds.set(account.getValue());
+                if (account.getKey() != null) {
+                    idsByUsername.put(account.getKey(), account.getValue());
+                }
+            }
+        } finally {
+            accountIdsLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Records a newly created account.
+     * 
+     * @param accountId the generated account ID
+     * @param username the account's username
+     */
+    public void add(int accountId, String username) {
+        accountIdsLock.writeLock().lock();
+        try {
+            accountIds.set(accountId);
+        } finally {
+            accountIdsLock.writeLock().unlock();
+        }
+        idsByUsername.put(username, accountId);
+    }
+
+    /**
+     * @param accountId the account ID to check
+     * @return true if an account with this ID exists
+     */
+    public boolean contains(int accountId) {
+        if (accountId < 0) {
+            return false;
+        }
+        accountIdsLock.readLock().lock();
+        try {
+            return accountIds.get(accountId);
+        } finally {
+            accountIdsLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param username the username to look up
+     * @return the ID of the account with this username, or null if there is none
+     */
+    public Integer idOf(String username) {
+        return username == null ? null : idsByUsername.get(username);
+    }
+
+    /**
+     * @return the number of accounts in the directory
+     */
+    public int size() {
+        accountIdsLock.readLock().lock();
+        try {
+            return accountIds.cardinality();
+        } finally {
+            accountIdsLock.readLock().unlock();
+        }
+    }
+}
@@ -3,6 +3,13 @@ package Service;
 import DAO.AccountDAO;
 import Model.Account;
 import java.sql.*;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * AccountService.java
@@ -12,13 +19,61 @@ import java.sql.*;
  * 
  * This class provides services related to user accounts. It uses the AccountDAO class to perform database operations 
  * and includes methods for registering and logging in users, as well as checking if an account exists.
+ * 
+ * Existence checks, duplicate-username checks and the username lookup at login are answered from an in-memory
+ * AccountDirectory that is warmed when the service is created. If warming fails the service falls back to querying
+ * the account table for those checks.
+ * 
+ * Passwords are stored as PBKDF2 hashes (see PasswordHasher). Accounts stored before hashing still log in with
+ * their plain text password, which is then replaced by a hash; hashes made at an older cost are upgraded the same
+ * way. The API keeps returning the password the client sent, as it did when passwords were stored as they are.
+ * 
+ * The Async variants run the same work on the shared DatabaseExecutor, and the hashing on the PasswordHasher's own
+ * pool, and return a future instead of blocking.
+ * 
+ * A successful login is also issued a signed session token (see SessionTokens). Requests that present it are
+ * authenticated in memory, without reading the account table again. The signing key rotates on the schedule set by
+ * socialmedia.auth.keyRotationSeconds, or when the server restarts with new socialmedia.auth.keys.
  */
 public class AccountService {
 
-    private final AccountDAO accountDAO = new AccountDAO();
+    private static final Logger LOGGER = LoggerFactory.getLogger(AccountService.class);
+
+    private final AccountDAO accountDAO;
+    private final AccountDirectory accountDirectory = new AccountDirectory();
+    private final boolean directoryReady;
+    private final DatabaseExecutor database = DatabaseExecutor.shared();
+    private final PasswordHasher passwordHasher = PasswordHasher.shared();
+    private final SessionTokens sessionTokens = SessionTokens.fromSystemProperties();
+
+    /**
+     * Creates the service on a new AccountDAO and warms the account directory from the database.
+     */
+    public AccountService() {
+        this(new AccountDAO());
+    }
 
     /**
-     * Registers a new user account if the username and password meet the required criteria.
+     * Creates the service on the given DAO and warms the account directory from the database.
+     * 
+     * @param accountDAO the DAO to read and write accounts with
+     */
+    public AccountService(AccountDAO accountDAO) {
+        this.accountDAO = accountDAO;
+        boolean loaded;
+        try {
+            accountDirectory.load(accountDAO.getAccountIdsByUsername());
+            loaded = true;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            loaded = false;
+        }
+        directoryReady = loaded;
+    }
+
+    /**
+     * Registers a new user account if the username and password meet the required criteria. The password is hashed
+     * on the calling thread.
      * 
      * @param account the Account object containing user details
      * @return the created Account object with its ID set
@@ -26,43 +81,243 @@ public class AccountService {
      * @throws IllegalArgumentException if the username is blank, the password is too short, or the username already exists
      */
     public Account registerAccount(Account account) throws SQLException {
+        checkRegistration(account);
+        return insertAccount(account, passwordHasher.hash(account.getPassword()));
+    }
+
+    /**
+     * Logs in a user by checking if the provided username and password match an existing account. The password is
+     * checked on the calling thread, and replaced by a new hash if needsRehash says so.
+     * 
+     * @param account the Account object containing user login details
+     * @return the Account object if login is successful
+     * @throws SQLException if a database access error occurs
+     * @throws IllegalArgumentException if the username/password is invalid
+     */
+    public Account loginAccount(Account account) throws SQLException {
+        Account existingAccount = findAccount(account.getUsername());
+        String stored = existingAccount == null ? null : existingAccount.getPassword();
+        if (!passwordHasher.verify(account.getPassword(), stored)) {
+            throw new IllegalArgumentException("Invalid username/password");
+        }
+        if (passwordHasher.needsRehash(stored)) {
+            accountDAO.updatePassword(existingAccount.getAccount_id(), stored, passwordHasher.hash(account.getPassword()));
+        }
+        return loggedIn(existingAccount, account);
+    }
+
+    /**
+     * Checks a registration against everything but the database's unique constraint.
+     */
+    private void checkRegistration(Account account) throws SQLException {
+        checkCredentials(account);
+        boolean usernameTaken = directoryReady
+                ? accountDirectory.idOf(account.getUsername()) != null
+                : accountDAO.getAccountByUsername(account.getUsername()) != null;
+        if (usernameTaken) {
+            throw new IllegalArgumentException("Username already exists");
+        }
+    }
+
+    private static void checkCredentials(Account account) {
         if (account.getUsername() == null || account.getUsername().isBlank()) {
             throw new IllegalArgumentException("Username can't be blank");
         }
         if (account.getPassword() == null || account.getPassword().length() < 4) {
             throw new IllegalArgumentException("Password must be at least 4 characters long");
         }
-        Account existingAccount = accountDAO.getAccountByUsername(account.getUsername());
-        if (existingAccount != null) {
+    }
+
+    /**
+     * Stores a checked registration with its password hash, and returns it with its ID and the password as given.
+     */
+    private Account insertAccount(Account account, String passwordHash) throws SQLException {
+        Account createdAccount;
+        try {
+            createdAccount = accountDAO.createAccount(new Account(account.getUsername(), passwordHash));
+        } catch (SQLIntegrityConstraintViolationException e) {
+            // Another registration for the same username won the race; the unique constraint caught it
             throw new IllegalArgumentException("Username already exists");
         }
-        return accountDAO.createAccount(account);
+        accountDirectory.add(createdAccount.getAccount_id(), createdAccount.getUsername());
+        account.setAccount_id(createdAccount.getAccount_id());
+        return account;
     }
 
     /**
-     * Logs in a user by checking if the provided username and password match an existing account.
-     * 
-     * @param account the Account object containing user login details
-     * @return the Account object if login is successful
-     * @throws SQLException if a database access error occurs
-     * @throws IllegalArgumentException if the username/password is invalid
+     * Reads the account a login names, with its stored password.
      */
-    public Account loginAccount(Account account) throws SQLException {
-        Account existingAccount = accountDAO.getAccountByUsername(account.getUsername());
-        if (existingAccount == null || !existingAccount.getPassword().equals(account.getPassword())) {
-            throw new IllegalArgumentException("Invalid username/password");
+    private Account findAccount(String username) throws SQLException {
+        if (directoryReady) {
+            Integer accountId = accountDirectory.idOf(username);
+            return accountId == null ? null : accountDAO.getAccountById(accountId);
         }
-        return existingAccount;
+        return accountDAO.getAccountByUsername(username);
     }
 
     /**
-     * Checks if an account exists in the database by its ID.
+     * The account a successful login returns: the stored ID and username, and the password as the client sent it.
+     */
+    private static Account loggedIn(Account existingAccount, Account login) {
+        return new Account(existingAccount.getAccount_id(), existingAccount.getUsername(), login.getPassword());
+    }
+
+    /**
+     * Checks if an account exists by its ID, using the in-memory directory.
      * 
      * @param accountId the ID of the account to check
      * @return true if the account exists, false otherwise
      * @throws SQLException if a database access error occurs
      */
     public boolean doesAccountExist(int accountId) throws SQLException {
+        if (directoryReady) {
+            return accountDirectory.contains(accountId);
+        }
         return accountDAO.getAccountById(accountId) != null;
     }
+
+    /**
+     * Registers an account without blocking; see registerAccount. The password is hashed on the PasswordHasher's
+     * pool and the account inserted on the DatabaseExecutor. Registrations that fail the checks answerable from
+     * memory fail before anything is hashed.
+     * 
+     * @param account the Account object containing user details
+     * @return a future of the created account, failed as registerAccount would throw, or with OverloadedException
+     */
+    public CompletableFuture<Account> registerAccountAsync(Account account) {
+        try {
+            if (directoryReady) {
+                checkRegistration(account); // From memory only
+            } else {
+                checkCredentials(account);
+            }
+        } catch (IllegalArgumentException | SQLException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return passwordHasher.hashAsync(account.getPassword())
+                .thenCompose(passwordHash -> database.submit(DatabaseExecutor.Operation.REGISTER, () -> {
+                    checkRegistration(account); // Again, another registration may have taken the username
+                    return insertAccount(account, passwordHash);
+                }));
+    }
+
+    /**
+     * Logs a user in without blocking; see loginAccount. The account is read on the DatabaseExecutor and the
+     * password checked on the PasswordHasher's pool. Replacing an outdated stored password happens in the
+     * background and does not hold up the login.
+     * 
+     * @param account the Account object containing user login details
+     * @return a future of the account, failed as loginAccount would throw, or with OverloadedException
+     */
+    public CompletableFuture<Account> loginAccountAsync(Account account) {
+        return database.submit(DatabaseExecutor.Operation.LOGIN, () -> findAccount(account.getUsername()))
+                .thenCompose(existingAccount -> {
+                    String stored = existingAccount == null ? null : existingAccount.getPassword();
+                    return passwordHasher.verifyAsync(account.getPassword(), stored).thenApply(valid -> {
+                        if (!valid) {
+                            throw new IllegalArgumentException("Invalid username/password");
+                        }
+                        if (passwordHasher.needsRehash(stored)) {
+                            rehashInBackground(existingAccount, account.getPassword());
+                        }
+                        return loggedIn(existingAccount, account);
+                    });
+                });
+    }
+
+    /**
+     * Replaces an outdated stored password after a successful login. If the pools are busy it is simply left for
+     * a later login.
+     */
+    private void rehashInBackground(Account existingAccount, String password) {
+        passwordHasher.hashAsync(password)
+                .thenCompose(passwordHash -> database.submit(DatabaseExecutor.Operation.LOGIN,
+                        () -> accountDAO.updatePassword(existingAccount.getAccount_id(), existingAccount.getPassword(), passwordHash)))
+                .exceptionally(e -> {
+                    LOGGER.debug("Could not rehash the password of account {}", existingAccount.getAccount_id(), e);
+                    return false;
+                });
+    }
+
+    /**
+     * Issues a session token for an account that has just logged in.
+     * 
+     * @param account the logged in account
+     * @return the token, to be presented as "Authorization: Bearer [token]"
+     */
+    public String issueSessionToken(Account account) {
+        return sessionTokens.issue(account.getAccount_id());
+    }
+
+    /**
+     * Checks a session token in memory; does not allocate or touch the database.
+     * 
+     * @param text the string holding the token, such as an Authorization header
+     * @param offset where the token starts in it
+     * @return the ID of the account the token was issued to, or -1 if it is not valid
+     */
+    public int authenticate(CharSequence text, int offset) {
+        return sessionTokens.verify(text, offset);
+    }
+
+    /**
+     * @return the session signing keys and the counters of issued, accepted and rejected tokens
+     */
+    public Map<String, Object> getSessionTokenStats() {
+        return sessionTokens.stats();
+    }
+
+    /**
+     * @return counters of the password hashing pool and of the remembered logins
+     */
+    public Map<String, Object> getPasswordStats() {
+        return passwordHasher.stats();
+    }
+
+    /**
+     * Checks if an account exists. Answered at once from the directory when it is loaded, otherwise the lookup
+     * runs on the DatabaseExecutor.
+     * 
+     * @param accountId the ID of the account to check
+     * @return a future of true if the account exists
+     */
+    public CompletableFuture<Boolean> doesAccountExistAsync(int accountId) {
+        if (directoryReady) {
+            return CompletableFuture.completedFuture(accountDirectory.contains(accountId));
+        }
+        return database.submit(DatabaseExecutor.Operation.ACCOUNT_LOOKUP, () -> doesAccountExist(accountId));
+    }
+
+    /**
+     * Checks which of several accounts exist. Answered at once from the directory when it is loaded, otherwise all
+     * of them are looked up in one task on the DatabaseExecutor.
+     * 
+     * @param accountIds the IDs of the accounts to check
+     * @return a future of the IDs among them that refer to existing accounts
+     */
+    public CompletableFuture<Set<Integer>> existingAccountsAsync(Set<Integer> accountIds) {
+        if (directoryReady) {
+            Set<Integer> existing = new HashSet<>(accountIds);
+            existing.removeIf(accountId -> !accountDirectory.contains(accountId));
+            return CompletableFuture.completedFuture(existing);
+        }
+        return database.submit(DatabaseExecutor.Operation.ACCOUNT_LOOKUP, () -> existingAccounts(accountIds));
+    }
+
+    private Set<Integer> existingAccounts(Set<Integer> accountIds) throws SQLException {
+        Set<Integer> existing = new HashSet<>();
+        for (int accountId : accountIds) {
+            if (doesAccountExist(accountId)) {
+                existing.add(accountId);
+            }
+        }
+        return existing;
+    }
+
+    /**
+     * @return the number of accounts held in the in-memory directory
+     */
+    public int getDirectorySize() {
+        return accountDirectory.size();
+    }
 }
@@ -0,0 +1,196 @@
+package Service;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * DatabaseExecutor.java
+ *
+ * Runs the blocking database work of the async service methods on a fixed pool of threads, so the web server's
+ * request threads are free while a query runs. One instance is shared by all services, like the connection pool
+ * whose connections its threads use.
+ *
+ * There are as many threads as the connection pool has connections, since every task holds one while it runs;
+ * more threads would only wait for a connection.
+ *
+ * Every task belongs to an Operation, and every operation has a bulkhead: a limit on how many of its tasks may be
+ * queued or running at once. A task over its operation's limit is not queued at all; its future fails at once with
+ * BulkheadFullException, which the controller answers with 503. The limits add up to more than the threads, so they
+ * bound the queue rather than reserve threads: the queue is sized to their sum, and the bulkheads alone decide what
+ * is rejected. Only listMessages, whose tasks hold a thread for as long as the client takes to read the list, is
+ * kept below the thread count, so a burst of slow list reads can never take every thread and logins and posts keep
+ * running meanwhile.
+ *
+ * Tuned with system properties:
+ *
+ *  socialmedia.db.asyncThreads            threads running database work; default socialmedia.pool.maxSize (10)
+ *  socialmedia.bulkhead.[operation]       most tasks of one operation queued or running, where [operation] is the
+ *                                         name of an Operation such as listMessages; defaults in Operation
+ */
+public final class DatabaseExecutor {
+
+    private static final DatabaseExecutor SHARED = new DatabaseExecutor(
+            Integer.getInteger("socialmedia.db.asyncThreads", Integer.getInteger("socialmedia.pool.maxSize", 10)));
+
+    /**
+     * The kinds of database work, each with its own bulkhead.
+     */
+    public enum Operation {
+        REGISTER("register", 16),
+        LOGIN("login", 16),
+        ACCOUNT_LOOKUP("accountLookup", 16),
+        POST_MESSAGE("postMessage", 16),
+        READ_MESSAGE("readMessage", 16),
+        /**
+         * Whole lists and timelines, which hold a thread for as long as the client takes to read them. Keep the
+         * limit below the thread count.
+         */
+        LIST_MESSAGES("listMessages", 8),
+        UPDATE_MESSAGE("updateMessage", 16),
+        DELETE_MESSAGE("deleteMessage", 16);
+
+        private final String propertyName;
+        private final int defaultLimit;
+
+        Operation(String propertyName, int defaultLimit) {
+            this.propertyName = propertyName;
+            this.defaultLimit = defaultLimit;
+        }
+
+        /**
+         * @return the name of the operation in system properties and metrics
+         */
+        public String getPropertyName() {
+            return propertyName;
+        }
+    }
+
+    /**
+     * Database work that may throw what the synchronous service methods do.
+     */
+    @FunctionalInterface
+    public interface Work<T> {
+        T call() throws SQLException, IOException;
+    }
+
+    /**
+     * Thrown, inside a failed future, for a task whose operation already has as many tasks as it may.
+     */
+    public static final class BulkheadFullException extends OverloadedException {
+        private static final long serialVersionUID = 1L;
+
+        private BulkheadFullException(Operation operation) {
+            super("Too many " + operation.getPropertyName() + " requests in progress");
+        }
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final Map<Operation, Bulkhead> bulkheads = new EnumMap<>(Operation.class);
+
+    private DatabaseExecutor(int threads) {
+        int queueCapacity = 0;
+        for (Operation operation : Operation.values()) {
+            Bulkhead bulkhead = new Bulkhead(
+                    Integer.getInteger("socialmedia.bulkhead." + operation.propertyName, operation.defaultLimit));
+            bulkheads.put(operation, bulkhead);
+            queueCapacity += bulkhead.limit;
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "database-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @return the executor shared by all services
+     */
+    public static DatabaseExecutor shared() {
+        return SHARED;
+    }
+
+    /**
+     * Runs database work on the pool, unless its operation's bulkhead is full.
+     *
+     * @param operation what kind of work it is
+     * @param work the blocking work
+     * @return a future completed with the work's result, or failed with what it threw or with BulkheadFullException
+     */
+    public <T> CompletableFuture<T> submit(Operation operation, Work<T> work) {
+        Bulkhead bulkhead = bulkheads.get(operation);
+        CompletableFuture<T> future = new CompletableFuture<>();
+        if (!bulkhead.permits.tryAcquire()) {
+            bulkhead.rejected.incrementAndGet();
+            future.completeExceptionally(new BulkheadFullException(operation));
+            return future;
+        }
+        try {
+            executor.execute(() -> {
+                T result;
+                try {
+                    result = work.call();
+                } catch (Throwable e) {
+                    bulkhead.permits.release();
+                    future.completeExceptionally(e);
+                    return;
+                }
+                // Released before completing, so the stages that run next see the permit free again
+                bulkhead.permits.release();
+                future.complete(result);
+            });
+        } catch (RejectedExecutionException e) {
+            bulkhead.permits.release(); // Only when shut down, as the queue holds every permitted task
+            bulkhead.rejected.incrementAndGet();
+            future.completeExceptionally(new BulkheadFullException(operation));
+        }
+        return future;
+    }
+
+    /**
+     * Takes a point-in-time view of the pool and the bulkheads for the /metrics endpoint.
+     *
+     * @return the pool's thread counts and queue length, and per operation its limit, the tasks it has queued or
+     *         running, and how many it rejected
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("threads", executor.getMaximumPoolSize());
+        stats.put("active", executor.getActiveCount());
+        stats.put("queued", executor.getQueue().size());
+        Map<String, Object> operations = new LinkedHashMap<>();
+        bulkheads.forEach((operation, bulkhead) -> {
+            Map<String, Object> operationStats = new LinkedHashMap<>();
+            operationStats.put("limit", bulkhead.limit);
+            operationStats.put("inFlight", bulkhead.limit - bulkhead.permits.availablePermits());
+            operationStats.put("rejected", bulkhead.rejected.get());
+            operations.put(operation.propertyName, operationStats);
+        });
+        stats.put("bulkheads", operations);
+        return stats;
+    }
+
+    private static final class Bulkhead {
+        private final int limit;
+        private final Semaphore permits;
+        private final AtomicLong rejected = new AtomicLong();
+
+        private Bulkhead(int limit) {
+            this.limit = limit;
+            this.permits = new Semaphore(limit);
+        }
+    }
+}
@@ -0,0 +1,495 @@
+package Service;
+
+import Model.Message;
+import Util.JsonCodec;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+/**
+ * MessageEventBus.java
+ *
+ * In-process publish/subscribe for message changes. MessageService publishes an event for every created, updated
+ * and deleted message; subscribers (the GET /messages/stream and /ws/messages clients) receive the events for all
+ * messages, or for the messages of the posters they follow, which they can change while subscribed.
+ *
+ * Publishing never waits for a subscriber, and costs the same however many there are: the event is serialized and
+ * put on a dispatch queue, from which one dispatcher thread copies it to the queues of the subscribers that want it.
+ * Each subscriber's queue is bounded, and events are handed out by a small pool of delivery threads, at most one
+ * write at a time per subscriber. A subscriber only starts its write and returns; the delivery thread moves on at
+ * once, and the subscriber's next batch is scheduled when the write completes. So a slow client only holds up
+ * itself: its queue fills while its write is pending, and a write still pending after the write timeout
+ * disconnects it. A delivery hands the subscriber everything queued for it (up to DRAIN_BATCH events), so under
+ * load a subscriber receives events in batches rather than one by one.
+ * When a subscriber's queue is full the overflow policy decides: drop the oldest queued event, drop the new one, or
+ * disconnect the subscriber. Each event is serialized once, however many subscribers it goes to, and subscribers are
+ * indexed by poster in concurrent maps, so a publish only visits the subscribers that want it and following or
+ * unfollowing a poster never blocks a publish.
+ *
+ * Subscribers are also sent a heartbeat at a fixed interval, through the same queue as events. It keeps idle
+ * connections open through proxies and lets a subscriber notice a client that has gone away.
+ */
+public class MessageEventBus implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MessageEventBus.class);
+
+    /**
+     * Events a delivery thread hands to one subscriber at once. Busy subscribers then take turns.
+     */
+    private static final int DRAIN_BATCH = 64;
+
+    /**
+     * Events published but not yet handed to subscribers. Only fills up if the dispatcher falls far behind.
+     */
+    private static final int DISPATCH_CAPACITY = 10_000;
+
+    /**
+     * What happens to an event that does not fit in a subscriber's queue.
+     */
+    public enum OverflowPolicy {
+        /** Make room by discarding the oldest queued event; the subscriber sees the latest changes. */
+        DROP_OLDEST,
+        /** Discard the new event; the subscriber sees the changes it had queued. */
+        DROP_NEWEST,
+        /** Close the subscriber, which can reconnect and reload what it missed. */
+        DISCONNECT
+    }
+
+    /**
+     * The kinds of message change, named as they appear in the event stream.
+     */
+    public enum EventType {
+        CREATED("created"), UPDATED("updated"), DELETED("deleted");
+
+        private final String eventName;
+
+        EventType(String eventName) {
+            this.eventName = eventName;
+        }
+
+        /**
+         * @return the name of the event in the stream
+         */
+        public String getEventName() {
+            return eventName;
+        }
+    }
+
+    /**
+     * Receives the events of one subscription. A send is not made until the previous one has completed.
+     */
+    public interface Subscriber {
+        /**
+         * Starts writing events to the client. Must not wait for the client: it runs on one of the few delivery
+         * threads shared by all subscribers.
+         *
+         * @param events the events to write, in publish order, possibly including heartbeats (see Event.isHeartbeat)
+         * @return completed once the events are written, or exceptionally if the client can not be written to, in
+         *         which case the subscription is cancelled
+         */
+        CompletionStage<Void> send(List<Event> events);
+
+        /**
+         * Closes the client. Called when the subscription is dropped by the bus, not when it is cancelled.
+         */
+        void close();
+    }
+
+    private final int queueCapacity;
+    private final OverflowPolicy overflowPolicy;
+    private final long writeTimeoutMillis;
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private final Set<Subscription> allMessages = ConcurrentHashMap.newKeySet();
+    private final Map<Integer, Set<Subscription>> byPoster = new ConcurrentHashMap<>();
+    private final AtomicLong nextEventId = new AtomicLong();
+    private final BlockingQueue<Event> dispatchQueue = new ArrayBlockingQueue<>(DISPATCH_CAPACITY);
+    private final Thread dispatcher;
+    private final ExecutorService deliveryExecutor;
+    private final ScheduledExecutorService heartbeatExecutor;
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong droppedUndispatched = new AtomicLong();
+    private final AtomicLong disconnected = new AtomicLong();
+    private final AtomicLong writeTimeouts = new AtomicLong();
+
+    /**
+     * @param queueCapacity how many events may wait for one subscriber
+     * @param overflowPolicy what to do with an event for a subscriber whose queue is full
+     * @param deliveryThreads the number of threads writing events to subscribers
+     * @param heartbeatSeconds how often subscribers get a heartbeat; 0 sends none
+     * @param writeTimeoutMillis how long one write to a subscriber may take before the subscriber is disconnected
+     */
+    public MessageEventBus(int queueCapacity, OverflowPolicy overflowPolicy, int deliveryThreads, long heartbeatSeconds,
+                           long writeTimeoutMillis) {
+        this.queueCapacity = queueCapacity;
+        this.overflowPolicy = overflowPolicy;
+        this.writeTimeoutMillis = writeTimeoutMillis;
+        this.dispatcher = daemonThreads("message-events-dispatcher-").newThread(this::dispatch);
+        this.deliveryExecutor = Executors.newFixedThreadPool(deliveryThreads, daemonThreads("message-events-"));
+        this.heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(daemonThreads("message-events-heartbeat-"));
+        if (heartbeatSeconds > 0) {
+            heartbeatExecutor.scheduleAtFixedRate(this::sendHeartbeats, heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+        }
+        dispatcher.start();
+    }
+
+    /**
+     * Starts delivering events to a subscriber.
+     *
+     * @param postedBy only events for messages of this account are delivered; null delivers every event
+     * @param subscriber writes the events out
+     * @return the subscription, to cancel when the client goes away
+     */
+    public Subscription subscribe(Integer postedBy, Subscriber subscriber) {
+        Subscription subscription = new Subscription(postedBy == null, subscriber);
+        subscriptions.add(subscription);
+        if (postedBy == null) {
+            allMessages.add(subscription);
+        } else {
+            subscription.follow(postedBy);
+        }
+        return subscription;
+    }
+
+    /**
+     * Registers a subscriber that follows no one yet; see Subscription.follow.
+     *
+     * @param subscriber writes the events out
+     * @return the subscription, to cancel when the client goes away
+     */
+    public Subscription subscribe(Subscriber subscriber) {
+        Subscription subscription = new Subscription(false, subscriber);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * Queues an event for every subscriber that wants it. Does not block; see OverflowPolicy for full queues.
+     *
+     * @param type what happened to the message
+     * @param message the message as it is after the change, or as it was before a delete
+     */
+    public void publish(EventType type, Message message) {
+        if (allMessages.isEmpty() && !byPoster.containsKey(message.getPosted_by())) {
+            return; // Nobody listening, so do not even serialize
+        }
+        String data;
+        try {
+            data = JsonCodec.INSTANCE.writerFor(Message.class).writeValueAsString(message);
+        } catch (JsonProcessingException e) {
+            LOGGER.warn("Could not serialize message {} for subscribers", message.getMessage_id(), e);
+            return;
+        }
+        Event event = new Event(nextEventId.incrementAndGet(), type.getEventName(), data, message.getPosted_by());
+        if (dispatchQueue.offer(event)) {
+            published.incrementAndGet();
+        } else {
+            droppedUndispatched.incrementAndGet();
+        }
+    }
+
+    private void dispatch() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Event event = dispatchQueue.take();
+                for (Subscription subscription : allMessages) {
+                    subscription.offer(event);
+                }
+                Set<Subscription> posterSubscriptions = byPoster.get(event.postedBy);
+                if (posterSubscriptions != null) {
+                    for (Subscription subscription : posterSubscriptions) {
+                        subscription.offer(event);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // Closed
+        }
+    }
+
+    /**
+     * Takes a point-in-time view of the bus for the /metrics endpoint.
+     *
+     * @return the number of subscribers, how many events were published, delivered, dropped from full subscriber
+     *         queues and dropped because the dispatcher was behind, and how many subscribers were disconnected for
+     *         falling behind or for a write that did not complete in time
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("subscribers", subscriptions.size());
+        stats.put("queueCapacity", queueCapacity);
+        stats.put("overflowPolicy", overflowPolicy.name());
+        stats.put("published", published.get());
+        stats.put("delivered", delivered.get());
+        stats.put("dropped", dropped.get());
+        stats.put("droppedUndispatched", droppedUndispatched.get());
+        stats.put("disconnected", disconnected.get());
+        stats.put("writeTimeouts", writeTimeouts.get());
+        return stats;
+    }
+
+    /**
+     * Stops the dispatcher, heartbeat and delivery threads. Events still queued are not delivered.
+     */
+    @Override
+    public void close() {
+        dispatcher.interrupt();
+        heartbeatExecutor.shutdownNow();
+        deliveryExecutor.shutdownNow();
+    }
+
+    private void sendHeartbeats() {
+        for (Subscription subscription : subscriptions) {
+            subscription.offerHeartbeat();
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String namePrefix) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, namePrefix + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * One subscriber's place on the bus: the posters it follows, its queue of events waiting to be written, and
+     * whether a delivery thread is already draining it.
+     */
+    public final class Subscription {
+        private final boolean allPosters;
+        private final Subscriber subscriber;
+        private final Set<Integer> followed = ConcurrentHashMap.newKeySet();
+        private final BlockingQueue<Event> queue = new ArrayBlockingQueue<>(queueCapacity);
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+
+        private Subscription(boolean allPosters, Subscriber subscriber) {
+            this.allPosters = allPosters;
+            this.subscriber = subscriber;
+        }
+
+        /**
+         * Starts delivering the events for one more poster's messages. Does nothing for a subscription to every
+         * message, or after cancel.
+         *
+         * @param postedBy the account to follow
+         */
+        public void follow(int postedBy) {
+            if (allPosters || cancelled.get() || !followed.add(postedBy)) {
+                return;
+            }
+            byPoster.compute(postedBy, (key, subscriptions) -> {
+                Set<Subscription> set = subscriptions != null ? subscriptions : ConcurrentHashMap.newKeySet();
+                set.add(this);
+                return set;
+            });
+            if (cancelled.get()) {
+                unfollow(postedBy); // Lost a race with cancel, which may have missed this poster
+            }
+        }
+
+        /**
+         * Stops delivering the events for a poster's messages. Events already queued are still delivered.
+         *
+         * @param postedBy the account to stop following
+         */
+        public void unfollow(int postedBy) {
+            followed.remove(postedBy);
+            byPoster.computeIfPresent(postedBy, (key, subscriptions) -> {
+                subscriptions.remove(this);
+                return subscriptions.isEmpty() ? null : subscriptions;
+            });
+        }
+
+        /**
+         * @param postedBy an account
+         * @return true if the events for the account's messages are delivered to this subscription
+         */
+        public boolean isFollowing(int postedBy) {
+            return allPosters || followed.contains(postedBy);
+        }
+
+        /**
+         * @return the number of posters followed
+         */
+        public int followedCount() {
+            return followed.size();
+        }
+
+        /**
+         * @return the posters followed, in ascending order
+         */
+        public List<Integer> getFollowed() {
+            List<Integer> posters = new ArrayList<>(followed);
+            posters.sort(null);
+            return posters;
+        }
+
+        /**
+         * Stops delivery to the subscriber and forgets it. Safe to call more than once.
+         */
+        public void cancel() {
+            if (!cancelled.compareAndSet(false, true)) {
+                return;
+            }
+            subscriptions.remove(this);
+            allMessages.remove(this);
+            for (Integer postedBy : followed) {
+                unfollow(postedBy);
+            }
+            queue.clear();
+        }
+
+        private void offer(Event event) {
+            if (!queue.offer(event)) {
+                switch (overflowPolicy) {
+                    case DROP_OLDEST:
+                        while (!queue.offer(event)) {
+                            if (queue.poll() != null) {
+                                dropped.incrementAndGet();
+                            }
+                        }
+                        break;
+                    case DROP_NEWEST:
+                        dropped.incrementAndGet();
+                        return;
+                    case DISCONNECT:
+                        disconnected.incrementAndGet();
+                        cancel();
+                        subscriber.close();
+                        return;
+                }
+            }
+            scheduleDrain();
+        }
+
+        private void offerHeartbeat() {
+            if (queue.offer(Event.HEARTBEAT)) { // A full queue has events on their way, which do as well
+                scheduleDrain();
+            }
+        }
+
+        private void scheduleDrain() {
+            if (!cancelled.get() && draining.compareAndSet(false, true)) {
+                try {
+                    deliveryExecutor.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    draining.set(false); // The bus is closed; a publish must still not fail because of it
+                }
+            }
+        }
+
+        private void drain() {
+            List<Event> batch = new ArrayList<>(Math.min(DRAIN_BATCH, queueCapacity));
+            if (cancelled.get() || queue.drainTo(batch, DRAIN_BATCH) == 0) {
+                finishDrain();
+                return;
+            }
+            CompletableFuture<Void> write;
+            try {
+                write = subscriber.send(batch).toCompletableFuture();
+            } catch (RuntimeException e) {
+                write = CompletableFuture.failedFuture(e);
+            }
+            // A copy, so the timeout does not complete the subscriber's own future
+            write.copy().orTimeout(writeTimeoutMillis, TimeUnit.MILLISECONDS).whenComplete((ignored, failure) -> {
+                if (failure == null) {
+                    for (Event event : batch) {
+                        if (!event.isHeartbeat()) {
+                            delivered.incrementAndGet();
+                        }
+                    }
+                } else if (failure instanceof TimeoutException) {
+                    LOGGER.debug("Dropping subscriber whose write did not complete in {} ms", writeTimeoutMillis);
+                    writeTimeouts.incrementAndGet();
+                    cancel();
+                    subscriber.close();
+                } else {
+                    LOGGER.debug("Dropping subscriber that could not be written to", failure);
+                    cancel();
+                }
+                finishDrain();
+            });
+        }
+
+        private void finishDrain() {
+            draining.set(false);
+            if (!queue.isEmpty()) {
+                scheduleDrain(); // More arrived meanwhile, or the batch was full; go to the back of the line
+            }
+        }
+    }
+
+    /**
+     * One message change as sent to subscribers: a sequence number, the event name and the message as JSON.
+     */
+    public static final class Event {
+        static final Event HEARTBEAT = new Event(0, null, null, 0);
+
+        private final long id;
+        private final String name;
+        private final String data;
+        private final int postedBy;
+
+        private Event(long id, String name, String data, int postedBy) {
+            this.id = id;
+            this.name = name;
+            this.data = data;
+            this.postedBy = postedBy;
+        }
+
+        /**
+         * @return true for a heartbeat, which carries no message
+         */
+        public boolean isHeartbeat() {
+            return this == HEARTBEAT;
+        }
+
+        /**
+         * @return the sequence number of the event, increasing in publish order
+         */
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * @return the event name, see EventType
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the message as JSON
+         */
+        public String getData() {
+            return data;
+        }
+    }
+}
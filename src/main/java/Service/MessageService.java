@@ -2,7 +2,15 @@ package Service;
 
 import DAO.MessageDAO;
 import Model.Message;
+import Util.BoundedCache;
+import Util.EncodedJson;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.sql.*;
 
 /**
@@ -14,10 +22,78 @@ import java.sql.*;
  * This class provides services related to messages. It uses the MessageDAO class to perform database operations 
  * and includes methods for creating, retrieving, updating, and deleting messages, as well as retrieving messages 
  * by user ID.
+ * 
+ * Single messages are kept in a cache keyed by message_id, so the repeated getMessageById calls made while serving
+ * one request (and by hot messages across requests) do not each go to the database. Creates write new messages
+ * through to it; updates and deletes evict them, and the next read fills the entry again. The cache is
+ * sized, timed and tuned with the socialmedia.messageCache.* system properties. Each entry also holds the message
+ * already serialized (and gzipped if it reaches socialmedia.compression.minSize, which a message only does when that
+ * is set below its 1500-byte default), so GET /messages/{message_id} can send a hit as it is.
+ * 
+ * New messages go through a MessageWriteCoalescer, which groups concurrent inserts into one transaction. It is tuned
+ * with the socialmedia.writeCoalescer.* system properties, and socialmedia.writeCoalescer.enabled=false makes every
+ * insert commit on its own again.
+ * 
+ * The latest messages of each recently viewed account are kept in a TimelineCache, which every create, update and
+ * delete below keeps current. GET /accounts/{account_id}/messages is answered from it, reading from the database
+ * only the older messages it does not hold. It is tuned with the socialmedia.timelineCache.* system properties, and
+ * socialmedia.timelineCache.depth=0 turns it off.
+ * 
+ * Every write is also published on a MessageEventBus for the GET /messages/stream and /ws/messages subscribers,
+ * tuned with the socialmedia.events.* system properties.
+ * 
+ * Every write also bumps the VersionCounters of the message and of its poster, which the controller turns into ETags
+ * for conditional GETs.
+ * 
+ * The Async variants run the same work on the shared DatabaseExecutor, under the bulkhead of their operation, and
+ * return a future instead of blocking. Message cache hits complete without leaving the calling thread, and single
+ * creates go straight to the write coalescer when it is enabled.
  */
 public class MessageService {
 
-    private final MessageDAO messageDAO = new MessageDAO();
+    private final MessageDAO messageDAO;
+    private final BoundedCache<Integer, CachedMessage> messageCache = new BoundedCache<>(
+            BoundedCache.Policy.valueOf(System.getProperty("socialmedia.messageCache.policy", "TINY_LFU")),
+            Long.getLong("socialmedia.messageCache.maxBytes", 16L * 1024 * 1024),
+            Long.getLong("socialmedia.messageCache.ttlMillis", 60_000L),
+            (messageId, cached) -> cached.size());
+    private final MessageWriteCoalescer writeCoalescer;
+    private final TimelineCache timelineCache = Integer.getInteger("socialmedia.timelineCache.depth", 50) > 0
+            ? new TimelineCache(
+                    Integer.getInteger("socialmedia.timelineCache.depth", 50),
+                    Long.getLong("socialmedia.timelineCache.maxBytes", 8L * 1024 * 1024))
+            : null;
+    private final VersionCounters versions = new VersionCounters();
+    private final DatabaseExecutor database = DatabaseExecutor.shared();
+    private final MessageEventBus eventBus = new MessageEventBus(
+            Integer.getInteger("socialmedia.events.queueCapacity", 256),
+            MessageEventBus.OverflowPolicy.valueOf(System.getProperty("socialmedia.events.overflowPolicy", "DROP_OLDEST")),
+            Integer.getInteger("socialmedia.events.deliveryThreads", 4),
+            Long.getLong("socialmedia.events.heartbeatSeconds", 15L),
+            TimeUnit.SECONDS.toMillis(Long.getLong("socialmedia.events.writeTimeoutSeconds", 10L)));
+
+    /**
+     * Creates the service on a new MessageDAO.
+     */
+    public MessageService() {
+        this(new MessageDAO());
+    }
+
+    /**
+     * Creates the service on the given DAO.
+     * 
+     * @param messageDAO the DAO to read and write messages with
+     */
+    public MessageService(MessageDAO messageDAO) {
+        this.messageDAO = messageDAO;
+        this.writeCoalescer = Boolean.parseBoolean(System.getProperty("socialmedia.writeCoalescer.enabled", "true"))
+                ? new MessageWriteCoalescer(messageDAO,
+                        Integer.getInteger("socialmedia.writeCoalescer.queueCapacity", 10_000),
+                        Integer.getInteger("socialmedia.writeCoalescer.maxBatchSize", 64),
+                        Long.getLong("socialmedia.writeCoalescer.windowMicros", 200L),
+                        Integer.getInteger("socialmedia.writeCoalescer.writerThreads", 1))
+                : null;
+    }
 
     /**
      * Creates a new message after validating the message text.
@@ -28,14 +104,56 @@ public class MessageService {
      * @throws IllegalArgumentException if the message text is blank or exceeds 255 characters
      */
     public Message createMessage(Message message) throws SQLException {
+        checkMessageText(message);
+        message.setTime_posted_epoch(1669947792); // Set a fixed time for the message
+        return created(writeCoalescer != null
+                ? writeCoalescer.write(message)
+                : messageDAO.createMessage(message));
+    }
+
+    /**
+     * Creates several messages in one database transaction. The messages must already have passed the same checks
+     * as createMessage; validation is left to the caller so it can report errors per item.
+     *
+     * @param messages the Message objects to create, in the order their IDs should be assigned
+     * @return the same list, with every message ID set
+     * @throws SQLException if a database access error occurs, in which case none of the messages were created
+     */
+    public List<Message> createMessages(List<Message> messages) throws SQLException {
+        for (Message message : messages) {
+            message.setTime_posted_epoch(1669947792); // Same fixed time as createMessage
+        }
+        List<Message> createdMessages = messageDAO.createMessages(messages);
+        for (Message createdMessage : createdMessages) {
+            created(createdMessage);
+        }
+        return createdMessages;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the message text is blank or exceeds 255 characters
+     */
+    private static void checkMessageText(Message message) {
         if (message.getMessage_text() == null || message.getMessage_text().isBlank()) {
             throw new IllegalArgumentException("Message text cannot be blank");
         }
         if (message.getMessage_text().length() > 255) {
             throw new IllegalArgumentException("Message text cannot exceed 255 characters");
         }
-        message.setTime_posted_epoch(1669947792); // Set a fixed time for the message
-        return messageDAO.createMessage(message);
+    }
+
+    /**
+     * Brings the caches, versions and subscribers up to date with a message that has just been inserted. Only
+     * touches memory, so it may run on the coalescer's writer thread.
+     */
+    private Message created(Message createdMessage) {
+        messageCache.put(createdMessage.getMessage_id(), new CachedMessage(createdMessage));
+        if (timelineCache != null) {
+            timelineCache.onCreate(createdMessage);
+        }
+        changed(createdMessage);
+        eventBus.publish(MessageEventBus.EventType.CREATED, createdMessage);
+        return createdMessage;
     }
 
     /**
@@ -49,36 +167,105 @@ public class MessageService {
     }
 
     /**
-     * Retrieves a message by its ID.
+     * Retrieves one page of messages in ascending ID order, starting after the given message ID.
+     * 
+     * @param afterMessageId the ID of the last message of the previous page, or 0 for the first page
+     * @param limit the maximum number of messages to return
+     * @return a list of at most limit Message objects
+     * @throws SQLException if a database access error occurs
+     */
+    public List<Message> getMessagesPage(int afterMessageId, int limit) throws SQLException {
+        return messageDAO.getMessagesPage(afterMessageId, limit);
+    }
+
+    /**
+     * Retrieves a message by its ID, from the cache when possible.
      * 
      * @param messageId the ID of the message to retrieve
      * @return the Message object with the specified ID, or null if not found
      * @throws SQLException if a database access error occurs
      */
     public Message getMessageById(int messageId) throws SQLException {
-        return messageDAO.getMessageById(messageId);
+        CachedMessage cached = getCachedMessage(messageId);
+        // Callers may modify what they get, so never hand out the cached instance
+        return cached != null ? copyOf(cached.message) : null;
     }
 
     /**
-     * Deletes a message by its ID if it exists.
+     * Retrieves a message by its ID as the JSON the API sends for it, from the cache when possible. A cache hit
+     * needs no serialization at all.
      * 
-     * @param messageId the ID of the message to delete
-     * @return true if the message was deleted, false if the message did not exist
+     * @param messageId the ID of the message to retrieve
+     * @return the encoded message, or null if not found
      * @throws SQLException if a database access error occurs
      */
-    public boolean deleteMessageById(int messageId) throws SQLException {
+    public EncodedJson getEncodedMessageById(int messageId) throws SQLException {
+        CachedMessage cached = getCachedMessage(messageId);
+        return cached != null ? cached.encoded : null;
+    }
+
+    private CachedMessage getCachedMessage(int messageId) throws SQLException {
+        CachedMessage cached = messageCache.get(messageId);
+        return cached != null ? cached : loadMessage(messageId);
+    }
+
+    /**
+     * Reads a message that missed the cache from the database and caches it. A write that commits while the row is
+     * being read advances the message's cache generation before it touches the cache, so a fill that sees the
+     * generation moved is taken back: it may hold the row as it was before an update or delete.
+     */
+    private CachedMessage loadMessage(int messageId) throws SQLException {
+        long generation = versions.messageCacheGeneration(messageId);
         Message message = messageDAO.getMessageById(messageId);
         if (message == null) {
-            return false; // Handle the case where the message doesn't exist
+            return null;
+        }
+        CachedMessage cached = new CachedMessage(message);
+        messageCache.putIfAbsent(messageId, cached);
+        if (versions.messageCacheGeneration(messageId) != generation) {
+            messageCache.invalidate(messageId, cached);
+        }
+        return cached;
+    }
+
+    /**
+     * Drops a message from the cache after a write; see loadMessage for why the generation moves first.
+     */
+    private void evict(int messageId) {
+        versions.advanceMessageCacheGeneration(messageId);
+        messageCache.invalidate(messageId);
+    }
+
+    /**
+     * Deletes a message by its ID if it exists. The message is read and deleted by a single statement.
+     * 
+     * @param messageId the ID of the message to delete
+     * @return the deleted Message object, or null if the message did not exist
+     * @throws SQLException if a database access error occurs
+     */
+    public Message deleteMessageById(int messageId) throws SQLException {
+        Message deletedMessage;
+        try {
+            deletedMessage = messageDAO.deleteMessageById(messageId);
+        } finally {
+            evict(messageId); // Gone, or in an unknown state if the delete failed
+            versions.messageChanged(messageId);
+        }
+        if (deletedMessage != null) {
+            if (timelineCache != null) {
+                timelineCache.onDelete(deletedMessage);
+            }
+            versions.accountChanged(deletedMessage.getPosted_by());
+            eventBus.publish(MessageEventBus.EventType.DELETED, deletedMessage);
         }
-        messageDAO.deleteMessageById(messageId);
-        return true;
+        return deletedMessage;
     }
 
     /**
-     * Updates an existing message after validating the message text.
+     * Updates an existing message after validating the message text. The text is changed and the updated row read
+     * back by a single statement.
      * 
-     * @param message the Message object with updated details
+     * @param message the Message object with the message ID and the new message text
      * @return the updated Message object
      * @throws SQLException if a database access error occurs
      * @throws IllegalArgumentException if the message text is blank or exceeds 255 characters, or if the message does not exist
@@ -90,14 +277,27 @@ public class MessageService {
         if (message.getMessage_text().length() > 255) {
             throw new IllegalArgumentException("Message text cannot exceed 255 characters");
         }
-        Message existingMessage = messageDAO.getMessageById(message.getMessage_id());
-        if (existingMessage == null) {
+        Message updatedMessage;
+        try {
+            updatedMessage = messageDAO.updateMessage(message);
+        } catch (SQLException e) {
+            evict(message.getMessage_id()); // The row may or may not have changed
+            versions.messageChanged(message.getMessage_id());
+            throw e;
+        }
+        if (updatedMessage == null) {
+            evict(message.getMessage_id());
             throw new IllegalArgumentException("Message does not exist");
         }
-        message.setPosted_by(existingMessage.getPosted_by());
-        message.setTime_posted_epoch(existingMessage.getTime_posted_epoch());
-        messageDAO.updateMessage(message);
-        return messageDAO.getMessageById(message.getMessage_id());
+        // Evicted rather than replaced: a put here could land after a later update or a delete of the same message
+        // and cache a row that is no longer current. The next read fills the entry, guarded like any fill.
+        evict(updatedMessage.getMessage_id());
+        if (timelineCache != null) {
+            timelineCache.onUpdate(updatedMessage);
+        }
+        changed(updatedMessage);
+        eventBus.publish(MessageEventBus.EventType.UPDATED, updatedMessage);
+        return updatedMessage;
     }
 
     /**
@@ -110,4 +310,266 @@ public class MessageService {
     public List<Message> getMessagesByUserId(int accountId) throws SQLException {
         return messageDAO.getMessagesByUserId(accountId);
     }
+
+    /**
+     * Retrieves one page of the messages posted by a specific user, in ascending ID order (keyset pagination). A
+     * cached timeline is used when there is one: the page is read from the database only while it lies below the
+     * timeline's floor, and the rest is taken from memory. Without one, the first page (after 0) reads the account's
+     * latest messages and makes them its timeline; later pages are read from the database alone. The messages returned
+     * may be shared with the cache and must not be modified.
+     * 
+     * @param accountId the ID of the user whose messages to retrieve
+     * @param afterMessageId only messages with a greater ID are returned; 0 starts from the beginning
+     * @param limit the maximum number of messages to return
+     * @return at most limit messages in ascending ID order; fewer only when there are no more
+     * @throws SQLException if a database access error occurs
+     */
+    public List<Message> getMessagesByUserIdPage(int accountId, int afterMessageId, int limit) throws SQLException {
+        if (timelineCache == null) {
+            return messageDAO.getMessagesByUserIdPage(accountId, afterMessageId, Integer.MAX_VALUE, limit);
+        }
+        int floorId;
+        List<Message> recent;
+        TimelineCache.Snapshot timeline = timelineCache.get(accountId);
+        if (timeline != null) {
+            floorId = timeline.getFloorId();
+            recent = Arrays.asList(timeline.getMessages());
+        } else if (afterMessageId == 0) {
+            long generation = timelineCache.generation(accountId); // Taken before reading, see TimelineCache
+            int depth = timelineCache.getDepth();
+            List<Message> latest = messageDAO.getLatestMessagesByUserId(accountId, depth + 1);
+            // One more than fits, to tell whether there are older messages and where the timeline starts
+            floorId = latest.size() > depth ? latest.get(depth).getMessage_id() + 1 : 0;
+            recent = new ArrayList<>(latest.subList(0, Math.min(depth, latest.size())));
+            Collections.reverse(recent);
+            timelineCache.fill(accountId, generation, floorId, recent);
+        } else {
+            return messageDAO.getMessagesByUserIdPage(accountId, afterMessageId, Integer.MAX_VALUE, limit);
+        }
+        List<Message> page = afterMessageId + 1 < floorId
+                ? messageDAO.getMessagesByUserIdPage(accountId, afterMessageId, floorId, limit)
+                : new ArrayList<>(Math.min(limit, recent.size()));
+        for (Message message : recent) {
+            if (page.size() == limit) {
+                break;
+            }
+            if (message.getMessage_id() > afterMessageId) {
+                page.add(message);
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Builds the current ETag of a message without reading it. Take it before reading the message.
+     * 
+     * @param messageId the ID of the message
+     * @return the ETag, which changes whenever the message is created, updated or deleted
+     */
+    public String getMessageETag(int messageId) {
+        return versions.messageETag(messageId);
+    }
+
+    /**
+     * Builds the current ETag of a user's message list without reading it. Take it before reading the list.
+     * 
+     * @param accountId the ID of the user
+     * @return the ETag, which changes whenever one of the user's messages is created, updated or deleted
+     */
+    public String getMessagesByUserIdETag(int accountId) {
+        return versions.accountETag(accountId);
+    }
+
+    /**
+     * Creates a message without blocking; see createMessage. With the write coalescer the message is queued for the
+     * writer thread, which completes the future, so no DatabaseExecutor thread waits for the batch to commit; a full
+     * coalescer queue fails the future with OverloadedException. Without it the insert runs on the DatabaseExecutor.
+     * 
+     * @param message the Message object containing message details
+     * @return a future of the created message
+     */
+    public CompletableFuture<Message> createMessageAsync(Message message) {
+        if (writeCoalescer == null) {
+            return database.submit(DatabaseExecutor.Operation.POST_MESSAGE, () -> createMessage(message));
+        }
+        try {
+            checkMessageText(message);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        message.setTime_posted_epoch(1669947792); // Same fixed time as createMessage
+        return writeCoalescer.writeAsync(message).thenApply(this::created);
+    }
+
+    /**
+     * Creates several messages in one transaction on the DatabaseExecutor; see createMessages.
+     * 
+     * @param messages the Message objects to create
+     * @return a future of the same list, with every message ID set
+     */
+    public CompletableFuture<List<Message>> createMessagesAsync(List<Message> messages) {
+        return database.submit(DatabaseExecutor.Operation.POST_MESSAGE, () -> createMessages(messages));
+    }
+
+    /**
+     * Reads one page of messages on the DatabaseExecutor; see getMessagesPage.
+     * 
+     * @param afterMessageId the ID of the last message of the previous page, or 0 for the first page
+     * @param limit the maximum number of messages to return
+     * @return a future of at most limit messages
+     */
+    public CompletableFuture<List<Message>> getMessagesPageAsync(int afterMessageId, int limit) {
+        return database.submit(DatabaseExecutor.Operation.LIST_MESSAGES, () -> getMessagesPage(afterMessageId, limit));
+    }
+
+    /**
+     * Reads one page of the messages posted by a user on the DatabaseExecutor; see getMessagesByUserIdPage.
+     * 
+     * @param accountId the ID of the user whose messages to retrieve
+     * @param afterMessageId only messages with a greater ID are returned; 0 starts from the beginning
+     * @param limit the maximum number of messages to return
+     * @return a future of at most limit messages in ascending ID order
+     */
+    public CompletableFuture<List<Message>> getMessagesByUserIdPageAsync(int accountId, int afterMessageId, int limit) {
+        return database.submit(DatabaseExecutor.Operation.LIST_MESSAGES,
+                () -> getMessagesByUserIdPage(accountId, afterMessageId, limit));
+    }
+
+    /**
+     * Retrieves a message as encoded JSON; see getEncodedMessageById. A cache hit completes at once, a miss is
+     * read on the DatabaseExecutor.
+     * 
+     * @param messageId the ID of the message to retrieve
+     * @return a future of the encoded message, or of null if not found
+     */
+    public CompletableFuture<EncodedJson> getEncodedMessageByIdAsync(int messageId) {
+        CachedMessage cached = messageCache.get(messageId);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached.encoded);
+        }
+        return database.submit(DatabaseExecutor.Operation.READ_MESSAGE, () -> {
+            CachedMessage loaded = loadMessage(messageId);
+            return loaded != null ? loaded.encoded : null;
+        });
+    }
+
+    /**
+     * Deletes a message on the DatabaseExecutor; see deleteMessageById.
+     * 
+     * @param messageId the ID of the message to delete
+     * @return a future of the deleted message, or of null if it did not exist
+     */
+    public CompletableFuture<Message> deleteMessageByIdAsync(int messageId) {
+        return database.submit(DatabaseExecutor.Operation.DELETE_MESSAGE, () -> deleteMessageById(messageId));
+    }
+
+    /**
+     * Updates a message on the DatabaseExecutor; see updateMessage.
+     * 
+     * @param message the Message object with the message ID and the new message text
+     * @return a future of the updated message, failed as updateMessage would throw or with BulkheadFullException
+     */
+    public CompletableFuture<Message> updateMessageAsync(Message message) {
+        return database.submit(DatabaseExecutor.Operation.UPDATE_MESSAGE, () -> updateMessage(message));
+    }
+
+    /**
+     * @return thread, queue and bulkhead counters of the DatabaseExecutor shared by the services
+     */
+    public Map<String, Object> getDatabaseExecutorStats() {
+        return database.stats();
+    }
+
+    /**
+     * Subscribes to message changes as they are made through this service.
+     * 
+     * @param postedBy only changes to messages of this account are delivered; null delivers all of them
+     * @param subscriber receives each change
+     * @return the subscription, which must be cancelled when the subscriber goes away
+     */
+    public MessageEventBus.Subscription subscribe(Integer postedBy, MessageEventBus.Subscriber subscriber) {
+        return eventBus.subscribe(postedBy, subscriber);
+    }
+
+    /**
+     * Subscribes to the changes of no account yet; the caller picks accounts with Subscription.follow.
+     * 
+     * @param subscriber receives the changes to the messages of the accounts followed
+     * @return the subscription, which must be cancelled when the subscriber goes away
+     */
+    public MessageEventBus.Subscription subscribe(MessageEventBus.Subscriber subscriber) {
+        return eventBus.subscribe(subscriber);
+    }
+
+    /**
+     * @return subscriber and delivery counters of the message event bus
+     */
+    public Map<String, Object> getEventStats() {
+        return eventBus.stats();
+    }
+
+    /**
+     * @return hit, miss and eviction counters of the message cache
+     */
+    public Map<String, Object> getCacheStats() {
+        return messageCache.stats();
+    }
+
+    /**
+     * @return hit, miss, eviction and memory counters of the timeline cache, or an empty map if it is disabled
+     */
+    public Map<String, Object> getTimelineStats() {
+        return timelineCache != null ? timelineCache.stats() : Map.of();
+    }
+
+    /**
+     * @return queue depth and batch size statistics of the write coalescer, or an empty map if it is disabled
+     */
+    public Map<String, Object> getWriteStats() {
+        return writeCoalescer != null ? writeCoalescer.stats() : Map.of();
+    }
+
+    /**
+     * Stops the write coalescer's writer threads and the event bus's delivery threads. Called when the server stops.
+     */
+    public void close() {
+        if (writeCoalescer != null) {
+            writeCoalescer.close();
+        }
+        eventBus.close();
+    }
+
+    /**
+     * Bumps the versions of a written message and its poster. Runs after the caches are updated, so a reader that
+     * sees the new version also sees the new content.
+     */
+    private void changed(Message message) {
+        versions.messageChanged(message.getMessage_id());
+        versions.accountChanged(message.getPosted_by());
+    }
+
+    private static Message copyOf(Message message) {
+        return new Message(message.getMessage_id(), message.getPosted_by(), message.getMessage_text(), message.getTime_posted_epoch());
+    }
+
+    /**
+     * An entry of the message cache: a private copy of the message, and the same message encoded for responses.
+     */
+    private static final class CachedMessage {
+        private final Message message;
+        private final EncodedJson encoded;
+
+        private CachedMessage(Message message) {
+            this.message = copyOf(message);
+            this.encoded = EncodedJson.of(this.message, Message.class);
+        }
+
+        /**
+         * Rough heap footprint: object headers, fields, the cache entry, the text's chars and the encoded bytes.
+         */
+        private long size() {
+            int textLength = message.getMessage_text() == null ? 0 : message.getMessage_text().length();
+            return 128 + 2L * textLength + 64 + encoded.size();
+        }
+    }
 }
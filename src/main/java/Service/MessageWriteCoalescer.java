@@ -0,0 +1,217 @@
+package Service;
+
+import DAO.MessageDAO;
+import Model.Message;
+import Util.Histogram;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * MessageWriteCoalescer.java
+ *
+ * Group commit for message inserts. Concurrent createMessage calls put their message on a bounded queue and wait;
+ * writer threads take whatever has arrived within a short window (at most maxBatchSize messages, or windowMicros
+ * after the first one) and insert it as one batch in one transaction, so the database commits once per batch instead
+ * of once per message. Each caller then gets its own message back with the generated ID set.
+ *
+ * If a batch fails, its messages are retried one at a time so a single bad row only fails its own caller. A full
+ * queue blocks the caller of write until there is room, which pushes back instead of buffering without bound;
+ * writeAsync never blocks, and fails with OverloadedException instead.
+ */
+public class MessageWriteCoalescer implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MessageWriteCoalescer.class);
+
+    private final MessageDAO messageDAO;
+    private final BlockingQueue<PendingWrite> queue;
+    private final int maxBatchSize;
+    private final long windowNanos;
+    private final List<Thread> writers = new ArrayList<>();
+    private volatile boolean closed;
+
+    private final Histogram batchSizes = new Histogram();
+    private final Histogram queueDepths = new Histogram();
+    private final AtomicLong failedBatches = new AtomicLong();
+
+    /**
+     * @param messageDAO writes the batches
+     * @param queueCapacity how many messages may wait for a writer before callers block
+     * @param maxBatchSize the most messages written in one transaction
+     * @param windowMicros how long a writer keeps collecting after the first message of a batch arrived
+     * @param writerThreads the number of writer threads
+     */
+    public MessageWriteCoalescer(MessageDAO messageDAO, int queueCapacity, int maxBatchSize, long windowMicros,
+                                 int writerThreads) {
+        this.messageDAO = messageDAO;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxBatchSize = maxBatchSize;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        for (int i = 0; i < writerThreads; i++) {
+            Thread writer = new Thread(this::writeLoop, "message-writer-" + i);
+            writer.setDaemon(true);
+            writers.add(writer);
+            writer.start();
+        }
+    }
+
+    /**
+     * Queues a message for insertion and waits until the batch holding it is committed.
+     *
+     * @param message the message to insert
+     * @return the same message with its generated ID set
+     * @throws SQLException if the insert failed, or the coalescer is closed
+     */
+    public Message write(Message message) throws SQLException {
+        if (closed) {
+            throw new SQLException("Message writer is closed");
+        }
+        PendingWrite pending = new PendingWrite(message);
+        try {
+            queueDepths.record(queue.size());
+            queue.put(pending);
+            if (closed && queue.remove(pending)) {
+                throw new SQLException("Message writer is closed"); // Closed while we were queueing, no writer left
+            }
+            return pending.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for the message to be written", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw new SQLException("Message write failed", e.getCause());
+        }
+    }
+
+    /**
+     * Queues a message for insertion without waiting. The returned future is completed by the writer thread once the
+     * batch holding the message is committed, so stages chained to it without an executor run there and must be
+     * quick.
+     *
+     * @param message the message to insert
+     * @return a future of the same message with its generated ID set, failed with SQLException if the insert failed
+     *         or the coalescer is closed, or with OverloadedException if the queue is full
+     */
+    public CompletableFuture<Message> writeAsync(Message message) {
+        PendingWrite pending = new PendingWrite(message);
+        if (closed) {
+            pending.result.completeExceptionally(new SQLException("Message writer is closed"));
+            return pending.result;
+        }
+        queueDepths.record(queue.size());
+        if (!queue.offer(pending)) {
+            pending.result.completeExceptionally(new OverloadedException("Too many messages waiting to be written"));
+        } else if (closed && queue.remove(pending)) {
+            pending.result.completeExceptionally(new SQLException("Message writer is closed"));
+        }
+        return pending.result;
+    }
+
+    /**
+     * Takes a point-in-time view of the coalescer counters for the /metrics endpoint.
+     *
+     * @return the current queue depth and the distributions of batch sizes and of queue depths seen by callers
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("queueDepth", queue.size());
+        stats.put("queueCapacity", queue.size() + queue.remainingCapacity());
+        stats.put("maxBatchSize", maxBatchSize);
+        stats.put("windowMicros", TimeUnit.NANOSECONDS.toMicros(windowNanos));
+        stats.put("failedBatches", failedBatches.get());
+        stats.put("batchSize", batchSizes.snapshot());
+        stats.put("queueDepthOnArrival", queueDepths.snapshot());
+        return stats;
+    }
+
+    /**
+     * Stops the writer threads. Messages still waiting in the queue are failed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        writers.forEach(Thread::interrupt);
+        PendingWrite pending;
+        while ((pending = queue.poll()) != null) {
+            pending.result.completeExceptionally(new SQLException("Message writer is closed"));
+        }
+    }
+
+    private void writeLoop() {
+        List<PendingWrite> batch = new ArrayList<>(maxBatchSize);
+        while (!closed) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatchSize) {
+                    PendingWrite next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                writeBatch(batch);
+            } catch (InterruptedException e) {
+                for (PendingWrite pending : batch) {
+                    pending.result.completeExceptionally(new SQLException("Message writer is closed"));
+                }
+                return;
+            } catch (RuntimeException e) {
+                LOGGER.error("Unexpected failure writing a batch of {} messages", batch.size(), e);
+                for (PendingWrite pending : batch) {
+                    pending.result.completeExceptionally(e);
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void writeBatch(List<PendingWrite> batch) {
+        batchSizes.record(batch.size());
+        List<Message> messages = new ArrayList<>(batch.size());
+        for (PendingWrite pending : batch) {
+            messages.add(pending.message);
+        }
+        try {
+            messageDAO.createMessages(messages);
+            for (PendingWrite pending : batch) {
+                pending.result.complete(pending.message);
+            }
+            return;
+        } catch (SQLException e) {
+            failedBatches.incrementAndGet();
+            LOGGER.warn("Batch of {} messages failed, retrying them one by one", batch.size(), e);
+        }
+        for (PendingWrite pending : batch) {
+            try {
+                pending.message.setMessage_id(0);
+                pending.result.complete(messageDAO.createMessage(pending.message));
+            } catch (SQLException e) {
+                pending.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static final class PendingWrite {
+        private final Message message;
+        private final CompletableFuture<Message> result = new CompletableFuture<>();
+
+        private PendingWrite(Message message) {
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package Service;
+
+/**
+ * OverloadedException.java
+ *
+ * Thrown, usually inside a failed future, when work is turned away because the pool that would run it is already
+ * as busy as it may get. Nothing was done, so the request can be retried; the controller answers it with 503.
+ */
+public class OverloadedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param message what was too busy
+     */
+    public OverloadedException(String message) {
+        super(message);
+    }
+}
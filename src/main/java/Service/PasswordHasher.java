@@ -0,0 +1,300 @@
+package Service;
+
+import Util.BoundedCache;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * PasswordHasher.java
+ *
+ * Hashes passwords with PBKDF2 (HMAC-SHA256) and checks them against stored hashes. A stored hash reads
+ * pbkdf2$iterations$salt$hash, with salt and hash in Base64, so every hash carries its own cost and hashes made at
+ * an older cost keep working after the cost is raised. Anything else stored is a password from before hashing and is
+ * compared as plain text; needsRehash tells the caller to replace it, and hashes made at a lower cost, on the next
+ * successful login.
+ *
+ * A hash costs tens of milliseconds of CPU on purpose, so the async methods run it on a pool of its own, sized to
+ * the cores, with a bounded queue. Work that does not fit in the queue fails at once with OverloadedException, which
+ * the controller answers with 503, rather than queueing up behind work that will take seconds to get through.
+ *
+ * A successful check is remembered for a while, keyed by the stored hash, as an HMAC of the password under a
+ * random key that never leaves this instance. A repeated login with the same password then costs one HMAC instead
+ * of a full PBKDF2 run, which keeps login latency flat when the same users log in again and again. A changed
+ * password has a new stored hash, so it can not match an entry made for the old one.
+ *
+ * Tuned with system properties:
+ *
+ *  socialmedia.password.iterations          PBKDF2 iterations for new hashes; default 210000
+ *  socialmedia.password.threads             threads hashing passwords; default the number of cores
+ *  socialmedia.password.queueCapacity       hashes that may wait for a thread; default 64
+ *  socialmedia.password.verifiedCacheMaxBytes  memory for remembered logins; default 1 MB, 0 turns it off
+ *  socialmedia.password.verifiedCacheTtlMillis how long a login is remembered; default 5 minutes
+ */
+public final class PasswordHasher {
+
+    private static final String PREFIX = "pbkdf2";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+
+    private static final PasswordHasher SHARED = new PasswordHasher(
+            Integer.getInteger("socialmedia.password.iterations", 210_000),
+            Integer.getInteger("socialmedia.password.threads", Runtime.getRuntime().availableProcessors()),
+            Integer.getInteger("socialmedia.password.queueCapacity", 64),
+            Long.getLong("socialmedia.password.verifiedCacheMaxBytes", 1024L * 1024),
+            Long.getLong("socialmedia.password.verifiedCacheTtlMillis", 300_000L));
+
+    private final int iterations;
+    private final ThreadPoolExecutor pool;
+    private final BoundedCache<String, byte[]> verified;
+    private final SecureRandom random = new SecureRandom();
+    private final ThreadLocal<Mac> cacheMac;
+    private final String unknownAccountHash;
+
+    private final AtomicLong hashes = new AtomicLong();
+    private final AtomicLong slowChecks = new AtomicLong();
+    private final AtomicLong cachedChecks = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param iterations PBKDF2 iterations for new hashes
+     * @param threads the number of threads hashing passwords
+     * @param queueCapacity how many hashes may wait for a thread
+     * @param verifiedCacheMaxBytes memory for remembered logins; 0 disables remembering
+     * @param verifiedCacheTtlMillis how long a login is remembered
+     */
+    public PasswordHasher(int iterations, int threads, int queueCapacity, long verifiedCacheMaxBytes,
+            long verifiedCacheTtlMillis) {
+        this.iterations = iterations;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "password-hasher-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        this.verified = new BoundedCache<>(BoundedCache.Policy.LRU, verifiedCacheMaxBytes, verifiedCacheTtlMillis,
+                (storedHash, digest) -> 96 + 2L * storedHash.length() + digest.length);
+        byte[] macKey = new byte[32];
+        random.nextBytes(macKey);
+        this.cacheMac = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance("HmacSHA256");
+                mac.init(new SecretKeySpec(macKey, "HmacSHA256"));
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("HmacSHA256 is not available", e);
+            }
+        });
+        this.unknownAccountHash = hash("unknown account");
+    }
+
+    /**
+     * @return the hasher shared by all services
+     */
+    public static PasswordHasher shared() {
+        return SHARED;
+    }
+
+    /**
+     * Hashes a password with a new random salt, on the calling thread.
+     *
+     * @param password the password
+     * @return the hash to store
+     */
+    public String hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        byte[] hash = pbkdf2(password, salt, iterations);
+        hashes.incrementAndGet();
+        Base64.Encoder base64 = Base64.getEncoder().withoutPadding();
+        return PREFIX + "$" + iterations + "$" + base64.encodeToString(salt) + "$" + base64.encodeToString(hash);
+    }
+
+    /**
+     * Checks a password against what is stored for an account, on the calling thread. Without a stored value the
+     * check still costs a full hash, so an unknown username takes as long to turn down as a wrong password.
+     *
+     * @param password the password given at login
+     * @param stored the stored hash, or a plain text password from before hashing, or null if there is no account
+     * @return true if the password matches
+     */
+    public boolean verify(String password, String stored) {
+        Boolean quickAnswer = quickCheck(password, stored);
+        return quickAnswer != null ? quickAnswer : slowCheck(password, stored);
+    }
+
+    /**
+     * @param stored what is stored for an account
+     * @return true if it is plain text, or a hash made with fewer iterations than new hashes get
+     */
+    public boolean needsRehash(String stored) {
+        if (stored == null || !stored.startsWith(PREFIX + "$")) {
+            return true;
+        }
+        String[] parts = stored.split("\\$");
+        try {
+            return parts.length != 4 || Integer.parseInt(parts[1]) < iterations;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Hashes a password on the hashing pool; see hash.
+     *
+     * @param password the password
+     * @return a future of the hash to store, failed with OverloadedException if the pool's queue is full
+     */
+    public CompletableFuture<String> hashAsync(String password) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        try {
+            pool.execute(() -> {
+                try {
+                    future.complete(hash(password));
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            future.completeExceptionally(new OverloadedException("Too many passwords waiting to be hashed"));
+        }
+        return future;
+    }
+
+    /**
+     * Checks a password on the hashing pool; see verify. A check that needs no PBKDF2 run, because the stored value
+     * is plain text or the login is remembered, completes at once on the calling thread.
+     *
+     * @param password the password given at login
+     * @param stored the stored hash, or a plain text password from before hashing, or null if there is no account
+     * @return a future of true if the password matches, failed with OverloadedException if the pool's queue is full
+     */
+    public CompletableFuture<Boolean> verifyAsync(String password, String stored) {
+        Boolean quickAnswer = quickCheck(password, stored);
+        if (quickAnswer != null) {
+            return CompletableFuture.completedFuture(quickAnswer);
+        }
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        try {
+            pool.execute(() -> {
+                try {
+                    future.complete(slowCheck(password, stored));
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            future.completeExceptionally(new OverloadedException("Too many passwords waiting to be checked"));
+        }
+        return future;
+    }
+
+    /**
+     * Takes a point-in-time view of the hasher for the /metrics endpoint.
+     *
+     * @return the cost of new hashes, the pool's threads and queue, how many hashes were made, how many checks ran
+     *         PBKDF2 and how many were answered from remembered logins, how much work was turned away, and the
+     *         counters of the remembered logins
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("iterations", iterations);
+        stats.put("threads", pool.getMaximumPoolSize());
+        stats.put("active", pool.getActiveCount());
+        stats.put("queued", pool.getQueue().size());
+        stats.put("hashes", hashes.get());
+        stats.put("slowChecks", slowChecks.get());
+        stats.put("cachedChecks", cachedChecks.get());
+        stats.put("rejected", rejected.get());
+        stats.put("verifiedCache", verified.stats());
+        return stats;
+    }
+
+    /**
+     * Answers the checks that need no PBKDF2 run: a missing password, a plain text stored password, and a
+     * remembered login.
+     *
+     * @return the answer, or null if slowCheck has to decide
+     */
+    private Boolean quickCheck(String password, String stored) {
+        if (password == null) {
+            return false;
+        }
+        if (stored == null) {
+            return null; // Still costs a hash, see verify
+        }
+        if (!stored.startsWith(PREFIX + "$")) {
+            // Stored before passwords were hashed; compared in constant time all the same
+            return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8), stored.getBytes(StandardCharsets.UTF_8));
+        }
+        byte[] remembered = verified.get(stored);
+        if (remembered != null && MessageDigest.isEqual(remembered, rememberedForm(password))) {
+            cachedChecks.incrementAndGet();
+            return true;
+        }
+        return null;
+    }
+
+    /**
+     * Runs PBKDF2 to check a password, and remembers a match.
+     */
+    private boolean slowCheck(String password, String stored) {
+        if (stored == null) {
+            slowCheck(password, unknownAccountHash);
+            return false;
+        }
+        String[] parts = stored.split("\\$");
+        if (parts.length != 4) {
+            return false;
+        }
+        boolean matches;
+        try {
+            Base64.Decoder base64 = Base64.getDecoder();
+            byte[] expected = base64.decode(parts[3]);
+            matches = MessageDigest.isEqual(expected, pbkdf2(password, base64.decode(parts[2]), Integer.parseInt(parts[1])));
+        } catch (IllegalArgumentException e) {
+            return false; // Corrupt stored hash, which no password matches
+        }
+        slowChecks.incrementAndGet();
+        if (matches) {
+            verified.put(stored, rememberedForm(password));
+        }
+        return matches;
+    }
+
+    private byte[] rememberedForm(String password) {
+        return cacheMac.get().doFinal(password.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
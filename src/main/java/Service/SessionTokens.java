@@ -0,0 +1,415 @@
+package Service;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * SessionTokens.java
+ *
+ * Issues and checks the session tokens POST /login hands out, so a request can prove which account it acts for
+ * without the account table being read. A token is self-contained and reads
+ *
+ *  keyId.accountId.expiry.signature
+ *
+ * where expiry is in epoch seconds and the signature is the unpadded base64url HMAC-SHA256 of everything before it,
+ * under the key with that ID. Nothing is stored per token, so tokens can not be revoked one by one; they expire, or
+ * all tokens of a key stop working when the key is retired.
+ *
+ * Keys rotate without logging anyone out: a new key becomes the one that signs, while the keys before it keep
+ * verifying the tokens they signed until they are retired. The starting keys come from socialmedia.auth.keys, a comma
+ * separated list of keyId:base64 secrets with the signing key first, so all instances of the server accept each
+ * other's tokens. Without it a random key is made, and tokens only last as long as this instance.
+ *
+ * With socialmedia.auth.keyRotationSeconds set, the first token issued after the signing key has signed for that
+ * long makes a new random key the signing key, and a key that no longer signs is retired once every token it signed
+ * has expired. Such keys are only known to this instance, so several instances sharing socialmedia.auth.keys leave
+ * it at its default of 0, and rotate by restarting with a new key listed first and the old one after it until one
+ * token lifetime has passed. rotate and retire do the same by hand.
+ *
+ * verify runs for every authenticated request, so it reads the token in place, computes the HMAC with a per-thread
+ * digest and scratch buffers, and compares in constant time: it neither allocates nor touches the database. The
+ * HMAC is therefore built from MessageDigest directly, since Mac.doFinal always returns a new array.
+ */
+public final class SessionTokens {
+
+    private static final int BLOCK_BYTES = 64;
+    private static final int MAC_BYTES = 32;
+    private static final int SIGNATURE_CHARS = 43; // 32 bytes in unpadded base64url
+    private static final char[] BASE64URL =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+    private final long ttlSeconds;
+    private final long rotationSeconds;
+    private final LongSupplier epochSeconds;
+    private volatile SigningKey[] keys; // The first one signs; replaced as a whole, never modified
+    private volatile long nextRotation; // Epoch second from which the next token issued rotates first
+    private final ReentrantLock rotationLock = new ReentrantLock();
+    private final SecureRandom random = new SecureRandom();
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    private final AtomicLong issued = new AtomicLong();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong rotations = new AtomicLong();
+
+    /**
+     * @param ttlSeconds how long a token is valid after it was issued
+     * @param keySpec keyId:base64 secrets, comma separated, signing key first; null or blank for a random key
+     * @throws IllegalArgumentException if the key spec can not be read
+     */
+    public SessionTokens(long ttlSeconds, String keySpec) {
+        this(ttlSeconds, keySpec, 0, () -> System.currentTimeMillis() / 1000);
+    }
+
+    /**
+     * @param ttlSeconds how long a token is valid after it was issued
+     * @param keySpec keyId:base64 secrets, comma separated, signing key first; null or blank for a random key
+     * @param rotationSeconds how long a key signs before it is replaced by a new random one; 0 never replaces it
+     * @param epochSeconds the time in seconds since the epoch, as System.currentTimeMillis() / 1000
+     * @throws IllegalArgumentException if the key spec can not be read
+     */
+    public SessionTokens(long ttlSeconds, String keySpec, long rotationSeconds, LongSupplier epochSeconds) {
+        this.ttlSeconds = ttlSeconds;
+        this.rotationSeconds = rotationSeconds;
+        this.epochSeconds = epochSeconds;
+        List<SigningKey> configured = new ArrayList<>();
+        if (keySpec == null || keySpec.isBlank()) {
+            configured.add(new SigningKey(1, randomSecret()));
+        } else {
+            for (String entry : keySpec.split(",")) {
+                int colon = entry.indexOf(':');
+                if (colon < 1) {
+                    throw new IllegalArgumentException("Session keys must read keyId:base64secret");
+                }
+                configured.add(new SigningKey(Integer.parseInt(entry.substring(0, colon).trim()),
+                        Base64.getDecoder().decode(entry.substring(colon + 1).trim())));
+            }
+        }
+        this.keys = configured.toArray(new SigningKey[0]);
+        this.nextRotation = rotationSeconds > 0 ? epochSeconds.getAsLong() + rotationSeconds : Long.MAX_VALUE;
+    }
+
+    /**
+     * @return tokens configured from socialmedia.auth.tokenTtlSeconds (default one hour), socialmedia.auth.keys and
+     *         socialmedia.auth.keyRotationSeconds (default 0, never)
+     */
+    public static SessionTokens fromSystemProperties() {
+        return new SessionTokens(Long.getLong("socialmedia.auth.tokenTtlSeconds", 3600L),
+                System.getProperty("socialmedia.auth.keys"),
+                Long.getLong("socialmedia.auth.keyRotationSeconds", 0L),
+                () -> System.currentTimeMillis() / 1000);
+    }
+
+    /**
+     * Issues a token for an account with the current signing key.
+     *
+     * @param accountId the account the token acts for
+     * @return the token
+     */
+    public String issue(int accountId) {
+        long now = epochSeconds.getAsLong();
+        if (now >= nextRotation) {
+            rotateOnSchedule(now);
+        }
+        SigningKey key = keys[0];
+        long expiry = now + ttlSeconds;
+        String signed = key.id + "." + accountId + "." + expiry;
+        Scratch buffers = scratch.get();
+        sign(key, signed, 0, signed.length(), buffers);
+        issued.incrementAndGet();
+        return signed + "." + new String(buffers.signature);
+    }
+
+    /**
+     * Checks a token, read in place from a larger string such as an Authorization header. Does not allocate.
+     *
+     * @param text the string holding the token
+     * @param offset where the token starts; it runs to the end of the string
+     * @return the account the token acts for, or -1 if it is malformed, expired, signed by an unknown key or forged
+     */
+    public int verify(CharSequence text, int offset) {
+        int end = text.length();
+        int signatureStart = end - SIGNATURE_CHARS;
+        // keyId . accountId . expiry . signature
+        int firstDot = indexOf(text, '.', offset, signatureStart);
+        int secondDot = firstDot < 0 ? -1 : indexOf(text, '.', firstDot + 1, signatureStart);
+        if (secondDot < 0 || signatureStart - 1 <= secondDot || text.charAt(signatureStart - 1) != '.') {
+            return reject();
+        }
+        long keyId = parseDigits(text, offset, firstDot, 9);
+        long accountId = parseDigits(text, firstDot + 1, secondDot, 9);
+        long expiry = parseDigits(text, secondDot + 1, signatureStart - 1, 12);
+        if (keyId < 0 || accountId < 0 || expiry < 0 || expiry <= epochSeconds.getAsLong()) {
+            return reject();
+        }
+        SigningKey key = null;
+        for (SigningKey candidate : keys) {
+            if (candidate.id == keyId) {
+                key = candidate;
+                break;
+            }
+        }
+        if (key == null) {
+            return reject();
+        }
+        Scratch buffers = scratch.get();
+        sign(key, text, offset, signatureStart - 1, buffers);
+        int difference = 0;
+        for (int i = 0; i < SIGNATURE_CHARS; i++) {
+            difference |= buffers.signature[i] ^ text.charAt(signatureStart + i);
+        }
+        if (difference != 0) {
+            return reject();
+        }
+        accepted.incrementAndGet();
+        return (int) accountId;
+    }
+
+    /**
+     * Makes a new key the signing key. Tokens signed by the earlier keys stay valid until those keys are retired.
+     *
+     * @param keyId the ID of the new key, which must not be in use
+     * @param secret the new key, at least 32 random bytes
+     * @throws IllegalArgumentException if the ID is in use
+     */
+    public void rotate(int keyId, byte[] secret) {
+        rotationLock.lock();
+        try {
+            SigningKey[] current = keys;
+            for (SigningKey key : current) {
+                if (key.id == keyId) {
+                    throw new IllegalArgumentException("Key " + keyId + " is already in use");
+                }
+            }
+            SigningKey[] rotated = new SigningKey[current.length + 1];
+            rotated[0] = new SigningKey(keyId, secret);
+            System.arraycopy(current, 0, rotated, 1, current.length);
+            keys = rotated;
+        } finally {
+            rotationLock.unlock();
+        }
+    }
+
+    /**
+     * Makes a new random key the signing key, and retires the keys whose tokens have all expired. The key that signed
+     * until now is kept for one token lifetime, the longest any token it signed stays valid.
+     */
+    private void rotateOnSchedule(long now) {
+        rotationLock.lock();
+        try {
+            if (now < nextRotation) {
+                return; // Another caller rotated meanwhile
+            }
+            SigningKey[] current = keys;
+            int keyId = 0;
+            for (SigningKey key : current) {
+                keyId = Math.max(keyId, key.id + 1);
+            }
+            List<SigningKey> rotated = new ArrayList<>(current.length + 1);
+            rotated.add(new SigningKey(keyId, randomSecret()));
+            rotated.add(current[0].retiringAt(now + ttlSeconds));
+            for (int i = 1; i < current.length; i++) {
+                if (current[i].retireAt > now) {
+                    rotated.add(current[i]);
+                }
+            }
+            keys = rotated.toArray(new SigningKey[0]);
+            nextRotation = now + rotationSeconds;
+            rotations.incrementAndGet();
+        } finally {
+            rotationLock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting the tokens signed by a key. The signing key can not be retired.
+     *
+     * @param keyId the ID of the key to retire
+     * @throws IllegalArgumentException if the key is the signing key
+     */
+    public void retire(int keyId) {
+        rotationLock.lock();
+        try {
+            SigningKey[] current = keys;
+            if (current[0].id == keyId) {
+                throw new IllegalArgumentException("Key " + keyId + " still signs; rotate to a new key first");
+            }
+            List<SigningKey> remaining = new ArrayList<>(current.length);
+            for (SigningKey key : current) {
+                if (key.id != keyId) {
+                    remaining.add(key);
+                }
+            }
+            keys = remaining.toArray(new SigningKey[0]);
+        } finally {
+            rotationLock.unlock();
+        }
+    }
+
+    /**
+     * Takes a point-in-time view of the tokens for the /metrics endpoint.
+     *
+     * @return the signing key's ID, the IDs still accepted, how many tokens were issued, accepted and rejected, and
+     *         how many scheduled rotations there were
+     */
+    public Map<String, Object> stats() {
+        SigningKey[] current = keys;
+        List<Integer> keyIds = new ArrayList<>(current.length);
+        for (SigningKey key : current) {
+            keyIds.add(key.id);
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("signingKey", current[0].id);
+        stats.put("keys", keyIds);
+        stats.put("issued", issued.get());
+        stats.put("accepted", accepted.get());
+        stats.put("rejected", rejected.get());
+        stats.put("rotations", rotations.get());
+        return stats;
+    }
+
+    private byte[] randomSecret() {
+        byte[] secret = new byte[MAC_BYTES];
+        random.nextBytes(secret);
+        return secret;
+    }
+
+    private int reject() {
+        rejected.incrementAndGet();
+        return -1;
+    }
+
+    /**
+     * Computes the HMAC of text[start, end) into buffers.mac and its base64url form into buffers.signature. The
+     * characters are fed to the digest one byte each, which is exact for the ASCII digits and dots tokens hold.
+     */
+    private static void sign(SigningKey key, CharSequence text, int start, int end, Scratch buffers) {
+        MessageDigest digest = buffers.digest;
+        try {
+            digest.update(key.innerPad);
+            for (int i = start; i < end; i++) {
+                digest.update((byte) text.charAt(i));
+            }
+            digest.digest(buffers.mac, 0, MAC_BYTES);
+            digest.update(key.outerPad);
+            digest.update(buffers.mac, 0, MAC_BYTES);
+            digest.digest(buffers.mac, 0, MAC_BYTES);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e); // Not thrown, the buffer is large enough
+        }
+        byte[] mac = buffers.mac;
+        char[] signature = buffers.signature;
+        int out = 0;
+        for (int i = 0; i < MAC_BYTES; i += 3) {
+            int bits = (mac[i] & 0xff) << 16;
+            if (i + 1 < MAC_BYTES) {
+                bits |= (mac[i + 1] & 0xff) << 8;
+            }
+            if (i + 2 < MAC_BYTES) {
+                bits |= mac[i + 2] & 0xff;
+            }
+            signature[out++] = BASE64URL[(bits >>> 18) & 0x3f];
+            signature[out++] = BASE64URL[(bits >>> 12) & 0x3f];
+            if (out < SIGNATURE_CHARS) {
+                signature[out++] = BASE64URL[(bits >>> 6) & 0x3f];
+            }
+            if (out < SIGNATURE_CHARS) {
+                signature[out++] = BASE64URL[bits & 0x3f];
+            }
+        }
+    }
+
+    private static int indexOf(CharSequence text, char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (text.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the number text[start, end) spells in decimal, or -1 if it is empty, too long or not all digits
+     */
+    private static long parseDigits(CharSequence text, int start, int end, int maxDigits) {
+        if (end <= start || end - start > maxDigits) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * A key with its HMAC pads worked out once, and the epoch second at which a scheduled rotation retires it.
+     */
+    private static final class SigningKey {
+        private final int id;
+        private final byte[] innerPad;
+        private final byte[] outerPad;
+        private final long retireAt;
+
+        private SigningKey(int id, byte[] secret) {
+            if (id < 0) {
+                throw new IllegalArgumentException("Key IDs must not be negative");
+            }
+            this.id = id;
+            this.innerPad = new byte[BLOCK_BYTES];
+            this.outerPad = new byte[BLOCK_BYTES];
+            this.retireAt = Long.MAX_VALUE;
+            byte[] block = secret.length > BLOCK_BYTES ? sha256().digest(secret) : secret;
+            for (int i = 0; i < BLOCK_BYTES; i++) {
+                byte b = i < block.length ? block[i] : 0;
+                innerPad[i] = (byte) (b ^ 0x36);
+                outerPad[i] = (byte) (b ^ 0x5c);
+            }
+        }
+
+        private SigningKey(SigningKey key, long retireAt) {
+            this.id = key.id;
+            this.innerPad = key.innerPad;
+            this.outerPad = key.outerPad;
+            this.retireAt = retireAt;
+        }
+
+        /**
+         * @return the same key, to be retired at the given epoch second
+         */
+        private SigningKey retiringAt(long retireAt) {
+            return new SigningKey(this, Math.min(this.retireAt, retireAt));
+        }
+    }
+
+    /**
+     * What one thread needs to sign or verify without allocating.
+     */
+    private static final class Scratch {
+        private final MessageDigest digest = sha256();
+        private final byte[] mac = new byte[MAC_BYTES];
+        private final char[] signature = new char[SIGNATURE_CHARS];
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
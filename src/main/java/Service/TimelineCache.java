@@ -0,0 +1,338 @@
+package Service;
+
+import Model.Message;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * TimelineCache.java
+ *
+ * Keeps the most recent messages of recently viewed accounts in memory, so GET /accounts/{account_id}/messages
+ * mostly does not need to query the database. Each cached account has a timeline: a ring of at most depth messages
+ * in ascending ID order, together with a floor ID such that the ring holds every message of that account with an
+ * ID at or above the floor. An account whose messages all fit has a floor of 0 and is answered from memory alone;
+ * for the others only the messages below the floor have to be read from the database.
+ *
+ * Timelines are kept up to date by MessageService on every create, update and delete, and the accounts whose
+ * timelines were used longest ago are evicted when the estimated size of all timelines exceeds maxBytes.
+ *
+ * A timeline is filled from a database read that runs without the lock, so a write landing in between could be
+ * missing from what was read. Every write therefore bumps a generation counter for its account (striped over a
+ * fixed array), and a fill is only installed if the generation is still the one seen before the read started.
+ *
+ * All access goes through one ReentrantLock; the work done under it is bounded by depth.
+ */
+public class TimelineCache {
+
+    private static final int GENERATION_STRIPES = 1024;
+
+    private final int depth;
+    private final long maxBytes;
+    private final LinkedHashMap<Integer, Timeline> timelines = new LinkedHashMap<>(16, 0.75f, true);
+    private final long[] generations = new long[GENERATION_STRIPES];
+    private final ReentrantLock lock = new ReentrantLock();
+    private long bytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong partialHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong staleFills = new AtomicLong();
+
+    /**
+     * @param depth the most messages kept per account; 0 disables the cache
+     * @param maxBytes the largest estimated size of all timelines together
+     */
+    public TimelineCache(int depth, long maxBytes) {
+        this.depth = depth;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the most messages kept per account
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Looks up the cached timeline of an account.
+     *
+     * @param accountId the account whose messages are wanted
+     * @return a snapshot of the timeline, or null if the account is not cached
+     */
+    public Snapshot get(int accountId) {
+        lock.lock();
+        try {
+            Timeline timeline = timelines.get(accountId);
+            if (timeline == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            if (timeline.floorId == 0) {
+                hits.incrementAndGet();
+            } else {
+                partialHits.incrementAndGet();
+            }
+            return new Snapshot(timeline.floorId, timeline.messages.toArray(new Message[0]));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads the write generation of an account. Take it before reading the messages that will be passed to fill.
+     *
+     * @param accountId the account about to be read
+     * @return the current generation
+     */
+    public long generation(int accountId) {
+        lock.lock();
+        try {
+            return generations[stripe(accountId)];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Installs a timeline read from the database, unless the account was written to since the generation was taken.
+     *
+     * @param accountId the account that was read
+     * @param generation the generation taken before the read
+     * @param floorId the ID from which on the messages are complete, 0 if they are all of the account's messages
+     * @param recent the account's messages with ID at or above floorId, in ascending ID order, at most depth of them
+     */
+    public void fill(int accountId, long generation, int floorId, Iterable<Message> recent) {
+        lock.lock();
+        try {
+            if (generations[stripe(accountId)] != generation) {
+                staleFills.incrementAndGet();
+                return;
+            }
+            Timeline timeline = new Timeline(floorId);
+            for (Message message : recent) {
+                timeline.messages.addLast(copyOf(message));
+                timeline.bytes += estimateSize(message);
+            }
+            Timeline replaced = timelines.put(accountId, timeline);
+            if (replaced != null) {
+                bytes -= replaced.bytes;
+            }
+            bytes += timeline.bytes;
+            evictColdAccounts();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds a newly created message to its account's timeline, if the account is cached.
+     *
+     * @param message the created message, with its ID set
+     */
+    public void onCreate(Message message) {
+        lock.lock();
+        try {
+            Timeline timeline = written(message.getPosted_by());
+            if (timeline == null || message.getMessage_id() < timeline.floorId) {
+                return; // Below the floor it is read from the database anyway
+            }
+            Message copy = copyOf(message);
+            Message newest = timeline.messages.peekLast();
+            if (newest == null || newest.getMessage_id() < copy.getMessage_id()) {
+                timeline.messages.addLast(copy);
+            } else {
+                // IDs grow, but concurrent inserts may reach the cache slightly out of order.
+                ArrayDeque<Message> ordered = new ArrayDeque<>(timeline.messages.size() + 1);
+                for (Message existing : timeline.messages) {
+                    if (copy != null && existing.getMessage_id() > copy.getMessage_id()) {
+                        ordered.addLast(copy);
+                        copy = null;
+                    }
+                    ordered.addLast(existing);
+                }
+                timeline.messages = ordered;
+            }
+            timeline.bytes += estimateSize(message);
+            bytes += estimateSize(message);
+            while (timeline.messages.size() > depth) {
+                Message oldest = timeline.messages.removeFirst();
+                timeline.floorId = oldest.getMessage_id() + 1;
+                timeline.bytes -= estimateSize(oldest);
+                bytes -= estimateSize(oldest);
+            }
+            evictColdAccounts();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replaces an updated message in its account's timeline, if it is there.
+     *
+     * @param message the message as it is after the update
+     */
+    public void onUpdate(Message message) {
+        lock.lock();
+        try {
+            Timeline timeline = written(message.getPosted_by());
+            if (timeline == null) {
+                return;
+            }
+            ArrayDeque<Message> replaced = new ArrayDeque<>(timeline.messages.size());
+            for (Message existing : timeline.messages) {
+                if (existing.getMessage_id() == message.getMessage_id()) {
+                    Message copy = copyOf(message);
+                    long delta = estimateSize(copy) - estimateSize(existing);
+                    timeline.bytes += delta;
+                    bytes += delta;
+                    replaced.addLast(copy);
+                } else {
+                    replaced.addLast(existing);
+                }
+            }
+            timeline.messages = replaced;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes a deleted message from its account's timeline, if it is there.
+     *
+     * @param message the deleted message
+     */
+    public void onDelete(Message message) {
+        lock.lock();
+        try {
+            Timeline timeline = written(message.getPosted_by());
+            if (timeline == null) {
+                return;
+            }
+            ArrayDeque<Message> remaining = new ArrayDeque<>(timeline.messages.size());
+            for (Message existing : timeline.messages) {
+                if (existing.getMessage_id() == message.getMessage_id()) {
+                    timeline.bytes -= estimateSize(existing);
+                    bytes -= estimateSize(existing);
+                } else {
+                    remaining.addLast(existing);
+                }
+            }
+            timeline.messages = remaining;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes a point-in-time view of the cache counters for the /metrics endpoint.
+     *
+     * @return hits (answered from memory), partial hits (older messages read from the database), misses, evictions,
+     *         stale fills, and the number of accounts, messages and estimated bytes held
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("depth", depth);
+        stats.put("hits", hits.get());
+        stats.put("partialHits", partialHits.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+        stats.put("staleFills", staleFills.get());
+        lock.lock();
+        try {
+            int messages = 0;
+            for (Timeline timeline : timelines.values()) {
+                messages += timeline.messages.size();
+            }
+            stats.put("accounts", timelines.size());
+            stats.put("messages", messages);
+            stats.put("bytes", bytes);
+        } finally {
+            lock.unlock();
+        }
+        stats.put("maxBytes", maxBytes);
+        return stats;
+    }
+
+    /**
+     * Estimates how much memory a cached message takes: object headers and fields plus two bytes per character.
+     *
+     * @param message the message
+     * @return the estimated size in bytes
+     */
+    static long estimateSize(Message message) {
+        String text = message.getMessage_text();
+        return 128 + 2L * (text == null ? 0 : text.length());
+    }
+
+    /**
+     * Records a write to an account, so fills that read it before the write are dropped, and returns its timeline.
+     */
+    private Timeline written(int accountId) {
+        generations[stripe(accountId)]++;
+        return timelines.get(accountId);
+    }
+
+    private void evictColdAccounts() {
+        Iterator<Timeline> coldestFirst = timelines.values().iterator();
+        while (bytes > maxBytes && coldestFirst.hasNext()) {
+            bytes -= coldestFirst.next().bytes;
+            coldestFirst.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private static int stripe(int accountId) {
+        return (accountId ^ (accountId >>> 16)) & (GENERATION_STRIPES - 1);
+    }
+
+    private static Message copyOf(Message message) {
+        return new Message(message.getMessage_id(), message.getPosted_by(), message.getMessage_text(), message.getTime_posted_epoch());
+    }
+
+    /**
+     * A cached account: its most recent messages and the ID from which on they are complete.
+     */
+    private static final class Timeline {
+        private ArrayDeque<Message> messages = new ArrayDeque<>();
+        private int floorId;
+        private long bytes;
+
+        private Timeline(int floorId) {
+            this.floorId = floorId;
+        }
+    }
+
+    /**
+     * What a reader gets from the cache: messages it must not modify, and the ID below which it has to go to the
+     * database for older ones (0 if there are none).
+     */
+    public static final class Snapshot {
+        private final int floorId;
+        private final Message[] messages;
+
+        private Snapshot(int floorId, Message[] messages) {
+            this.floorId = floorId;
+            this.messages = messages;
+        }
+
+        /**
+         * @return the lowest message ID the snapshot is complete from, 0 if it holds all of the account's messages
+         */
+        public int getFloorId() {
+            return floorId;
+        }
+
+        /**
+         * @return the cached messages in ascending ID order
+         */
+        public Message[] getMessages() {
+            return messages;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package Service;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * VersionCounters.java
+ *
+ * Version numbers for single messages and for accounts' message lists, from which the GET handlers build ETags.
+ * MessageService bumps the version of a message and of its poster's list after every create, update and delete, so
+ * an unchanged version means an unchanged response and a conditional GET can be answered with 304 from memory.
+ *
+ * The counters are striped: IDs are hashed onto a fixed array, so memory does not grow with the number of messages.
+ * Two IDs sharing a stripe only means a write to one also changes the other's ETag, costing an extra full response,
+ * never a wrong 304. Counters start from zero with every instance, so each ETag also carries a random boot ID that
+ * keeps ETags from an earlier run from matching.
+ *
+ * Versions only see writes made through MessageService; a change made directly in the database is not noticed.
+ *
+ * A separate cache generation per message guards the message cache the way TimelineCache's generations guard
+ * timelines. A write advances it after committing and before it updates the cache, ahead of the ETag version, which
+ * must only move once the cache holds the new content; a read-through fill is taken back if the generation moved
+ * while it was reading.
+ */
+public class VersionCounters {
+
+    private static final int STRIPES = 4096;
+
+    private final String bootId = Long.toHexString(ThreadLocalRandom.current().nextLong());
+    private final AtomicLongArray messageVersions = new AtomicLongArray(STRIPES);
+    private final AtomicLongArray accountVersions = new AtomicLongArray(STRIPES);
+    private final AtomicLongArray messageCacheGenerations = new AtomicLongArray(STRIPES);
+
+    /**
+     * Marks a message as changed. Call after the change is committed and visible to readers.
+     *
+     * @param messageId the message that was created, updated or deleted
+     */
+    public void messageChanged(int messageId) {
+        messageVersions.incrementAndGet(stripe(messageId));
+    }
+
+    /**
+     * Marks an account's message list as changed. Call after the change is committed and visible to readers.
+     *
+     * @param accountId the account whose messages changed
+     */
+    public void accountChanged(int accountId) {
+        accountVersions.incrementAndGet(stripe(accountId));
+    }
+
+    /**
+     * Marks a message as about to change in the message cache. Call after the write is committed and before the
+     * cache entry is replaced or invalidated.
+     *
+     * @param messageId the message that was updated or deleted
+     */
+    public void advanceMessageCacheGeneration(int messageId) {
+        messageCacheGenerations.incrementAndGet(stripe(messageId));
+    }
+
+    /**
+     * Reads the cache generation of a message. Take it before reading the message that will be cached.
+     *
+     * @param messageId the message
+     * @return the current generation
+     */
+    public long messageCacheGeneration(int messageId) {
+        return messageCacheGenerations.get(stripe(messageId));
+    }
+
+    /**
+     * Builds the ETag of a message. Take it before reading the message, so the tag is never newer than the body.
+     * The tag is weak because response compression may change the bytes of an unchanged message.
+     *
+     * @param messageId the message
+     * @return a weak ETag, including its quotes
+     */
+    public String messageETag(int messageId) {
+        return "W/\"" + bootId + "-m" + messageId + "-" + messageVersions.get(stripe(messageId)) + "\"";
+    }
+
+    /**
+     * Builds the ETag of an account's message list. Take it before reading the list, as with messageETag.
+     *
+     * @param accountId the account
+     * @return a weak ETag, including its quotes
+     */
+    public String accountETag(int accountId) {
+        return "W/\"" + bootId + "-a" + accountId + "-" + accountVersions.get(stripe(accountId)) + "\"";
+    }
+
+    private static int stripe(int id) {
+        return (id ^ (id >>> 16)) & (STRIPES - 1);
+    }
+}
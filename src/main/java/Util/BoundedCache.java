@@ -0,0 +1,325 @@
+package Util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToLongBiFunction;
+
+/**
+ * BoundedCache.java
+ *
+ * An in-process cache bounded by total weight rather than entry count, so a few large values can not crowd out the
+ * heap. Entries expire after a fixed time-to-live and are evicted in least-recently-used order when the cache is
+ * full. With the TINY_LFU policy a frequency sketch additionally guards admission: a new entry only displaces the
+ * LRU victim if it has been asked for at least as often, which keeps one-off lookups from flushing hot entries.
+ *
+ * All access goes through one ReentrantLock (not synchronized), so virtual threads never pin their carrier here.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class BoundedCache<K, V> {
+
+    /**
+     * How the cache decides what to keep when it is full.
+     */
+    public enum Policy {
+        /** Evict the least recently used entry. */
+        LRU,
+        /** LRU eviction, but only admit a new entry if it is at least as popular as the entry it would evict. */
+        TINY_LFU
+    }
+
+    private final Policy policy;
+    private final long maxWeight;
+    private final long ttlNanos;
+    private final ToLongBiFunction<K, V> weigher;
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final FrequencySketch sketch;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private long weight;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+
+    /**
+     * @param policy the eviction policy
+     * @param maxWeight the largest total weight the cache holds; 0 disables caching
+     * @param ttlMillis how long an entry stays valid after it was written; 0 means no expiry
+     * @param weigher computes the weight of an entry, usually its approximate size in bytes
+     */
+    public BoundedCache(Policy policy, long maxWeight, long ttlMillis, ToLongBiFunction<K, V> weigher) {
+        this.policy = policy;
+        this.maxWeight = maxWeight;
+        this.ttlNanos = ttlMillis <= 0 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.weigher = weigher;
+        // Size the sketch for roughly one counter per 128 units of weight, within sane bounds.
+        this.sketch = policy == Policy.TINY_LFU
+                ? new FrequencySketch((int) Math.min(1 << 20, Math.max(1024, maxWeight / 128))) : null;
+    }
+
+    /**
+     * Looks up a value.
+     *
+     * @param key the key to look up
+     * @return the cached value, or null if it is absent or expired
+     */
+    public V get(K key) {
+        lock.lock();
+        try {
+            if (sketch != null) {
+                sketch.increment(key);
+            }
+            Entry<V> entry = entries.get(key);
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            if (System.nanoTime() - entry.writtenAt > ttlNanos) {
+                remove(key, entry);
+                expirations.incrementAndGet();
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return entry.value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stores a value, replacing any previous value for the key. Used on writes, so the cache always reflects the
+     * latest value written through it.
+     *
+     * @param key the key
+     * @param value the value
+     */
+    public void put(K key, V value) {
+        store(key, value, true);
+    }
+
+    /**
+     * Stores a value only if the key is not cached yet. Used when filling the cache after a read, so a slow read
+     * can not overwrite a newer value that a concurrent write has just put in.
+     *
+     * @param key the key
+     * @param value the value
+     */
+    public void putIfAbsent(K key, V value) {
+        store(key, value, false);
+    }
+
+    /**
+     * Removes a key from the cache.
+     *
+     * @param key the key to remove
+     */
+    public void invalidate(K key) {
+        lock.lock();
+        try {
+            Entry<V> entry = entries.get(key);
+            if (entry != null) {
+                remove(key, entry);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes a key from the cache only if it still holds the given value, compared by identity. Used to take back
+     * a fill that raced with a write, without removing a value the write stored meanwhile.
+     *
+     * @param key the key to remove
+     * @param value the value expected to be cached
+     */
+    public void invalidate(K key, V value) {
+        lock.lock();
+        try {
+            Entry<V> entry = entries.get(key);
+            if (entry != null && entry.value == value) {
+                remove(key, entry);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes every entry.
+     */
+    public void clear() {
+        lock.lock();
+        try {
+            entries.clear();
+            weight = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of cached entries
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes a point-in-time view of the cache counters for the /metrics endpoint.
+     *
+     * @return hits, misses, evictions, expirations, rejected admissions, size and weight
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long hitCount = hits.get();
+        long missCount = misses.get();
+        stats.put("policy", policy.name());
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("hitRatio", hitCount + missCount == 0 ? 0.0 : (double) hitCount / (hitCount + missCount));
+        stats.put("evictions", evictions.get());
+        stats.put("expirations", expirations.get());
+        stats.put("rejectedAdmissions", rejections.get());
+        lock.lock();
+        try {
+            stats.put("size", entries.size());
+            stats.put("weight", weight);
+        } finally {
+            lock.unlock();
+        }
+        stats.put("maxWeight", maxWeight);
+        return stats;
+    }
+
+    private void store(K key, V value, boolean replace) {
+        long entryWeight = weigher.applyAsLong(key, value);
+        if (entryWeight > maxWeight) {
+            return;
+        }
+        lock.lock();
+        try {
+            Entry<V> existing = entries.get(key);
+            if (existing != null) {
+                if (!replace && System.nanoTime() - existing.writtenAt <= ttlNanos) {
+                    return;
+                }
+                remove(key, existing);
+            }
+            if (!makeRoom(key, entryWeight)) {
+                rejections.incrementAndGet();
+                return;
+            }
+            entries.put(key, new Entry<>(value, entryWeight, System.nanoTime()));
+            weight += entryWeight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean makeRoom(K candidate, long needed) {
+        Iterator<Map.Entry<K, Entry<V>>> eldestFirst = entries.entrySet().iterator();
+        while (weight + needed > maxWeight && eldestFirst.hasNext()) {
+            Map.Entry<K, Entry<V>> victim = eldestFirst.next();
+            boolean expired = System.nanoTime() - victim.getValue().writtenAt > ttlNanos;
+            if (!expired && sketch != null && sketch.frequency(candidate) < sketch.frequency(victim.getKey())) {
+                return false;
+            }
+            eldestFirst.remove();
+            weight -= victim.getValue().weight;
+            if (expired) {
+                expirations.incrementAndGet();
+            } else {
+                evictions.incrementAndGet();
+            }
+        }
+        return weight + needed <= maxWeight;
+    }
+
+    private void remove(K key, Entry<V> entry) {
+        entries.remove(key);
+        weight -= entry.weight;
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long weight;
+        private final long writtenAt;
+
+        private Entry(V value, long weight, long writtenAt) {
+            this.value = value;
+            this.weight = weight;
+            this.writtenAt = writtenAt;
+        }
+    }
+
+    /**
+     * A count-min sketch of 4-bit counters estimating how often each key was requested. Counters are halved after
+     * a sample period so the estimate follows changes in popularity.
+     */
+    private static final class FrequencySketch {
+        private static final int DEPTH = 4;
+        private static final int[] SEEDS = { 0x97cb3127, 0xb3f5d6a1, 0x6c8e9cf5, 0x5a1b4c3d };
+
+        private final byte[] counters;
+        private final int mask;
+        private final int samplePeriod;
+        private int additions;
+
+        private FrequencySketch(int width) {
+            int size = Integer.highestOneBit(Math.max(16, width - 1) << 1);
+            counters = new byte[size * DEPTH];
+            mask = size - 1;
+            samplePeriod = size * 10;
+        }
+
+        private void increment(Object key) {
+            int hash = spread(key.hashCode());
+            for (int row = 0; row < DEPTH; row++) {
+                int index = indexOf(hash, row);
+                if (counters[index] < 15) {
+                    counters[index]++;
+                }
+            }
+            if (++additions >= samplePeriod) {
+                for (int i = 0; i < counters.length; i++) {
+                    counters[i] >>= 1;
+                }
+                additions /= 2;
+            }
+        }
+
+        private int frequency(Object key) {
+            int hash = spread(key.hashCode());
+            int min = 15;
+            for (int row = 0; row < DEPTH; row++) {
+                min = Math.min(min, counters[indexOf(hash, row)]);
+            }
+            return min;
+        }
+
+        private int indexOf(int hash, int row) {
+            int h = (hash ^ SEEDS[row]) * 0x9e3779b9;
+            return row * (mask + 1) + ((h ^ (h >>> 16)) & mask);
+        }
+
+        private static int spread(int hash) {
+            hash ^= hash >>> 17;
+            hash *= 0xed5ad4bb;
+            hash ^= hash >>> 11;
+            return hash;
+        }
+    }
+}
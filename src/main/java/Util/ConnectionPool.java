@@ -0,0 +1,558 @@
+package Util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.SQLTimeoutException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ConnectionPool.java
+ *
+ * A bounded JDBC connection pool. Physical connections are opened through the wrapped DataSource and handed out as
+ * proxies whose close() returns the connection to the pool instead of closing it, so DAO code keeps using
+ * try-with-resources unchanged.
+ *
+ * The pool keeps at least minSize and at most maxSize physical connections. Callers wait up to acquireTimeoutMillis
+ * for a free connection before getting an SQLTimeoutException. A background housekeeper closes connections that
+ * have been idle longer than idleTimeoutMillis (down to minSize) and reports connections that have been held longer
+ * than leakThresholdMillis, together with the current stack of the thread holding them.
+ *
+ * Each physical connection also keeps an LRU cache of up to statementCacheSize prepared statements keyed by SQL text,
+ * so DAO code that calls prepareStatement for the same SQL on every request gets back an already parsed and planned
+ * statement. Closing a cached statement clears its parameters and puts it back in the cache instead of closing it.
+ * Only prepareStatement(sql) and prepareStatement(sql, autoGeneratedKeys) are cached; other overloads pass through.
+ *
+ * Waiting is done with java.util.concurrent primitives only (no synchronized blocks), so a virtual thread waiting
+ * for a connection does not pin its carrier thread.
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionPool.class);
+
+    private final DataSource dataSource;
+    private final int minSize;
+    private final int maxSize;
+    private final long acquireTimeoutMillis;
+    private final long idleTimeoutNanos;
+    private final long leakThresholdNanos;
+    private final int statementCacheSize;
+
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicInteger waiters = new AtomicInteger();
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong leaks = new AtomicLong();
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+    private final AtomicLong statementEvictions = new AtomicLong();
+    private final Histogram acquireLatencyMicros = new Histogram();
+    private final ScheduledExecutorService housekeeper;
+
+    private volatile boolean closed;
+
+    /**
+     * Creates the pool without a prepared-statement cache, opens minSize connections and starts the housekeeping
+     * thread.
+     *
+     * @param dataSource the source of physical connections
+     * @param minSize the number of connections kept open even when idle
+     * @param maxSize the maximum number of connections open at once
+     * @param acquireTimeoutMillis how long getConnection() waits for a free connection
+     * @param idleTimeoutMillis how long a connection above minSize may sit idle before it is closed
+     * @param leakThresholdMillis how long a connection may be held before it is reported as leaked, 0 to disable
+     * @param housekeepingIntervalMillis how often idle eviction and leak detection run
+     */
+    public ConnectionPool(DataSource dataSource, int minSize, int maxSize, long acquireTimeoutMillis,
+                          long idleTimeoutMillis, long leakThresholdMillis, long housekeepingIntervalMillis) {
+        this(dataSource, minSize, maxSize, acquireTimeoutMillis, idleTimeoutMillis, leakThresholdMillis,
+                housekeepingIntervalMillis, 0);
+    }
+
+    /**
+     * Creates the pool, opens minSize connections and starts the housekeeping thread.
+     *
+     * @param dataSource the source of physical connections
+     * @param minSize the number of connections kept open even when idle
+     * @param maxSize the maximum number of connections open at once
+     * @param acquireTimeoutMillis how long getConnection() waits for a free connection
+     * @param idleTimeoutMillis how long a connection above minSize may sit idle before it is closed
+     * @param leakThresholdMillis how long a connection may be held before it is reported as leaked, 0 to disable
+     * @param housekeepingIntervalMillis how often idle eviction and leak detection run
+     * @param statementCacheSize how many prepared statements each connection keeps for reuse, 0 to disable
+     */
+    public ConnectionPool(DataSource dataSource, int minSize, int maxSize, long acquireTimeoutMillis,
+                          long idleTimeoutMillis, long leakThresholdMillis, long housekeepingIntervalMillis,
+                          int statementCacheSize) {
+        if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+            throw new IllegalArgumentException("Pool sizes must satisfy 0 <= minSize <= maxSize and maxSize >= 1");
+        }
+        this.dataSource = dataSource;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.leakThresholdNanos = TimeUnit.MILLISECONDS.toNanos(leakThresholdMillis);
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+
+        fillToMinimum();
+
+        housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "connection-pool-housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        housekeeper.scheduleWithFixedDelay(this::housekeep, housekeepingIntervalMillis, housekeepingIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows a connection from the pool, opening a new one if none is idle and the pool is below maxSize.
+     * Closing the returned connection gives it back to the pool.
+     *
+     * @return a pooled connection
+     * @throws SQLTimeoutException if no connection became available within the acquire timeout
+     * @throws SQLException if the pool is closed or a new connection could not be opened
+     */
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        long start = System.nanoTime();
+        boolean permitted;
+        waiters.incrementAndGet();
+        try {
+            permitted = permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        } finally {
+            waiters.decrementAndGet();
+        }
+        if (!permitted) {
+            timeouts.incrementAndGet();
+            throw new SQLTimeoutException("Timed out after " + acquireTimeoutMillis
+                    + " ms waiting for a connection (pool size " + maxSize + ")");
+        }
+
+        try {
+            PooledConnection pooled = takeOrOpen();
+            pooled.borrowedAt = System.nanoTime();
+            pooled.borrower = Thread.currentThread();
+            pooled.leakReported = false;
+            borrowed.add(pooled);
+            acquired.incrementAndGet();
+            acquireLatencyMicros.record((System.nanoTime() - start) / 1000);
+            return pooled.lease();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the number of connections currently borrowed
+     */
+    public int getActiveCount() {
+        return borrowed.size();
+    }
+
+    /**
+     * @return the number of open connections waiting in the pool
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * @return the number of threads currently waiting for a connection
+     */
+    public int getWaiterCount() {
+        return waiters.get();
+    }
+
+    /**
+     * @return the number of open physical connections, borrowed or idle
+     */
+    public int getTotalCount() {
+        return total.get();
+    }
+
+    /**
+     * @return the number of connections reported as leaked so far
+     */
+    public long getLeakCount() {
+        return leaks.get();
+    }
+
+    /**
+     * Takes a point-in-time view of the pool counters for the /metrics endpoint.
+     *
+     * @return the pool statistics, including the acquire-latency histogram in microseconds and the prepared-statement
+     *         cache counters
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("minSize", minSize);
+        stats.put("maxSize", maxSize);
+        stats.put("total", total.get());
+        stats.put("active", borrowed.size());
+        stats.put("idle", idle.size());
+        stats.put("waiters", waiters.get());
+        stats.put("acquired", acquired.get());
+        stats.put("timeouts", timeouts.get());
+        stats.put("created", created.get());
+        stats.put("evicted", evicted.get());
+        stats.put("leaks", leaks.get());
+        stats.put("acquireLatencyMicros", acquireLatencyMicros.snapshot());
+        Map<String, Object> statementCache = new LinkedHashMap<>();
+        long hits = statementHits.get();
+        long misses = statementMisses.get();
+        statementCache.put("sizePerConnection", statementCacheSize);
+        statementCache.put("hits", hits);
+        statementCache.put("misses", misses);
+        statementCache.put("hitRatio", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+        statementCache.put("evictions", statementEvictions.get());
+        stats.put("statementCache", statementCache);
+        return stats;
+    }
+
+    /**
+     * Closes every idle connection and stops housekeeping. Borrowed connections are closed as they are returned.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            destroy(pooled);
+        }
+    }
+
+    private PooledConnection takeOrOpen() throws SQLException {
+        while (true) {
+            PooledConnection pooled = idle.pollFirst();
+            if (pooled != null) {
+                if (!pooled.physical.isClosed()) {
+                    return pooled;
+                }
+                destroy(pooled);
+                continue;
+            }
+            // Reserve a slot before opening so idle + borrowed never exceeds maxSize. If the reservation fails
+            // a connection is on its way back to the idle deque, so go round again.
+            if (total.incrementAndGet() <= maxSize) {
+                try {
+                    return open();
+                } catch (SQLException | RuntimeException e) {
+                    total.decrementAndGet();
+                    throw e;
+                }
+            }
+            total.decrementAndGet();
+            Thread.onSpinWait();
+        }
+    }
+
+    private PooledConnection open() throws SQLException {
+        PooledConnection pooled = new PooledConnection(dataSource.getConnection());
+        created.incrementAndGet();
+        return pooled;
+    }
+
+    private void release(PooledConnection pooled) {
+        borrowed.remove(pooled);
+        pooled.borrower = null;
+        try {
+            if (closed || pooled.physical.isClosed()) {
+                destroy(pooled);
+                return;
+            }
+            if (!pooled.physical.getAutoCommit()) {
+                pooled.physical.rollback();
+                pooled.physical.setAutoCommit(true);
+            }
+            pooled.lastReleased = System.nanoTime();
+            idle.offerFirst(pooled);
+        } catch (SQLException e) {
+            destroy(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void destroy(PooledConnection pooled) {
+        total.decrementAndGet();
+        try {
+            pooled.physical.close();
+        } catch (SQLException e) {
+            LOGGER.debug("Error closing pooled connection", e);
+        }
+    }
+
+    private void fillToMinimum() {
+        while (total.get() < minSize) {
+            if (total.incrementAndGet() > minSize) {
+                total.decrementAndGet();
+                return;
+            }
+            try {
+                PooledConnection pooled = open();
+                pooled.lastReleased = System.nanoTime();
+                idle.offerLast(pooled);
+            } catch (SQLException e) {
+                total.decrementAndGet();
+                LOGGER.warn("Could not open connection to reach minimum pool size", e);
+                return;
+            }
+        }
+    }
+
+    private void housekeep() {
+        long now = System.nanoTime();
+
+        // Idle connections are pushed at the head, so the tail holds the ones unused the longest.
+        Iterator<PooledConnection> oldestFirst = idle.descendingIterator();
+        while (oldestFirst.hasNext() && total.get() > minSize) {
+            PooledConnection pooled = oldestFirst.next();
+            if (now - pooled.lastReleased > idleTimeoutNanos && idle.remove(pooled)) {
+                evicted.incrementAndGet();
+                destroy(pooled);
+            }
+        }
+        fillToMinimum();
+
+        if (leakThresholdNanos > 0) {
+            for (PooledConnection pooled : borrowed) {
+                Thread borrower = pooled.borrower;
+                if (!pooled.leakReported && borrower != null && now - pooled.borrowedAt > leakThresholdNanos) {
+                    pooled.leakReported = true;
+                    leaks.incrementAndGet();
+                    Throwable holder = new Throwable("Stack of " + borrower.getName() + " while holding the connection");
+                    holder.setStackTrace(borrower.getStackTrace());
+                    LOGGER.warn("Connection held for {} ms by thread {}, possible leak",
+                            TimeUnit.NANOSECONDS.toMillis(now - pooled.borrowedAt), borrower.getName(), holder);
+                }
+            }
+        }
+    }
+
+    /**
+     * A physical connection together with the bookkeeping the pool needs for it.
+     */
+    private final class PooledConnection {
+        private final Connection physical;
+        private volatile long borrowedAt;
+        private volatile long lastReleased;
+        private volatile Thread borrower;
+        private volatile boolean leakReported;
+        // Only touched by the current borrower; handing the connection over through the idle deque publishes it.
+        private final LinkedHashMap<StatementKey, PreparedStatement> statements = new LinkedHashMap<>(16, 0.75f, true);
+
+        private PooledConnection(Connection physical) {
+            this.physical = physical;
+        }
+
+        private Connection lease() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[] { Connection.class }, new Lease(this));
+        }
+
+        private PreparedStatement prepareCached(Lease lease, Connection handle, String sql, int autoGeneratedKeys)
+                throws SQLException {
+            StatementKey key = new StatementKey(sql, autoGeneratedKeys);
+            PreparedStatement statement = statements.remove(key); // Checked out while in use
+            if (statement != null && !statement.isClosed()) {
+                statementHits.incrementAndGet();
+            } else {
+                statementMisses.incrementAndGet();
+                statement = physical.prepareStatement(sql, autoGeneratedKeys);
+            }
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[] { PreparedStatement.class }, new CachedStatement(lease, handle, key, statement));
+        }
+
+        private void checkIn(StatementKey key, PreparedStatement statement) {
+            try {
+                statement.clearParameters();
+                statement.clearBatch();
+            } catch (SQLException e) {
+                closeQuietly(statement);
+                return;
+            }
+            PreparedStatement duplicate = statements.put(key, statement);
+            if (duplicate != null) {
+                closeQuietly(duplicate); // The same SQL was prepared twice while the first was still in use
+            }
+            if (statements.size() > statementCacheSize) {
+                Iterator<PreparedStatement> eldestFirst = statements.values().iterator();
+                PreparedStatement eldest = eldestFirst.next();
+                eldestFirst.remove();
+                statementEvictions.incrementAndGet();
+                closeQuietly(eldest);
+            }
+        }
+    }
+
+    private static void closeQuietly(Statement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            LOGGER.debug("Error closing cached statement", e);
+        }
+    }
+
+    /**
+     * Identifies a cached statement: the same SQL prepared with and without generated keys are different statements.
+     */
+    private static final class StatementKey {
+        private final String sql;
+        private final int autoGeneratedKeys;
+
+        private StatementKey(String sql, int autoGeneratedKeys) {
+            this.sql = sql;
+            this.autoGeneratedKeys = autoGeneratedKeys;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof StatementKey && ((StatementKey) other).autoGeneratedKeys == autoGeneratedKeys
+                    && ((StatementKey) other).sql.equals(sql);
+        }
+
+        @Override
+        public int hashCode() {
+            return sql.hashCode() * 31 + autoGeneratedKeys;
+        }
+    }
+
+    /**
+     * The handle given to a single borrower. Once closed it refuses further use, so a stale reference can never
+     * touch a connection that has since been handed to someone else.
+     */
+    private final class Lease implements InvocationHandler {
+        private final PooledConnection pooled;
+        private final AtomicBoolean returned = new AtomicBoolean();
+
+        private Lease(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (returned.compareAndSet(false, true)) {
+                        release(pooled);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned.get() || pooled.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + pooled.physical;
+                case "prepareStatement":
+                    if (statementCacheSize > 0 && !returned.get()
+                            && (args.length == 1 || (args.length == 2 && args[1] instanceof Integer))) {
+                        return pooled.prepareCached(this, (Connection) proxy, (String) args[0],
+                                args.length == 1 ? Statement.NO_GENERATED_KEYS : (Integer) args[1]);
+                    }
+                    // Not cacheable: fall through to the physical connection
+                default:
+                    if (returned.get()) {
+                        throw new SQLException("Connection has already been returned to the pool");
+                    }
+                    try {
+                        return method.invoke(pooled.physical, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+            }
+        }
+    }
+
+    /**
+     * The handle for one use of a cached statement. Closing it hands the statement back to its connection's cache,
+     * unless the connection has been returned to the pool in the meantime, in which case it is really closed.
+     */
+    private final class CachedStatement implements InvocationHandler {
+        private final Lease lease;
+        private final Connection handle;
+        private final StatementKey key;
+        private final PreparedStatement statement;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private CachedStatement(Lease lease, Connection handle, StatementKey key, PreparedStatement statement) {
+            this.lease = lease;
+            this.handle = handle;
+            this.key = key;
+            this.statement = statement;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (closed.compareAndSet(false, true)) {
+                        if (lease.returned.get()) {
+                            closeQuietly(statement);
+                        } else {
+                            lease.pooled.checkIn(key, statement);
+                        }
+                    }
+                    return null;
+                case "isClosed":
+                    return closed.get() || statement.isClosed();
+                case "getConnection":
+                    return handle;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Cached" + statement;
+                default:
+                    if (closed.get()) {
+                        throw new SQLException("Statement has already been closed");
+                    }
+                    try {
+                        return method.invoke(statement, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+            }
+        }
+    }
+}
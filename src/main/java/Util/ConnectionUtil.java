@@ -1,9 +1,10 @@
 package Util;
 
-import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Statement;
 
 import org.h2.jdbcx.JdbcDataSource;
 import org.h2.tools.RunScript;
@@ -13,15 +14,25 @@ import org.h2.tools.RunScript;
  * our database. This class utilizes the singleton design pattern. We will be
  * utilizing an in-memory called h2database for the sql demos.
  *
- * DO NOT CHANGE ANYTHING IN THIS CLASS
+ * Connections are served from a bounded ConnectionPool, so closing a connection
+ * returns it to the pool rather than tearing down the H2 session. The pool can
+ * be tuned with the socialmedia.pool.* system properties.
+ *
+ * When handlers run on virtual threads (socialmedia.server.threads=virtual), a
+ * request waiting for a connection parks on the pool's semaphore without pinning
+ * its carrier thread. The embedded H2 engine does synchronize on its session
+ * while a statement executes, so a virtual thread inside H2 is pinned for that
+ * statement; since only pool holders can be in there, socialmedia.pool.maxSize
+ * also caps how many carriers can be pinned at once.
  */
 public class ConnectionUtil {
 
 	/**
 	 * url will represent our connection string. Since this is an in-memory db, we
-	 * will represent a file location to store the data
+	 * will represent a file location to store the data. Benchmarks point it at their
+	 * own database with the socialmedia.db.url system property.
 	 */
-	private static String url = "jdbc:h2:./h2/db;";
+	private static String url = System.getProperty("socialmedia.db.url", "jdbc:h2:./h2/db;");
 	/**
 	 * Default username for connecting to h2
 	 */
@@ -32,21 +43,33 @@ public class ConnectionUtil {
 	private static String password = "sa";
 
 	/**
-	 * DataSource for pooling. Pooling enables the creation of multiple connections when connections are closed.
+	 * DataSource the pool opens its physical connections through.
+	 */
+	private static JdbcDataSource dataSource = new JdbcDataSource();
+	/**
+	 * Pool of physical connections shared by every DAO.
 	 */
-	private static JdbcDataSource pool = new JdbcDataSource();
+	private static ConnectionPool pool;
 
 	/**
-	 * static initialization block to establish credentials for DataSoure Pool
+	 * static initialization block to establish credentials for the DataSource and size the pool
 	 */
 	static {
-		pool.setURL(url);
-		pool.setUser(username);
-		pool.setPassword(password);
+		dataSource.setURL(url);
+		dataSource.setUser(username);
+		dataSource.setPassword(password);
+		pool = new ConnectionPool(dataSource,
+				Integer.getInteger("socialmedia.pool.minSize", 2),
+				Integer.getInteger("socialmedia.pool.maxSize", 10),
+				Long.getLong("socialmedia.pool.acquireTimeoutMillis", 5000),
+				Long.getLong("socialmedia.pool.idleTimeoutMillis", 60000),
+				Long.getLong("socialmedia.pool.leakThresholdMillis", 30000),
+				Long.getLong("socialmedia.pool.housekeepingIntervalMillis", 5000),
+				Integer.getInteger("socialmedia.pool.statementCacheSize", 64));
 	}
 
 	/**
-	 * @return an active connection to the database
+	 * @return an active connection to the database, borrowed from the pool
 	 */
 	public static Connection getConnection() {
 		try {
@@ -58,17 +81,44 @@ public class ConnectionUtil {
 		return null;
 	}
 
+	/**
+	 * @return the connection pool, for exposing its statistics
+	 */
+	public static ConnectionPool getPool() {
+		return pool;
+	}
+
 	/**
 	 * For the purpose of testing, we will need to drop and recreate our database
 	 * tables to keep it consistent across all tests. The method will read the sql
-	 * file in resources. This will be performed before every test.
+	 * file in resources. This will be performed before every test. Since the tables
+	 * are recreated from scratch, the migration history is cleared and replayed on
+	 * top of them.
 	 */
 	public static void resetTestDatabase() {
-		try {
-			FileReader sqlReader = new FileReader("src/main/resources/SocialMedia.sql");
-			RunScript.execute(getConnection(), sqlReader);
-		} catch (SQLException | FileNotFoundException e) {
+		try (Connection conn = getConnection();
+			 FileReader sqlReader = new FileReader("src/main/resources/SocialMedia.sql")) {
+			RunScript.execute(conn, sqlReader);
+			try (Statement stmt = conn.createStatement()) {
+				stmt.execute("drop table if exists schema_version");
+			}
+		} catch (SQLException | IOException e) {
 			e.printStackTrace();
 		}
+		applyMigrations();
+	}
+
+	/**
+	 * Brings the schema up to date by applying any versioned migrations the database has not seen yet. Safe to
+	 * call on every startup; see SchemaMigrator.
+	 *
+	 * @throws IllegalStateException if a migration fails, so startup stops instead of running on a stale schema
+	 */
+	public static void applyMigrations() {
+		try (Connection conn = getConnection()) {
+			SchemaMigrator.forApplication().migrate(conn);
+		} catch (SQLException e) {
+			throw new IllegalStateException("Schema migration failed", e);
+		}
 	}
 }
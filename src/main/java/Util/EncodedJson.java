@@ -0,0 +1,66 @@
+package Util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+
+/**
+ * EncodedJson.java
+ *
+ * A value serialized once, kept as the JSON bytes and, when it is large enough to be compressed (see
+ * ResponseCompression), as gzip bytes too. Caching these instead of the value lets a hit be written straight to the
+ * response without running Jackson or the compressor again. With the default minSize of 1500 bytes a single message
+ * is never large enough, so its gzip copy is only built when socialmedia.compression.minSize is set lower.
+ *
+ * Instances are immutable and the arrays must not be modified.
+ */
+public final class EncodedJson {
+
+    private final byte[] json;
+    private final byte[] gzip;
+
+    private EncodedJson(byte[] json, byte[] gzip) {
+        this.json = json;
+        this.gzip = gzip;
+    }
+
+    /**
+     * Serializes a value with the shared JsonCodec, exactly as context.json would, and gzips it if it is worth it.
+     *
+     * @param value the value to encode
+     * @param type the type to serialize it as
+     * @return the encoded value
+     */
+    public static EncodedJson of(Object value, Type type) {
+        byte[] json;
+        try {
+            json = JsonCodec.INSTANCE.writerFor(type).writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        byte[] gzip = ResponseCompression.gzipEnabled() && ResponseCompression.worthCompressing(json.length)
+                ? ResponseCompression.gzip(json) : null;
+        return new EncodedJson(json, gzip);
+    }
+
+    /**
+     * @return the JSON bytes
+     */
+    public byte[] getJson() {
+        return json;
+    }
+
+    /**
+     * @return the gzip bytes of the JSON, or null if it is sent uncompressed
+     */
+    public byte[] getGzip() {
+        return gzip;
+    }
+
+    /**
+     * @return the bytes held, for cache weighing
+     */
+    public long size() {
+        return json.length + (gzip == null ? 0 : gzip.length);
+    }
+}
@@ -0,0 +1,112 @@
+package Util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram.java
+ *
+ * A lock-free histogram of non-negative long values (latencies in microseconds, batch sizes, queue depths...).
+ * Values are counted in power-of-two buckets, so recording is a couple of atomic increments and percentiles are
+ * reported as the upper bound of the bucket they fall in (never more than 2x off). A snapshot is a plain Map so it
+ * can be serialized straight into the /metrics response.
+ */
+public class Histogram {
+
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a single value. Negative values are recorded as zero.
+     *
+     * @param value the value to record
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(bucketOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long currentMax;
+        while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+            // retry until max is at least value
+        }
+    }
+
+    /**
+     * @return the number of values recorded so far
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the largest value recorded so far, or 0 if nothing was recorded
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns an upper bound for the given percentile.
+     *
+     * @param percentile the percentile to look up, between 0 and 100
+     * @return the upper bound of the bucket holding the percentile, capped at the recorded maximum
+     */
+    public long percentile(double percentile) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Takes a point-in-time view of the histogram suitable for JSON serialization.
+     *
+     * @return count, mean, max, common percentiles and the non-empty buckets keyed by their upper bound
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        long total = count.get();
+        snapshot.put("count", total);
+        snapshot.put("mean", total == 0 ? 0 : sum.get() / total);
+        snapshot.put("max", max.get());
+        snapshot.put("p50", percentile(50));
+        snapshot.put("p90", percentile(90));
+        snapshot.put("p99", percentile(99));
+        snapshot.put("p999", percentile(99.9));
+        Map<String, Long> buckets = new LinkedHashMap<>();
+        for (int i = 0; i < BUCKETS; i++) {
+            long bucketCount = counts.get(i);
+            if (bucketCount > 0) {
+                buckets.put("le_" + upperBoundOf(i), bucketCount);
+            }
+        }
+        snapshot.put("buckets", buckets);
+        return snapshot;
+    }
+
+    private static int bucketOf(long value) {
+        return value == 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+    }
+
+    private static long upperBoundOf(int bucket) {
+        return bucket == 0 ? 0 : bucket >= 63 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+}
@@ -0,0 +1,143 @@
+package Util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import Model.Account;
+import Model.Message;
+import io.javalin.json.JsonMapper;
+
+/**
+ * JsonCodec.java
+ *
+ * The one place JSON is read and written. It owns a single ObjectMapper, configured once, and hands out ObjectReader
+ * and ObjectWriter instances that are built once per type and then reused: Message, Account and List<Message> up
+ * front, anything else on first use. Readers and writers are immutable and thread-safe, and sharing them means
+ * Jackson's serializer and deserializer lookups are done once instead of per request.
+ *
+ * The codec is also Javalin's JsonMapper (see SocialMediaController.startAPI), so context.json and
+ * context.bodyAsClass go through the same instances.
+ */
+public final class JsonCodec implements JsonMapper {
+
+    public static final JsonCodec INSTANCE = new JsonCodec();
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<Type, ObjectReader> readers = new ConcurrentHashMap<>();
+    private final Map<Type, ObjectWriter> writers = new ConcurrentHashMap<>();
+
+    private JsonCodec() {
+        Type messageList = new TypeReference<List<Message>>() {}.getType();
+        for (Type type : new Type[] { Message.class, Account.class, messageList }) {
+            readerFor(type);
+            writerFor(type);
+        }
+    }
+
+    /**
+     * @return the factory of the shared mapper, for code that writes or parses tokens directly
+     */
+    public JsonFactory getFactory() {
+        return mapper.getFactory();
+    }
+
+    /**
+     * @param type the type to read
+     * @return the shared reader for the type
+     */
+    public ObjectReader readerFor(Type type) {
+        ObjectReader reader = readers.get(type); // Plain get first: computeIfAbsent would allocate its lambda
+        return reader != null ? reader : readers.computeIfAbsent(type, t -> mapper.readerFor(mapper.constructType(t)));
+    }
+
+    /**
+     * @param type the type to write
+     * @return the shared writer for the type
+     */
+    public ObjectWriter writerFor(Type type) {
+        ObjectWriter writer = writers.get(type);
+        return writer != null ? writer : writers.computeIfAbsent(type, t -> mapper.writerFor(mapper.constructType(t)));
+    }
+
+    /**
+     * Pulls a single string field out of a JSON object with a streaming parser, without binding the rest of the
+     * body to objects. Other fields are skipped over, but the whole document is still checked to be valid JSON.
+     *
+     * @param json the JSON document, which must be an object
+     * @param fieldName the name of the field to read
+     * @return the field's value as text, or null if the field is missing, null, an object or an array
+     * @throws IOException if the document is not a valid JSON object
+     */
+    public String readStringField(byte[] json, String fieldName) throws IOException {
+        try (JsonParser parser = mapper.getFactory().createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Expected a JSON object");
+            }
+            String value = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                boolean wanted = fieldName.equals(parser.getCurrentName());
+                JsonToken token = parser.nextToken();
+                if (wanted && token.isScalarValue() && token != JsonToken.VALUE_NULL) {
+                    value = parser.getText();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (parser.currentToken() != JsonToken.END_OBJECT) {
+                throw new JsonParseException(parser, "Expected the JSON object to end");
+            }
+            return value;
+        }
+    }
+
+    @Override
+    public String toJsonString(Object obj, Type type) {
+        try {
+            return writerFor(type).writeValueAsString(obj);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public InputStream toJsonStream(Object obj, Type type) {
+        try {
+            return new ByteArrayInputStream(writerFor(type).writeValueAsBytes(obj));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public <T> T fromJsonString(String json, Type type) {
+        try {
+            return readerFor(type).readValue(json);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public <T> T fromJsonStream(InputStream json, Type type) {
+        try {
+            return readerFor(type).readValue(json);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package Util;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * RateLimiter.java
+ *
+ * Token-bucket rate limits for the write routes of the API, checked before a request touches the database. Every
+ * route may have up to three limits: one bucket per remote IP, one per account, and one shared by all callers, and a
+ * request goes ahead only if each applicable bucket has a token left. The most specific bucket is tried first, so a
+ * caller over its own limit is turned away before it spends from the shared one.
+ *
+ * A bucket is a single AtomicLong holding the time at which it will be full again; taking a token moves that time
+ * one interval (1 / rate) later, and is refused when the time would be more than burst intervals ahead of now. That
+ * is the same as counting tokens with a refill, but it needs neither a lock nor a background refill: a token is one
+ * compareAndSet, and the refused caller gets the exact wait until the next token for its Retry-After.
+ *
+ * Buckets live in ConcurrentHashMaps, one per route and kind, and expire lazily: a bucket whose full-again time has
+ * passed is the same as no bucket, so once a second a sweep removes those. The sweep is done a little at a time by
+ * the requests themselves: while one is due, a request that finds no other sweeping looks at up to SWEEP_STEP
+ * buckets, carrying on where the last one stopped. So no request pays for a pass over every map, and as a request
+ * adds at most two buckets, the sweep keeps up with any flood of new keys. A map that still
+ * holds socialmedia.ratelimit.maxKeys buckets sends new keys to one overflow bucket shared by all of them, so a flood
+ * of new IPs costs a bounded amount of memory and is limited together instead.
+ *
+ * Limits are read as "rate:burst", requests per second and the most taken at once, or "off":
+ *
+ *  socialmedia.ratelimit.enabled                   false turns every limit off; default true
+ *  socialmedia.ratelimit.[route].ip                per remote IP; defaults in Route
+ *  socialmedia.ratelimit.[route].account           per account
+ *  socialmedia.ratelimit.[route].global            for all callers together
+ *  socialmedia.ratelimit.maxKeys                   most buckets of one kind per route; default 100000
+ *
+ * where [route] is the name of a Route such as postMessage.
+ */
+public final class RateLimiter {
+
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int SWEEP_STEP = 64;
+
+    /**
+     * The limited routes, with default limits high enough for honest clients and the test suite. PATCH and DELETE
+     * only name a message, so they are not limited per account.
+     */
+    public enum Route {
+        REGISTER("register", "10:50", "off", "200:1000"),
+        LOGIN("login", "20:100", "off", "1000:2000"),
+        POST_MESSAGE("postMessage", "200:400", "50:100", "5000:10000"),
+        POST_MESSAGES("postMessages", "20:40", "10:20", "500:1000"),
+        UPDATE_MESSAGE("updateMessage", "200:400", "off", "5000:10000"),
+        DELETE_MESSAGE("deleteMessage", "200:400", "off", "5000:10000");
+
+        private final String propertyName;
+        private final String defaultIpLimit;
+        private final String defaultAccountLimit;
+        private final String defaultGlobalLimit;
+
+        Route(String propertyName, String defaultIpLimit, String defaultAccountLimit, String defaultGlobalLimit) {
+            this.propertyName = propertyName;
+            this.defaultIpLimit = defaultIpLimit;
+            this.defaultAccountLimit = defaultAccountLimit;
+            this.defaultGlobalLimit = defaultGlobalLimit;
+        }
+
+        /**
+         * @return the name of the route in system properties and metrics
+         */
+        public String getPropertyName() {
+            return propertyName;
+        }
+    }
+
+    private final LongSupplier nanoClock;
+    private final int maxKeys;
+    private final Map<Route, RouteLimits> routes = new EnumMap<>(Route.class);
+    private final List<Buckets<?>> sweepTargets = new ArrayList<>();
+    private final AtomicLong nextSweep;
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+    // Guarded by sweeping: where the sweep in progress has got to, or -1 between sweeps
+    private int sweepIndex = -1;
+    private Iterator<AtomicLong> sweepCursor;
+
+    /**
+     * @param properties where the limits are read from, with the keys of the system properties
+     * @param nanoClock the time in nanoseconds, as System.nanoTime
+     * @throws IllegalArgumentException if a limit can not be read
+     */
+    public RateLimiter(Properties properties, LongSupplier nanoClock) {
+        this.nanoClock = nanoClock;
+        this.maxKeys = Integer.parseInt(properties.getProperty("socialmedia.ratelimit.maxKeys", "100000"));
+        boolean enabled = Boolean.parseBoolean(properties.getProperty("socialmedia.ratelimit.enabled", "true"));
+        for (Route route : Route.values()) {
+            String prefix = "socialmedia.ratelimit." + route.propertyName + ".";
+            routes.put(route, new RouteLimits(
+                    enabled ? Limit.parse(properties.getProperty(prefix + "ip", route.defaultIpLimit)) : null,
+                    enabled ? Limit.parse(properties.getProperty(prefix + "account", route.defaultAccountLimit)) : null,
+                    enabled ? Limit.parse(properties.getProperty(prefix + "global", route.defaultGlobalLimit)) : null));
+            sweepTargets.add(routes.get(route).byIp);
+            sweepTargets.add(routes.get(route).byAccount);
+        }
+        this.nextSweep = new AtomicLong(nanoClock.getAsLong() + SWEEP_INTERVAL_NANOS);
+    }
+
+    /**
+     * @return a limiter configured from the system properties
+     */
+    public static RateLimiter fromSystemProperties() {
+        return new RateLimiter(System.getProperties(), System::nanoTime);
+    }
+
+    /**
+     * Takes a token from every bucket that applies to a request.
+     *
+     * @param route the route requested
+     * @param ip the caller's remote IP
+     * @param accountId the account the request acts for, or 0 if it is not known
+     * @return 0 if the request may go ahead, otherwise the whole seconds until it may be retried
+     */
+    public long acquire(Route route, String ip, int accountId) {
+        long now = nanoClock.getAsLong();
+        if (now - nextSweep.get() >= 0 && sweeping.compareAndSet(false, true)) {
+            try {
+                if (sweepStep(now)) {
+                    nextSweep.set(now + SWEEP_INTERVAL_NANOS); // Until then every request passes the check above
+                }
+            } finally {
+                sweeping.set(false);
+            }
+        }
+        RouteLimits limits = routes.get(route);
+        long waitNanos = 0;
+        if (limits.account != null && accountId > 0) {
+            waitNanos = limits.account.take(limits.byAccount.bucket(accountId, maxKeys), now);
+        }
+        if (waitNanos == 0 && limits.ip != null && ip != null) {
+            waitNanos = limits.ip.take(limits.byIp.bucket(ip, maxKeys), now);
+        }
+        if (waitNanos == 0 && limits.global != null) {
+            waitNanos = limits.global.take(limits.globalBucket, now);
+        }
+        if (waitNanos == 0) {
+            limits.allowed.incrementAndGet();
+            return 0;
+        }
+        limits.limited.incrementAndGet();
+        return Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+    }
+
+    /**
+     * Takes a point-in-time view of the limiter for the /metrics endpoint.
+     *
+     * @return per route the requests allowed and limited, and the IP and account buckets it holds
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        routes.forEach((route, limits) -> {
+            Map<String, Object> routeStats = new LinkedHashMap<>();
+            routeStats.put("allowed", limits.allowed.get());
+            routeStats.put("limited", limits.limited.get());
+            routeStats.put("ipBuckets", limits.byIp.buckets.size());
+            routeStats.put("accountBuckets", limits.byAccount.buckets.size());
+            stats.put(route.propertyName, routeStats);
+        });
+        return stats;
+    }
+
+    /**
+     * Looks at the next SWEEP_STEP buckets of the sweep in progress, starting one if there is none, and removes those
+     * that are full again, which are the same as no bucket. A caller still holding one may take a token from it after
+     * it is removed, and so gets one token more than its burst; that is the price of not locking.
+     *
+     * @return true if the sweep got through every map
+     */
+    private boolean sweepStep(long now) {
+        int visited = 0;
+        while (visited < SWEEP_STEP) {
+            if (sweepCursor == null || !sweepCursor.hasNext()) {
+                if (++sweepIndex == sweepTargets.size()) {
+                    sweepIndex = -1;
+                    sweepCursor = null;
+                    return true;
+                }
+                sweepCursor = sweepTargets.get(sweepIndex).buckets.values().iterator();
+                continue;
+            }
+            if (sweepCursor.next().get() <= now) {
+                sweepCursor.remove();
+            }
+            visited++;
+        }
+        return false;
+    }
+
+    /**
+     * A rate and a burst, in the units a bucket is kept in.
+     */
+    private static final class Limit {
+        private final long intervalNanos;
+        private final long burstNanos;
+
+        private Limit(double ratePerSecond, int burst) {
+            if (ratePerSecond <= 0 || burst < 1) {
+                throw new IllegalArgumentException("Rate limits need a positive rate and burst");
+            }
+            this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond));
+            this.burstNanos = intervalNanos * burst;
+        }
+
+        /**
+         * @return the limit "rate:burst" stands for, or null for "off"
+         */
+        private static Limit parse(String spec) {
+            if (spec == null || spec.isBlank() || spec.trim().equalsIgnoreCase("off")) {
+                return null;
+            }
+            int colon = spec.indexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException("Rate limits must read rate:burst or off, not " + spec);
+            }
+            return new Limit(Double.parseDouble(spec.substring(0, colon).trim()),
+                    Integer.parseInt(spec.substring(colon + 1).trim()));
+        }
+
+        /**
+         * Takes a token from a bucket.
+         *
+         * @param bucket the time at which the bucket is full again
+         * @return 0 if a token was taken, otherwise how many nanoseconds until there is one
+         */
+        private long take(AtomicLong bucket, long now) {
+            while (true) {
+                long fullAt = bucket.get();
+                long newFullAt = Math.max(fullAt, now) + intervalNanos;
+                long excess = newFullAt - now - burstNanos;
+                if (excess > 0) {
+                    return excess;
+                }
+                if (bucket.compareAndSet(fullAt, newFullAt)) {
+                    return 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * The buckets of one kind for one route.
+     */
+    private static final class Buckets<K> {
+        private final ConcurrentHashMap<K, AtomicLong> buckets = new ConcurrentHashMap<>();
+        private final AtomicLong overflow = new AtomicLong(Long.MIN_VALUE);
+
+        private AtomicLong bucket(K key, int maxKeys) {
+            AtomicLong bucket = buckets.get(key);
+            if (bucket != null) {
+                return bucket;
+            }
+            if (buckets.size() >= maxKeys) {
+                return overflow;
+            }
+            return buckets.computeIfAbsent(key, k -> new AtomicLong(Long.MIN_VALUE));
+        }
+    }
+
+    private static final class RouteLimits {
+        private final Limit ip;
+        private final Limit account;
+        private final Limit global;
+        private final Buckets<String> byIp = new Buckets<>();
+        private final Buckets<Integer> byAccount = new Buckets<>();
+        private final AtomicLong globalBucket = new AtomicLong(Long.MIN_VALUE);
+        private final AtomicLong allowed = new AtomicLong();
+        private final AtomicLong limited = new AtomicLong();
+
+        private RouteLimits(Limit ip, Limit account, Limit global) {
+            this.ip = ip;
+            this.account = account;
+            this.global = global;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package Util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPOutputStream;
+
+import io.javalin.compression.Brotli;
+import io.javalin.compression.CompressionStrategy;
+import io.javalin.compression.Gzip;
+
+/**
+ * ResponseCompression.java
+ *
+ * How responses are compressed, read once from system properties:
+ *
+ *  socialmedia.compression            "gzip" (default), "brotli", "brotli,gzip" or "none"
+ *  socialmedia.compression.gzipLevel  deflate level, 1 (fastest) to 9 (smallest); default 6
+ *  socialmedia.compression.brotliLevel  brotli quality, 0 to 11; default 4
+ *  socialmedia.compression.minSize    responses smaller than this many bytes are sent as they are; default 1500
+ *
+ * Javalin applies the strategy to every response it writes, picking brotli over gzip when the client accepts both.
+ * Brotli needs the jvm-brotli native library on the classpath; without it Javalin logs a warning and only gzips.
+ *
+ * The same settings are used to gzip payloads ahead of time (see EncodedJson), so a pre-encoded response is
+ * compressed exactly when Javalin would have compressed it. At the default minSize that never happens for a single
+ * message, whose JSON is a few hundred bytes at most; the pre-gzipped copy only comes into play when minSize is lowered.
+ */
+public final class ResponseCompression {
+
+    private static final String ALGORITHMS = System.getProperty("socialmedia.compression", "gzip");
+    private static final int GZIP_LEVEL = Integer.getInteger("socialmedia.compression.gzipLevel", 6);
+    private static final int BROTLI_LEVEL = Integer.getInteger("socialmedia.compression.brotliLevel", 4);
+    private static final int MIN_SIZE = Integer.getInteger("socialmedia.compression.minSize", 1500);
+
+    private ResponseCompression() {
+    }
+
+    /**
+     * @return the strategy to hand to Javalin's compression config
+     */
+    public static CompressionStrategy strategy() {
+        CompressionStrategy strategy = new CompressionStrategy(
+                ALGORITHMS.contains("brotli") ? new Brotli(BROTLI_LEVEL) : null,
+                gzipEnabled() ? new Gzip(GZIP_LEVEL) : null);
+        strategy.setMinSizeForCompression(MIN_SIZE);
+        return strategy;
+    }
+
+    /**
+     * @return true if responses may be gzipped
+     */
+    public static boolean gzipEnabled() {
+        return ALGORITHMS.contains("gzip");
+    }
+
+    /**
+     * Tells whether Javalin may compress a response. Javalin looks for the algorithm's name anywhere in the header,
+     * ignoring case and q-values, so this does the same rather than parsing the header properly.
+     *
+     * @param acceptEncoding the request's Accept-Encoding header, possibly null
+     * @return true if Javalin may compress the response to this request
+     */
+    public static boolean negotiated(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        String accepted = acceptEncoding.toLowerCase();
+        return (gzipEnabled() && accepted.contains("gzip")) || (ALGORITHMS.contains("brotli") && accepted.contains("br"));
+    }
+
+    /**
+     * Tells whether the client accepts gzip, reading the header properly: "gzip;q=0" refuses it, and "*" accepts it
+     * unless gzip is listed on its own. Used where responses are written past Javalin's compression.
+     *
+     * @param acceptEncoding the request's Accept-Encoding header, possibly null
+     * @return true if the response may be sent gzipped
+     */
+    public static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        Boolean gzip = null;
+        boolean wildcard = false;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim().toLowerCase();
+            boolean accepted = qValue(parts) > 0;
+            if (name.equals("gzip") || name.equals("x-gzip")) {
+                gzip = (gzip != null && gzip) || accepted;
+            } else if (name.equals("*")) {
+                wildcard = accepted;
+            }
+        }
+        return gzip != null ? gzip : wildcard;
+    }
+
+    /**
+     * @param parts a coding from Accept-Encoding split at ';', the name first
+     * @return its q-value, 1 if none is given and 0 if it is malformed
+     */
+    private static double qValue(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim();
+            if (parameter.length() > 2 && parameter.substring(0, 2).equalsIgnoreCase("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * @param length the uncompressed size of a response body
+     * @return true if a body of this size is large enough to compress
+     */
+    public static boolean worthCompressing(int length) {
+        return length >= MIN_SIZE;
+    }
+
+    /**
+     * Gzips a complete body at the configured level.
+     *
+     * @param body the bytes to compress
+     * @return the gzip stream of the body
+     */
+    public static byte[] gzip(byte[] body) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 2 + 32);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed) {
+            {
+                def.setLevel(GZIP_LEVEL);
+            }
+        }) {
+            gzip.write(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Not thrown by in-memory streams
+        }
+        return compressed.toByteArray();
+    }
+}
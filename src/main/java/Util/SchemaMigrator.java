@@ -0,0 +1,177 @@
+package Util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.h2.tools.RunScript;
+
+/**
+ * SchemaMigrator.java
+ *
+ * Brings a database schema up to date by applying versioned SQL scripts in order. Scripts are named
+ * V&lt;version&gt;__&lt;description&gt;.sql and live in a folder on the classpath. Every applied script is recorded in the
+ * schema_version table together with a SHA-256 checksum of its text, so a script that was edited after it ran, or
+ * a database that is newer than the code, stops startup instead of silently drifting.
+ *
+ * Migrations are forward-only and incremental: each run applies just the scripts the database has not seen yet.
+ * Scripts change the live tables in place (adding columns, indexes and the like) and may not drop tables, so
+ * applying one never means reloading data.
+ */
+public class SchemaMigrator {
+
+    /**
+     * The application's migrations, in version order. Add new scripts to the end of this list.
+     */
+    public static final List<String> APPLICATION_MIGRATIONS = Arrays.asList(
+            "V1__baseline.sql",
+            "V2__message_indexes.sql");
+
+    private static final Pattern SCRIPT_NAME = Pattern.compile("V(\\d+)__(.+)\\.sql");
+    private static final Pattern DROP_TABLE = Pattern.compile("\\bdrop\\s+table\\b");
+
+    private final String folder;
+    private final List<String> scripts;
+
+    /**
+     * @param folder the classpath folder holding the scripts, e.g. "/migrations/"
+     * @param scripts the script file names, in version order
+     */
+    public SchemaMigrator(String folder, List<String> scripts) {
+        this.folder = folder;
+        this.scripts = scripts;
+    }
+
+    /**
+     * @return a migrator for the application's own migrations
+     */
+    public static SchemaMigrator forApplication() {
+        return new SchemaMigrator("/migrations/", APPLICATION_MIGRATIONS);
+    }
+
+    /**
+     * Applies every script the database has not recorded yet, in version order.
+     *
+     * @param conn the connection to migrate through
+     * @return the number of scripts applied
+     * @throws SQLException if a database access error occurs or a script fails
+     * @throws IllegalStateException if an applied script changed, or the database has versions this code does not know
+     */
+    public int migrate(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS schema_version ("
+                    + "version int primary key, "
+                    + "description varchar(255), "
+                    + "checksum varchar(64), "
+                    + "installed_on timestamp default current_timestamp, "
+                    + "execution_millis bigint)");
+        }
+
+        Map<Integer, String> applied = new HashMap<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT version, checksum FROM schema_version")) {
+            while (rs.next()) {
+                applied.put(rs.getInt("version"), rs.getString("checksum"));
+            }
+        }
+
+        int latestKnown = 0;
+        for (String script : scripts) {
+            int version = versionOf(script);
+            if (version <= latestKnown) {
+                throw new IllegalStateException("Migration " + script + " is out of version order");
+            }
+            latestKnown = version;
+        }
+        for (int version : applied.keySet()) {
+            if (version > latestKnown) {
+                throw new IllegalStateException("Database is at schema version " + version
+                        + " but this build only knows up to " + latestKnown);
+            }
+        }
+
+        int count = 0;
+        for (String script : scripts) {
+            int version = versionOf(script);
+            String sql = load(script);
+            String checksum = checksum(sql);
+            String appliedChecksum = applied.get(version);
+            if (appliedChecksum != null) {
+                if (!appliedChecksum.equals(checksum)) {
+                    throw new IllegalStateException("Migration " + script + " was modified after it was applied");
+                }
+                continue;
+            }
+            if (DROP_TABLE.matcher(sql.toLowerCase(Locale.ROOT)).find()) {
+                throw new IllegalStateException("Migration " + script + " drops a table; migrations must change tables in place");
+            }
+
+            long start = System.currentTimeMillis();
+            RunScript.execute(conn, new StringReader(sql));
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                    "INSERT INTO schema_version (version, description, checksum, execution_millis) VALUES (?, ?, ?, ?)")) {
+                pstmt.setInt(1, version);
+                pstmt.setString(2, descriptionOf(script));
+                pstmt.setString(3, checksum);
+                pstmt.setLong(4, System.currentTimeMillis() - start);
+                pstmt.executeUpdate();
+            }
+            count++;
+        }
+        return count;
+    }
+
+    private static int versionOf(String script) {
+        Matcher name = SCRIPT_NAME.matcher(script);
+        if (!name.matches()) {
+            throw new IllegalStateException("Migration " + script + " is not named V<version>__<description>.sql");
+        }
+        return Integer.parseInt(name.group(1));
+    }
+
+    private static String descriptionOf(String script) {
+        Matcher name = SCRIPT_NAME.matcher(script);
+        name.matches();
+        return name.group(2).replace('_', ' ');
+    }
+
+    private String load(String script) {
+        try (InputStream in = SchemaMigrator.class.getResourceAsStream(folder + script)) {
+            if (in == null) {
+                throw new IllegalStateException("Migration " + folder + script + " not found on the classpath");
+            }
+            // Normalize line endings so a checkout on another OS does not change the checksum.
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8).replace("\r\n", "\n");
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read migration " + script, e);
+        }
+    }
+
+    private static String checksum(String sql) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(sql.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
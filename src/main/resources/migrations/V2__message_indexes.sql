@@ -0,0 +1,6 @@
+-- Secondary indexes for the Message lookups that run on every request.
+-- (posted_by, message_id) serves GET /accounts/{account_id}/messages and keeps each user's rows in message_id order.
+-- (time_posted_epoch, message_id) serves time-ordered feeds with message_id as the tie breaker.
+-- H2 stores the primary key in every secondary index entry, so these are as close to covering as H2 gets.
+create index if not exists idx_message_posted_by on message (posted_by, message_id);
+create index if not exists idx_message_time_posted on message (time_posted_epoch, message_id);
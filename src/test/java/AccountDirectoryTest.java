@@ -0,0 +1,158 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.AccountDAO;
+import Model.Account;
+import Service.AccountService;
+import Util.ConnectionUtil;
+
+public class AccountDirectoryTest {
+
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+    }
+
+    /**
+     * Inserting account 2 straight into the table, then creating the service.
+     *
+     * Expected Result:
+     *  The directory is warmed with both accounts: it holds 2 entries, both IDs exist, an unknown ID does not, and
+     *  the inserted account can log in by username.
+     */
+    @Test
+    public void directoryIsWarmedFromExistingRows() throws SQLException {
+        insertAccount("existinguser", "password");
+
+        AccountService accountService = new AccountService();
+        Assert.assertEquals(2, accountService.getDirectorySize());
+        Assert.assertTrue(accountService.doesAccountExist(1));
+        Assert.assertTrue(accountService.doesAccountExist(2));
+        Assert.assertFalse(accountService.doesAccountExist(3));
+        Assert.assertEquals(2, accountService.loginAccount(new Account("existinguser", "password")).getAccount_id());
+    }
+
+    /**
+     * Registering an account and checking it right away, as POST /messages does for posted_by.
+     *
+     * Expected Result:
+     *  The new ID exists at once, answered without a database read, and a second registration of the same
+     *  username is refused.
+     */
+    @Test
+    public void registeredAccountIsVisibleAtOnce() throws Exception {
+        AccountService accountService = new AccountService();
+        Account created = accountService.registerAccount(new Account("newuser", "password"));
+
+        Assert.assertTrue(accountService.doesAccountExistAsync(created.getAccount_id()).getNow(false));
+        Assert.assertEquals(2, accountService.getDirectorySize());
+        try {
+            accountService.registerAccount(new Account("newuser", "password"));
+            Assert.fail("The username should be taken");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("Username already exists", e.getMessage());
+        }
+    }
+
+    /**
+     * Registering the same username through two services whose directories were warmed before either registration,
+     * so the second one's directory does not know the username yet, like two registrations racing.
+     *
+     * Expected Result:
+     *  The second registration passes the in-memory check, is refused by the unique constraint, and fails with the
+     *  same "Username already exists" as a duplicate caught in memory.
+     */
+    @Test
+    public void duplicateUsernameRaceIsCaughtByTheConstraint() throws SQLException {
+        AccountService first = new AccountService();
+        AccountService second = new AccountService();
+        first.registerAccount(new Account("raceduser", "password"));
+
+        try {
+            second.registerAccount(new Account("raceduser", "password"));
+            Assert.fail("The unique constraint should refuse the second registration");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("Username already exists", e.getMessage());
+        }
+        Assert.assertFalse(second.doesAccountExist(3));
+    }
+
+    /**
+     * Creating the service on a DAO whose warm-up query fails.
+     *
+     * Expected Result:
+     *  The directory stays empty and every check falls back to the account table: existing and new accounts are
+     *  found, duplicates are refused, and logins work.
+     */
+    @Test
+    public void checksFallBackToTheDatabaseWhenWarmingFails() throws SQLException {
+        AccountService accountService = new AccountService(new AccountDAO() {
+            @Override
+            public Map<String, Integer> getAccountIdsByUsername() throws SQLException {
+                throw new SQLException("Warm-up failed");
+            }
+        });
+
+        Assert.assertEquals(0, accountService.getDirectorySize());
+        Assert.assertTrue(accountService.doesAccountExist(1));
+        Assert.assertFalse(accountService.doesAccountExist(2));
+        Account created = accountService.registerAccount(new Account("fallbackuser", "password"));
+        Assert.assertTrue(accountService.doesAccountExist(created.getAccount_id()));
+        try {
+            accountService.registerAccount(new Account("testuser1", "password"));
+            Assert.fail("The username should be taken");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("Username already exists", e.getMessage());
+        }
+        Assert.assertEquals(1, accountService.loginAccount(new Account("testuser1", "password")).getAccount_id());
+    }
+
+    /**
+     * Checking several accounts at once, as POST /messages/batch does, on a service whose warm-up query failed.
+     *
+     * Expected Result:
+     *  Only the existing account is returned, and the lookups run on a DatabaseExecutor thread rather than on the
+     *  calling thread.
+     */
+    @Test
+    public void batchCheckLeavesTheCallerWhenWarmingFails() throws Exception {
+        Set<String> lookupThreads = ConcurrentHashMap.newKeySet();
+        AccountService accountService = new AccountService(new AccountDAO() {
+            @Override
+            public Map<String, Integer> getAccountIdsByUsername() throws SQLException {
+                throw new SQLException("Warm-up failed");
+            }
+
+            @Override
+            public Account getAccountById(int accountId) throws SQLException {
+                lookupThreads.add(Thread.currentThread().getName());
+                return super.getAccountById(accountId);
+            }
+        });
+
+        Assert.assertEquals(Set.of(1), accountService.existingAccountsAsync(Set.of(1, 2)).get(5, TimeUnit.SECONDS));
+        Assert.assertFalse(lookupThreads.isEmpty());
+        for (String thread : lookupThreads) {
+            Assert.assertTrue(thread, thread.startsWith("database-"));
+        }
+    }
+
+    private static void insertAccount(String username, String password) throws SQLException {
+        try (Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement insert = connection.prepareStatement(
+                     "INSERT INTO account (username, password) VALUES (?, ?)")) {
+            insert.setString(1, username);
+            insert.setString(2, password);
+            insert.executeUpdate();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Util.BoundedCache;
+
+public class BoundedCacheTest {
+
+    /**
+     * Filling an LRU cache past its weight evicts the least recently used entry.
+     *
+     * Expected Result:
+     *  Key 2 (not read since it was written) is evicted; keys 1 and 3 remain; one eviction is counted.
+     */
+    @Test
+    public void lruEvictsLeastRecentlyUsed() {
+        BoundedCache<Integer, String> cache = new BoundedCache<>(BoundedCache.Policy.LRU, 30, 0, (k, v) -> 10);
+        cache.put(1, "one");
+        cache.put(2, "two");
+        cache.put(3, "three");
+        cache.get(1);
+        cache.put(4, "four");
+
+        Assert.assertEquals("one", cache.get(1));
+        Assert.assertNull(cache.get(2));
+        Assert.assertEquals("three", cache.get(3));
+        Assert.assertEquals(1L, cache.stats().get("evictions"));
+    }
+
+    /**
+     * An entry older than the time-to-live is treated as a miss.
+     *
+     * Expected Result:
+     *  A hit right after writing, a miss and an expiration after the TTL has passed.
+     */
+    @Test
+    public void entriesExpireAfterTtl() throws InterruptedException {
+        BoundedCache<Integer, String> cache = new BoundedCache<>(BoundedCache.Policy.LRU, 100, 50, (k, v) -> 1);
+        cache.put(1, "one");
+        Assert.assertEquals("one", cache.get(1));
+
+        Thread.sleep(100);
+
+        Assert.assertNull(cache.get(1));
+        Map<String, Object> stats = cache.stats();
+        Assert.assertEquals(1L, stats.get("hits"));
+        Assert.assertEquals(1L, stats.get("misses"));
+        Assert.assertEquals(1L, stats.get("expirations"));
+    }
+
+    /**
+     * With TinyLFU admission a rarely requested key does not displace a frequently requested one.
+     *
+     * Expected Result:
+     *  The hot key stays cached and the cold key's admission is rejected.
+     */
+    @Test
+    public void tinyLfuProtectsHotEntries() {
+        BoundedCache<Integer, String> cache = new BoundedCache<>(BoundedCache.Policy.TINY_LFU, 10, 0, (k, v) -> 10);
+        cache.put(1, "hot");
+        for (int i = 0; i < 5; i++) {
+            cache.get(1);
+        }
+        cache.put(2, "cold");
+
+        Assert.assertEquals("hot", cache.get(1));
+        Assert.assertNull(cache.get(2));
+        Assert.assertEquals(1L, cache.stats().get("rejectedAdmissions"));
+    }
+
+    /**
+     * putIfAbsent does not overwrite a live entry, while put does.
+     *
+     * Expected Result:
+     *  The value written by put wins over a later putIfAbsent.
+     */
+    @Test
+    public void putIfAbsentKeepsNewerValue() {
+        BoundedCache<Integer, String> cache = new BoundedCache<>(BoundedCache.Policy.LRU, 100, 0, (k, v) -> 1);
+        cache.put(1, "written");
+        cache.putIfAbsent(1, "stale read");
+
+        Assert.assertEquals("written", cache.get(1));
+    }
+}
@@ -0,0 +1,191 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.Map;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Util.ConnectionPool;
+
+public class ConnectionPoolTest {
+    JdbcDataSource dataSource;
+    ConnectionPool pool;
+
+    /**
+     * Before every test, create a small pool (min 1, max 2, 200 ms acquire timeout, 100 ms idle timeout, 100 ms leak
+     * threshold, 50 ms housekeeping, 2 cached statements per connection) over a private in-memory database so the
+     * tests do not touch the app database.
+     */
+    @Before
+    public void setUp() {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:pooltest;DB_CLOSE_DELAY=-1");
+        dataSource.setUser("sa");
+        dataSource.setPassword("sa");
+        pool = new ConnectionPool(dataSource, 1, 2, 200, 100, 100, 50, 2);
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+    }
+
+    /**
+     * Closing a pooled connection returns the same physical connection to the pool instead of closing it.
+     *
+     * Expected Result:
+     *  The second borrow unwraps to the same physical connection and the pool still holds one open connection.
+     */
+    @Test
+    public void closedConnectionIsReused() throws SQLException {
+        Connection first = pool.getConnection();
+        Connection physical = first.unwrap(Connection.class);
+        first.close();
+
+        Assert.assertTrue(first.isClosed());
+        Assert.assertEquals(0, pool.getActiveCount());
+
+        try (Connection second = pool.getConnection()) {
+            Assert.assertSame(physical, second.unwrap(Connection.class));
+            Assert.assertFalse(physical.isClosed());
+        }
+        Assert.assertEquals(1, pool.getTotalCount());
+    }
+
+    /**
+     * A returned handle can not be used any more, even though its physical connection lives on in the pool.
+     *
+     * Expected Result:
+     *  SQLException when creating a statement on the closed handle.
+     */
+    @Test(expected = SQLException.class)
+    public void returnedHandleRefusesUse() throws SQLException {
+        Connection conn = pool.getConnection();
+        conn.close();
+        conn.createStatement();
+    }
+
+    /**
+     * Borrowing more connections than maxSize waits for the acquire timeout and then fails.
+     *
+     * Expected Result:
+     *  SQLTimeoutException on the third borrow, and the timeout is counted in the pool statistics.
+     */
+    @Test
+    public void acquireTimesOutWhenExhausted() throws SQLException {
+        try (Connection first = pool.getConnection(); Connection second = pool.getConnection()) {
+            Assert.assertEquals(2, pool.getActiveCount());
+            try {
+                pool.getConnection();
+                Assert.fail("Expected the third borrow to time out");
+            } catch (SQLTimeoutException e) {
+                Assert.assertEquals(1L, pool.stats().get("timeouts"));
+            }
+        }
+        Assert.assertEquals(2, pool.getIdleCount());
+    }
+
+    /**
+     * Connections above minSize are closed by the housekeeper after the idle timeout.
+     *
+     * Expected Result:
+     *  The pool shrinks from two open connections back to one.
+     */
+    @Test
+    public void idleConnectionsAreEvictedDownToMinimum() throws SQLException, InterruptedException {
+        Connection first = pool.getConnection();
+        Connection second = pool.getConnection();
+        first.close();
+        second.close();
+        Assert.assertEquals(2, pool.getTotalCount());
+
+        Thread.sleep(400);
+
+        Assert.assertEquals(1, pool.getTotalCount());
+        Assert.assertEquals(1, pool.getIdleCount());
+    }
+
+    /**
+     * A connection held past the leak threshold is reported once.
+     *
+     * Expected Result:
+     *  The leak counter goes up to one while the connection is still held.
+     */
+    @Test
+    public void heldConnectionIsReportedAsLeak() throws SQLException, InterruptedException {
+        try (Connection conn = pool.getConnection(); Statement stmt = conn.createStatement()) {
+            stmt.execute("SELECT 1");
+            Thread.sleep(400);
+            Assert.assertEquals(1, pool.getLeakCount());
+        }
+    }
+
+    /**
+     * Preparing the same SQL again, even after the connection went back to the pool, reuses the prepared statement.
+     *
+     * Expected Result:
+     *  Both borrows get the same physical statement, with the parameters of the first use cleared, and the cache
+     *  counts one miss and one hit.
+     */
+    @Test
+    public void preparedStatementIsReused() throws SQLException {
+        PreparedStatement physical;
+        try (Connection conn = pool.getConnection(); PreparedStatement pstmt = conn.prepareStatement("SELECT ?")) {
+            pstmt.setInt(1, 42);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                rs.next();
+                Assert.assertEquals(42, rs.getInt(1));
+            }
+            physical = pstmt.unwrap(PreparedStatement.class);
+        }
+
+        try (Connection conn = pool.getConnection(); PreparedStatement pstmt = conn.prepareStatement("SELECT ?")) {
+            Assert.assertSame(physical, pstmt.unwrap(PreparedStatement.class));
+            try {
+                pstmt.executeQuery();
+                Assert.fail("Expected the parameters of the previous use to be cleared");
+            } catch (SQLException e) {
+                // Parameter 1 is not set
+            }
+        }
+
+        Map<?, ?> statementCache = (Map<?, ?>) pool.stats().get("statementCache");
+        Assert.assertEquals(1L, statementCache.get("hits"));
+        Assert.assertEquals(1L, statementCache.get("misses"));
+    }
+
+    /**
+     * Preparing more distinct statements than the cache holds evicts and closes the least recently used one.
+     *
+     * Expected Result:
+     *  The first statement is closed once a third is returned to a cache of two, and closing a statement handle
+     *  makes it refuse further use.
+     */
+    @Test
+    public void leastRecentlyUsedStatementIsEvicted() throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            PreparedStatement first = conn.prepareStatement("SELECT 1");
+            PreparedStatement physicalFirst = first.unwrap(PreparedStatement.class);
+            first.close();
+            conn.prepareStatement("SELECT 2").close();
+            conn.prepareStatement("SELECT 3").close();
+
+            Assert.assertTrue(physicalFirst.isClosed());
+            Assert.assertTrue(first.isClosed());
+            Assert.assertEquals(1L, ((Map<?, ?>) pool.stats().get("statementCache")).get("evictions"));
+            try {
+                first.executeQuery();
+                Assert.fail("Expected a closed statement handle to refuse use");
+            } catch (SQLException e) {
+                // Already closed
+            }
+        }
+    }
+}
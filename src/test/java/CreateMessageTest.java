@@ -9,6 +9,7 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import Controller.SocialMediaController;
@@ -149,4 +150,96 @@ public class CreateMessageTest {
     }
 
 
+    /**
+     * Logging in as testuser1 and posting with the session token it returns: once for account 1, once for
+     * account 2, and once with a token that has been tampered with.
+     * 
+     * Expected Response:
+     *  Login: Status Code 200 with an X-Auth-Token header
+     *  Own account: Status Code 200
+     *  Other account: Status Code 403
+     *  Tampered token: Status Code 401
+     */
+    @Test
+    public void createMessageWithSessionToken() throws IOException, InterruptedException {
+        HttpRequest loginRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/login"))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"username\": \"testuser1\", " +
+                        "\"password\": \"password\" }"))
+                .header("Content-Type", "application/json")
+                .build();
+        HttpResponse<String> loginResponse = webClient.send(loginRequest, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, loginResponse.statusCode());
+        String token = loginResponse.headers().firstValue("X-Auth-Token").orElse(null);
+        Assert.assertNotNull(token);
+
+        Assert.assertEquals(200, postWithToken(1, token).statusCode());
+        Assert.assertEquals(403, postWithToken(2, token).statusCode());
+        Assert.assertEquals(401, postWithToken(1, token.substring(0, token.length() - 2) + "xx").statusCode());
+    }
+
+    /**
+     * Restarting the app with socialmedia.auth.keyRotationSeconds=3, logging in as testuser1, waiting over 3 seconds
+     * and logging in again, then posting for account 1 with each token.
+     *
+     * Expected Response:
+     *  The second token is signed by key 2 after the scheduled rotation, and both are accepted: Status Code 200 for
+     *  both posts. /metrics shows key 2 signing, keys 2 and 1 accepted, and one rotation.
+     */
+    @Test
+    public void sessionKeysRotateWithoutLoggingAnyoneOut() throws Exception {
+        app.stop();
+        System.setProperty("socialmedia.auth.keyRotationSeconds", "3");
+        try {
+            socialMediaController = new SocialMediaController();
+            app = socialMediaController.startAPI();
+        } finally {
+            System.clearProperty("socialmedia.auth.keyRotationSeconds");
+        }
+        app.start(8080);
+        Thread.sleep(1000);
+
+        String before = login();
+        Thread.sleep(3100);
+        String after = login();
+        Assert.assertTrue(before, before.startsWith("1."));
+        Assert.assertTrue(after, after.startsWith("2."));
+        Assert.assertEquals(200, postWithToken(1, before).statusCode());
+        Assert.assertEquals(200, postWithToken(1, after).statusCode());
+
+        HttpResponse<String> metrics = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/metrics")).build(), HttpResponse.BodyHandlers.ofString());
+        JsonNode sessionTokens = objectMapper.readTree(metrics.body()).get("sessionTokens");
+        Assert.assertEquals(2, sessionTokens.get("signingKey").asInt());
+        Assert.assertEquals("[2,1]", sessionTokens.get("keys").toString());
+        Assert.assertEquals(1, sessionTokens.get("rotations").asInt());
+    }
+
+    private String login() throws IOException, InterruptedException {
+        HttpRequest loginRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/login"))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"username\": \"testuser1\", " +
+                        "\"password\": \"password\" }"))
+                .header("Content-Type", "application/json")
+                .build();
+        HttpResponse<String> loginResponse = webClient.send(loginRequest, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, loginResponse.statusCode());
+        return loginResponse.headers().firstValue("X-Auth-Token").orElseThrow();
+    }
+
+    private HttpResponse<String> postWithToken(int postedBy, String token) throws IOException, InterruptedException {
+        HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{"+
+                        "\"posted_by\":" + postedBy + ", " +
+                        "\"message_text\": \"hello message\", " +
+                        "\"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .header("Authorization", "Bearer " + token)
+                .build();
+        return webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString());
+    }
+
 }
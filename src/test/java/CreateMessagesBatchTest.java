@@ -0,0 +1,148 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class CreateMessagesBatchTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/messages/batch with two valid messages
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the generated message ids 2 and 3, in input order
+     *  Both messages can then be retrieved with GET localhost:8080/messages/{message_id}
+     */
+    @Test
+    public void createBatchSuccessful() throws IOException, InterruptedException {
+        HttpResponse<String> response = postBatch("[" +
+                "{\"posted_by\":1, \"message_text\": \"batch message 1\", \"time_posted_epoch\": 1669947792}," +
+                "{\"posted_by\":1, \"message_text\": \"batch message 2\", \"time_posted_epoch\": 1669947792}]");
+
+        Assert.assertEquals(200, response.statusCode());
+        List<Map<String, Object>> results = readResults(response);
+        Assert.assertEquals(List.of(Map.of("message_id", 2), Map.of("message_id", 3)), results);
+
+        HttpResponse<String> created = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/3"))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(new Message(3, 1, "batch message 2", 1669947792),
+                objectMapper.readValue(created.body(), Message.class));
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/messages/batch where the second message is blank and the
+     * third is posted by an account that does not exist
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: an id for the first and last messages and an error for the two invalid ones, in input order
+     */
+    @Test
+    public void createBatchReportsInvalidItems() throws IOException, InterruptedException {
+        HttpResponse<String> response = postBatch("[" +
+                "{\"posted_by\":1, \"message_text\": \"valid 1\", \"time_posted_epoch\": 1669947792}," +
+                "{\"posted_by\":1, \"message_text\": \" \", \"time_posted_epoch\": 1669947792}," +
+                "{\"posted_by\":999, \"message_text\": \"nobody\", \"time_posted_epoch\": 1669947792}," +
+                "{\"posted_by\":1, \"message_text\": \"valid 2\", \"time_posted_epoch\": 1669947792}]");
+
+        Assert.assertEquals(200, response.statusCode());
+        List<Map<String, Object>> results = readResults(response);
+        Assert.assertEquals(4, results.size());
+        Assert.assertEquals(Map.of("message_id", 2), results.get(0));
+        Assert.assertTrue(results.get(1).containsKey("error"));
+        Assert.assertTrue(results.get(2).containsKey("error"));
+        Assert.assertEquals(Map.of("message_id", 3), results.get(3));
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/messages/batch with an empty array
+     *
+     * Expected Response:
+     *  Status Code: 400
+     *  Response Body:
+     */
+    @Test
+    public void createBatchEmpty() throws IOException, InterruptedException {
+        HttpResponse<String> response = postBatch("[]");
+
+        Assert.assertEquals(400, response.statusCode());
+        Assert.assertTrue(response.body().isEmpty());
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/messages/batch with an invalid session token and a batch
+     * holding only null, which names no account to check the token against
+     *
+     * Expected Response:
+     *  Status Code: 401
+     *  Response Body:
+     */
+    @Test
+    public void createBatchWithInvalidTokenOfNullItems() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/batch"))
+                .POST(HttpRequest.BodyPublishers.ofString("[null]"))
+                .header("Content-Type", "application/json")
+                .header("Authorization", "Bearer 1.1.0.forged")
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+
+        Assert.assertEquals(401, response.statusCode());
+        Assert.assertTrue(response.body().isEmpty());
+    }
+
+    private HttpResponse<String> postBatch(String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/batch"))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private List<Map<String, Object>> readResults(HttpResponse<String> response) throws IOException {
+        return objectMapper.readValue(response.body(), new TypeReference<List<Map<String, Object>>>(){});
+    }
+}
@@ -0,0 +1,98 @@
+package DAO;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Util.ConnectionUtil;
+
+public class QueryPlanTest {
+
+    /**
+     * The DAO queries that run on every request and must always be answered from an index. SELECT_ALL_MESSAGES is
+     * left out on purpose, since reading the whole table is its job.
+     */
+    private static final Map<String, String> HOT_QUERIES = new LinkedHashMap<>();
+
+    static {
+        HOT_QUERIES.put("MessageDAO.SELECT_MESSAGES_PAGE", MessageDAO.SELECT_MESSAGES_PAGE);
+        HOT_QUERIES.put("MessageDAO.SELECT_MESSAGE_BY_ID", MessageDAO.SELECT_MESSAGE_BY_ID);
+        HOT_QUERIES.put("MessageDAO.SELECT_MESSAGES_BY_POSTER", MessageDAO.SELECT_MESSAGES_BY_POSTER);
+        HOT_QUERIES.put("MessageDAO.SELECT_MESSAGES_BY_POSTER_PAGE", MessageDAO.SELECT_MESSAGES_BY_POSTER_PAGE);
+        HOT_QUERIES.put("MessageDAO.SELECT_LATEST_MESSAGES_BY_POSTER", MessageDAO.SELECT_LATEST_MESSAGES_BY_POSTER);
+        HOT_QUERIES.put("MessageDAO.UPDATE_MESSAGE_TEXT", MessageDAO.UPDATE_MESSAGE_TEXT);
+        HOT_QUERIES.put("MessageDAO.DELETE_MESSAGE_BY_ID", MessageDAO.DELETE_MESSAGE_BY_ID);
+        HOT_QUERIES.put("AccountDAO.SELECT_ACCOUNT_BY_USERNAME", AccountDAO.SELECT_ACCOUNT_BY_USERNAME);
+        HOT_QUERIES.put("AccountDAO.SELECT_ACCOUNT_BY_ID", AccountDAO.SELECT_ACCOUNT_BY_ID);
+    }
+
+    /**
+     * Before every test, reset the database so the tables and migrated indexes are in their known state.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+    }
+
+    /**
+     * Runs EXPLAIN on every hot DAO query.
+     *
+     * Expected Result:
+     *  No plan contains a table scan.
+     */
+    @Test
+    public void hotQueriesUseIndexes() throws SQLException {
+        List<String> scans = new ArrayList<>();
+        for (Map.Entry<String, String> query : HOT_QUERIES.entrySet()) {
+            String plan = explain(query.getValue());
+            if (plan.contains("tableScan")) {
+                scans.add(query.getKey() + ":\n" + plan);
+            }
+        }
+        Assert.assertTrue("Queries falling back to a table scan:\n" + String.join("\n\n", scans), scans.isEmpty());
+    }
+
+    /**
+     * Looks up the secondary indexes added by the V2 migration.
+     *
+     * Expected Result:
+     *  Both the posted_by and the time_posted_epoch indexes exist on the message table.
+     */
+    @Test
+    public void messageIndexesExist() throws SQLException {
+        List<String> indexes = new ArrayList<>();
+        try (Connection conn = ConnectionUtil.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(
+                     "SELECT index_name FROM information_schema.indexes WHERE table_name = 'MESSAGE'");
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                indexes.add(rs.getString(1));
+            }
+        }
+        Assert.assertTrue(indexes.toString(), indexes.contains("IDX_MESSAGE_POSTED_BY"));
+        Assert.assertTrue(indexes.toString(), indexes.contains("IDX_MESSAGE_TIME_POSTED"));
+    }
+
+    private String explain(String sql) throws SQLException {
+        try (Connection conn = ConnectionUtil.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement("EXPLAIN " + sql)) {
+            int parameters = pstmt.getParameterMetaData().getParameterCount();
+            for (int i = 1; i <= parameters; i++) {
+                pstmt.setObject(i, 1);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                rs.next();
+                return rs.getString(1);
+            }
+        }
+    }
+}
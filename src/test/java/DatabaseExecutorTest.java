@@ -0,0 +1,62 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Service.DatabaseExecutor;
+
+public class DatabaseExecutorTest {
+
+    /**
+     * Filling the listMessages bulkhead (8 by default) with tasks that block, then submitting one more list task
+     * and a login task.
+     *
+     * Expected Result:
+     *  The extra list task fails at once with BulkheadFullException, the login still runs to completion, and once
+     *  the blocked tasks finish list tasks are accepted again.
+     */
+    @Test
+    public void fullBulkheadDoesNotStarveOtherOperations() throws Exception {
+        DatabaseExecutor database = DatabaseExecutor.shared();
+        CountDownLatch release = new CountDownLatch(1);
+        List<CompletableFuture<Boolean>> blocked = new ArrayList<>();
+        try {
+            for (int i = 0; i < 8; i++) {
+                blocked.add(database.submit(DatabaseExecutor.Operation.LIST_MESSAGES,
+                        () -> await(release)));
+            }
+
+            CompletableFuture<String> rejected = database.submit(DatabaseExecutor.Operation.LIST_MESSAGES, () -> "list");
+            try {
+                rejected.get(1, TimeUnit.SECONDS);
+                Assert.fail("The ninth list task should have been rejected");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof DatabaseExecutor.BulkheadFullException);
+            }
+
+            Assert.assertEquals("login", database.submit(DatabaseExecutor.Operation.LOGIN, () -> "login")
+                    .get(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+        }
+        for (CompletableFuture<Boolean> task : blocked) {
+            Assert.assertTrue(task.get(5, TimeUnit.SECONDS));
+        }
+        Assert.assertEquals("list", database.submit(DatabaseExecutor.Operation.LIST_MESSAGES, () -> "list")
+                .get(5, TimeUnit.SECONDS));
+    }
+
+    private static boolean await(CountDownLatch latch) {
+        try {
+            return latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
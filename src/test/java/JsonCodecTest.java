@@ -0,0 +1,66 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Model.Message;
+import Util.JsonCodec;
+
+public class JsonCodecTest {
+
+    /**
+     * Reading message_text from a body that also holds other fields, including nested ones.
+     *
+     * Expected Result:
+     *  The text of message_text; fields before and after it are skipped.
+     */
+    @Test
+    public void readStringFieldSkipsOtherFields() throws IOException {
+        String json = "{\"posted_by\": 1, \"extra\": {\"message_text\": \"nested\"}, \"message_text\": \"updated\", \"list\": [1, 2]}";
+
+        Assert.assertEquals("updated", JsonCodec.INSTANCE.readStringField(bytes(json), "message_text"));
+    }
+
+    /**
+     * Reading message_text from bodies where it is missing or null.
+     *
+     * Expected Result:
+     *  null in both cases.
+     */
+    @Test
+    public void readStringFieldMissingOrNull() throws IOException {
+        Assert.assertNull(JsonCodec.INSTANCE.readStringField(bytes("{\"posted_by\": 1}"), "message_text"));
+        Assert.assertNull(JsonCodec.INSTANCE.readStringField(bytes("{\"message_text\": null}"), "message_text"));
+    }
+
+    /**
+     * Reading message_text from a body that is not a complete JSON object.
+     *
+     * Expected Result:
+     *  IOException, even though message_text itself was readable.
+     */
+    @Test(expected = IOException.class)
+    public void readStringFieldRejectsMalformedJson() throws IOException {
+        JsonCodec.INSTANCE.readStringField(bytes("{\"message_text\": \"updated\", "), "message_text");
+    }
+
+    /**
+     * Writing a Message and reading it back through the shared writer and reader.
+     *
+     * Expected Result:
+     *  An equal Message.
+     */
+    @Test
+    public void messageRoundTrip() {
+        Message message = new Message(1, 2, "round trip", 1669947792);
+
+        String json = JsonCodec.INSTANCE.toJsonString(message, Message.class);
+
+        Assert.assertEquals(message, JsonCodec.INSTANCE.fromJsonString(json, Message.class));
+    }
+
+    private static byte[] bytes(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,230 @@
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import Model.Message;
+import Service.MessageEventBus;
+
+public class MessageEventBusTest {
+    MessageEventBus bus;
+
+    @After
+    public void tearDown() {
+        bus.close();
+    }
+
+    /**
+     * Subscribing once to every message and once to the messages of account 2, then publishing a message of
+     * account 1 and one of account 2.
+     *
+     * Expected Result:
+     *  The unfiltered subscriber gets both events in publish order; the filtered one only gets account 2's.
+     */
+    @Test
+    public void subscribersOnlyGetWhatTheyAskedFor() throws InterruptedException {
+        bus = new MessageEventBus(16, MessageEventBus.OverflowPolicy.DROP_OLDEST, 2, 0, 5000);
+        RecordingSubscriber everything = new RecordingSubscriber(2);
+        RecordingSubscriber account2 = new RecordingSubscriber(1);
+        bus.subscribe(null, everything);
+        bus.subscribe(2, account2);
+
+        bus.publish(MessageEventBus.EventType.CREATED, new Message(1, 1, "from account 1", 1669947792));
+        bus.publish(MessageEventBus.EventType.DELETED, new Message(2, 2, "from account 2", 1669947792));
+
+        Assert.assertTrue(everything.received.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(account2.received.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(List.of("created", "deleted"), everything.names);
+        Assert.assertEquals(List.of("deleted"), account2.names);
+        Assert.assertTrue(account2.data.get(0).contains("\"message_id\":2"));
+    }
+
+    /**
+     * Publishing 10 events to a subscriber whose queue holds 2 while its first write is stuck, with each overflow
+     * policy.
+     *
+     * Expected Result:
+     *  DROP_OLDEST delivers the stuck event and the last 2, DROP_NEWEST the stuck event and the next 2, and
+     *  DISCONNECT closes the subscriber and stops counting it.
+     */
+    @Test
+    public void fullQueuesFollowTheOverflowPolicy() throws InterruptedException {
+        Assert.assertEquals(List.of("1", "9", "10"), receivedWhileStuck(MessageEventBus.OverflowPolicy.DROP_OLDEST));
+        Assert.assertEquals(List.of("1", "2", "3"), receivedWhileStuck(MessageEventBus.OverflowPolicy.DROP_NEWEST));
+
+        bus = new MessageEventBus(2, MessageEventBus.OverflowPolicy.DISCONNECT, 1, 0, 5000);
+        RecordingSubscriber subscriber = new RecordingSubscriber(1);
+        subscriber.holdFirstSend();
+        bus.subscribe(null, subscriber);
+        for (int i = 1; i <= 10; i++) {
+            bus.publish(MessageEventBus.EventType.CREATED, new Message(i, 1, Integer.toString(i), 1669947792));
+        }
+        awaitCondition(() -> subscriber.closed);
+        subscriber.releaseFirstSend();
+        Assert.assertEquals(0, bus.stats().get("subscribers"));
+        Assert.assertEquals(1L, bus.stats().get("disconnected"));
+    }
+
+    /**
+     * Following accounts 1 and 2 on one subscription, publishing a message of each, then unfollowing account 1 and
+     * publishing another of each; meanwhile the first delivery is held up so the later events pile up.
+     *
+     * Expected Result:
+     *  The subscriber gets account 1's first message and both of account 2's, and the events that piled up arrive
+     *  together in one batch.
+     */
+    @Test
+    public void followedPostersCanChangeAndEventsArriveBatched() throws InterruptedException {
+        bus = new MessageEventBus(16, MessageEventBus.OverflowPolicy.DROP_OLDEST, 1, 0, 5000);
+        RecordingSubscriber subscriber = new RecordingSubscriber(3);
+        subscriber.holdFirstSend();
+        MessageEventBus.Subscription subscription = bus.subscribe(subscriber);
+        subscription.follow(1);
+        subscription.follow(2);
+        Assert.assertEquals(List.of(1, 2), subscription.getFollowed());
+
+        bus.publish(MessageEventBus.EventType.CREATED, new Message(1, 1, "1", 1669947792));
+        Assert.assertTrue(subscriber.sending.await(5, TimeUnit.SECONDS));
+        bus.publish(MessageEventBus.EventType.CREATED, new Message(2, 2, "2", 1669947792));
+        subscription.unfollow(1);
+        bus.publish(MessageEventBus.EventType.CREATED, new Message(3, 1, "3", 1669947792));
+        bus.publish(MessageEventBus.EventType.CREATED, new Message(4, 2, "4", 1669947792));
+        awaitCondition(() -> Long.valueOf(3).equals(bus.stats().get("published")));
+        Thread.sleep(100); // Let the dispatcher hand them on before the first delivery finishes
+        subscriber.releaseFirstSend();
+
+        Assert.assertTrue(subscriber.received.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(List.of("1", "2", "4"), subscriber.texts());
+        Assert.assertEquals(List.of(1, 2), subscriber.batches);
+
+        subscription.cancel();
+        Assert.assertEquals(0, bus.stats().get("subscribers"));
+    }
+
+    /**
+     * Subscribing a client that never reads, whose writes never complete, next to a healthy one on a bus with a
+     * single delivery thread and a 200 ms write timeout, then publishing 3 events.
+     *
+     * Expected Result:
+     *  The healthy subscriber still gets all 3 events, and the stuck one is closed and dropped once its first write
+     *  times out.
+     */
+    @Test
+    public void aClientThatNeverReadsHoldsUpNoOne() throws InterruptedException {
+        bus = new MessageEventBus(16, MessageEventBus.OverflowPolicy.DROP_OLDEST, 1, 0, 200);
+        CountDownLatch stuckSending = new CountDownLatch(1);
+        CountDownLatch stuckClosed = new CountDownLatch(1);
+        bus.subscribe(null, new MessageEventBus.Subscriber() {
+            @Override
+            public CompletionStage<Void> send(List<MessageEventBus.Event> events) {
+                stuckSending.countDown();
+                return new CompletableFuture<>(); // The client's buffer is full and stays full
+            }
+
+            @Override
+            public void close() {
+                stuckClosed.countDown();
+            }
+        });
+        RecordingSubscriber healthy = new RecordingSubscriber(3);
+        bus.subscribe(null, healthy);
+
+        for (int i = 1; i <= 3; i++) {
+            bus.publish(MessageEventBus.EventType.CREATED, new Message(i, 1, Integer.toString(i), 1669947792));
+        }
+        Assert.assertTrue(stuckSending.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(healthy.received.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(List.of("1", "2", "3"), healthy.texts());
+
+        Assert.assertTrue(stuckClosed.await(5, TimeUnit.SECONDS));
+        awaitCondition(() -> Integer.valueOf(1).equals(bus.stats().get("subscribers")));
+        Assert.assertEquals(1L, bus.stats().get("writeTimeouts"));
+    }
+
+    private List<String> receivedWhileStuck(MessageEventBus.OverflowPolicy policy) throws InterruptedException {
+        bus = new MessageEventBus(2, policy, 1, 0, 5000);
+        RecordingSubscriber subscriber = new RecordingSubscriber(3);
+        subscriber.holdFirstSend();
+        bus.subscribe(null, subscriber);
+        bus.publish(MessageEventBus.EventType.CREATED, new Message(1, 1, "1", 1669947792));
+        Assert.assertTrue(subscriber.sending.await(5, TimeUnit.SECONDS)); // Event 1 is now out of the queue
+        for (int i = 2; i <= 10; i++) {
+            bus.publish(MessageEventBus.EventType.CREATED, new Message(i, 1, Integer.toString(i), 1669947792));
+        }
+        awaitCondition(() -> Long.valueOf(7).equals(bus.stats().get("dropped"))); // Dispatch is asynchronous
+        subscriber.releaseFirstSend();
+        Assert.assertTrue(subscriber.received.await(5, TimeUnit.SECONDS));
+        bus.close();
+        return subscriber.texts();
+    }
+
+    private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            Assert.assertTrue("Timed out waiting for the bus", System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Records what it is sent; the first write can be held up to simulate a slow client.
+     */
+    private static class RecordingSubscriber implements MessageEventBus.Subscriber {
+        final List<String> names = new CopyOnWriteArrayList<>();
+        final List<String> data = new CopyOnWriteArrayList<>();
+        final List<Integer> batches = new CopyOnWriteArrayList<>();
+        final CountDownLatch received;
+        final CountDownLatch sending = new CountDownLatch(1);
+        final AtomicBoolean holding = new AtomicBoolean();
+        final CompletableFuture<Void> firstWrite = new CompletableFuture<>();
+        volatile boolean closed;
+
+        RecordingSubscriber(int expectedEvents) {
+            received = new CountDownLatch(expectedEvents);
+        }
+
+        void holdFirstSend() {
+            holding.set(true);
+        }
+
+        void releaseFirstSend() {
+            firstWrite.complete(null);
+        }
+
+        @Override
+        public CompletionStage<Void> send(List<MessageEventBus.Event> events) {
+            sending.countDown();
+            if (holding.compareAndSet(true, false)) {
+                return firstWrite.thenRun(() -> record(events));
+            }
+            record(events);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        private void record(List<MessageEventBus.Event> events) {
+            batches.add(events.size());
+            for (MessageEventBus.Event event : events) {
+                names.add(event.getName());
+                data.add(event.getData());
+                received.countDown();
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        List<String> texts() {
+            return data.stream().map(json -> json.replaceAll(".*\"message_text\":\"([^\"]*)\".*", "$1")).toList();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class MessageEventStreamTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Subscribing to GET localhost:8080/messages/stream?posted_by=1 with Accept: text/event-stream, then posting a
+     * message for user 1
+     * 
+     * Expected Response:
+     *  Status Code: 200
+     *  Content-Type: text/event-stream
+     *  Response Body: a "created" event whose data is the new message as JSON
+     */
+    @Test
+    public void streamReceivesCreatedMessage() throws Exception {
+        HttpRequest streamRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/stream?posted_by=1"))
+                .header("Accept", "text/event-stream")
+                .build();
+        HttpResponse<Stream<String>> stream = webClient.sendAsync(streamRequest, HttpResponse.BodyHandlers.ofLines())
+                .get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(200, stream.statusCode());
+        Assert.assertTrue(stream.headers().firstValue("Content-Type").orElse("").startsWith("text/event-stream"));
+
+        HttpRequest postRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\": 1, \"message_text\": \"live message\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        webClient.send(postRequest, HttpResponse.BodyHandlers.ofString());
+
+        Iterator<String> lines = stream.body().iterator();
+        String eventName = null;
+        while (lines.hasNext()) {
+            String line = lines.next();
+            if (line.startsWith("event: ")) {
+                eventName = line.substring("event: ".length());
+            } else if (line.startsWith("data: ")) {
+                Assert.assertEquals("created", eventName);
+                Message message = objectMapper.readValue(line.substring("data: ".length()), Message.class);
+                Assert.assertEquals(new Message(2, 1, "live message", 1669947792), message);
+                break;
+            }
+        }
+        stream.body().close();
+    }
+
+    /**
+     * Opening a stream that never reads, on a server with one event delivery thread and a 1 second write timeout,
+     * then a second, healthy stream, and posting batches of 1000 long messages for user 1 until the stalled stream
+     * is dropped.
+     *
+     * Expected Response:
+     *  /metrics counts the stalled stream as dropped after its write timed out, and the healthy stream still gets the
+     *  "created" event of the last message.
+     */
+    @Test
+    public void stalledStreamDoesNotHoldUpOthers() throws Exception {
+        app.stop();
+        System.setProperty("socialmedia.events.deliveryThreads", "1");
+        System.setProperty("socialmedia.events.writeTimeoutSeconds", "1");
+        System.setProperty("socialmedia.ratelimit.enabled", "false");
+        try {
+            socialMediaController = new SocialMediaController();
+            app = socialMediaController.startAPI();
+        } finally {
+            System.clearProperty("socialmedia.events.deliveryThreads");
+            System.clearProperty("socialmedia.events.writeTimeoutSeconds");
+            System.clearProperty("socialmedia.ratelimit.enabled");
+        }
+        app.start(8080);
+        Thread.sleep(1000);
+
+        try (Socket stalled = new Socket()) {
+            stalled.setReceiveBufferSize(1024); // Before connecting, so the window stays small
+            stalled.connect(new InetSocketAddress("localhost", 8080));
+            stalled.getOutputStream().write(("GET /messages/stream HTTP/1.1\r\nHost: localhost\r\n"
+                    + "Accept: text/event-stream\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            stalled.getOutputStream().flush(); // And never read
+
+            HttpResponse<Stream<String>> stream = webClient.sendAsync(HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/messages/stream?posted_by=1"))
+                    .header("Accept", "text/event-stream")
+                    .build(), HttpResponse.BodyHandlers.ofLines()).get(5, TimeUnit.SECONDS);
+            Assert.assertEquals(200, stream.statusCode());
+            AtomicReference<String> lastData = new AtomicReference<>("");
+            CompletableFuture.runAsync(() -> stream.body() // Reads as fast as events come
+                    .filter(line -> line.startsWith("data: "))
+                    .forEach(lastData::set));
+
+            String text = "x".repeat(250);
+            StringBuilder batch = new StringBuilder("[");
+            for (int i = 0; i < 1000; i++) {
+                batch.append(i == 0 ? "" : ",").append("{\"posted_by\":1, \"message_text\": \"").append(text)
+                        .append("\"}");
+            }
+            HttpRequest postBatch = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/messages/batch"))
+                    .POST(HttpRequest.BodyPublishers.ofString(batch.append("]").toString()))
+                    .header("Content-Type", "application/json")
+                    .build();
+            // Until the stalled stream's socket buffers, which the kernel may grow to a few MB, are full and its
+            // write times out
+            int batches = 0;
+            long writeTimeouts = 0;
+            while (writeTimeouts == 0 && batches < 40) {
+                Assert.assertEquals(200, webClient.send(postBatch, HttpResponse.BodyHandlers.ofString()).statusCode());
+                batches++;
+                HttpResponse<String> metrics = webClient.send(HttpRequest.newBuilder()
+                        .uri(URI.create("http://localhost:8080/metrics")).build(), HttpResponse.BodyHandlers.ofString());
+                writeTimeouts = objectMapper.readTree(metrics.body()).get("messageEvents").get("writeTimeouts").asLong();
+            }
+            Assert.assertEquals(1, writeTimeouts);
+
+            // Message 1 is the seeded one
+            String lastMessageId = "\"message_id\":" + (1 + 1000 * batches) + ",";
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (!lastData.get().contains(lastMessageId) && System.nanoTime() < deadline) {
+                Thread.sleep(50);
+            }
+            Assert.assertTrue(lastData.get(), lastData.get().contains(lastMessageId));
+            stream.body().close();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.MessageDAO;
+import Model.Message;
+import Service.MessageService;
+import Util.ConnectionUtil;
+
+public class MessageServiceCacheTest {
+
+    private InterleavingMessageDAO messageDAO;
+    private MessageService messageService;
+
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        messageDAO = new InterleavingMessageDAO();
+        messageService = new MessageService(messageDAO);
+    }
+
+    @After
+    public void tearDown() {
+        messageService.close();
+    }
+
+    /**
+     * Reading message 1 into the cache while a delete of it commits between the database read and the cache fill.
+     *
+     * Expected Result:
+     *  The racing read returns the row it saw, but does not leave it cached: the next read finds no message.
+     */
+    @Test
+    public void fillRacingDeleteIsNotCached() throws SQLException {
+        messageDAO.duringNextRead = () -> Assert.assertNotNull(messageService.deleteMessageById(1));
+
+        Assert.assertEquals("test message 1", messageService.getMessageById(1).getMessage_text());
+        Assert.assertNull(messageService.getMessageById(1));
+    }
+
+    /**
+     * Reading message 1 into the cache while an update of it commits between the database read and the cache fill.
+     *
+     * Expected Result:
+     *  The next read returns the updated text, not the row the racing read saw.
+     */
+    @Test
+    public void fillRacingUpdateIsNotCached() throws SQLException {
+        messageDAO.duringNextRead = () -> messageService.updateMessage(new Message(1, 1, "updated", 1669947792));
+
+        messageService.getMessageById(1);
+        Assert.assertEquals("updated", messageService.getMessageById(1).getMessage_text());
+    }
+
+    /**
+     * Updating cached message 1 while a delete of it commits after the update's own commit and before the service
+     * updates the cache.
+     *
+     * Expected Result:
+     *  The update returns the row it wrote, but the deleted message is not brought back: the next read finds none.
+     */
+    @Test
+    public void updateRacingDeleteIsNotCached() throws SQLException {
+        messageService.getMessageById(1);
+        messageDAO.duringNextUpdate = () -> Assert.assertNotNull(messageService.deleteMessageById(1));
+
+        Assert.assertEquals("updated", messageService.updateMessage(new Message(1, 1, "updated", 1669947792))
+                .getMessage_text());
+        Assert.assertNull(messageService.getMessageById(1));
+    }
+
+    /**
+     * Updating cached message 1 to "first" while a second update to "second" commits after it and reaches the cache
+     * before it.
+     *
+     * Expected Result:
+     *  The next read returns "second", the text that committed last, not the older one written to the cache last.
+     */
+    @Test
+    public void updateRacingUpdateKeepsTheLastCommit() throws SQLException {
+        messageService.getMessageById(1);
+        messageDAO.duringNextUpdate = () -> messageService.updateMessage(new Message(1, 1, "second", 1669947792));
+
+        messageService.updateMessage(new Message(1, 1, "first", 1669947792));
+        Assert.assertEquals("second", messageService.getMessageById(1).getMessage_text());
+    }
+
+    @FunctionalInterface
+    private interface Interleaving {
+        void run() throws SQLException;
+    }
+
+    /**
+     * Runs a write once, after the next read has its row or the next update has committed, and before the service
+     * caches the result.
+     */
+    private static class InterleavingMessageDAO extends MessageDAO {
+        private Interleaving duringNextRead;
+        private Interleaving duringNextUpdate;
+
+        @Override
+        public Message updateMessage(Message message) throws SQLException {
+            Message updated = super.updateMessage(message);
+            Interleaving interleaving = duringNextUpdate;
+            duringNextUpdate = null;
+            if (interleaving != null) {
+                interleaving.run();
+            }
+            return updated;
+        }
+
+        @Override
+        public Message getMessageById(int messageId) throws SQLException {
+            Message message = super.getMessageById(messageId);
+            Interleaving interleaving = duringNextRead;
+            duringNextRead = null;
+            if (interleaving != null) {
+                interleaving.run();
+            }
+            return message;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.WebSocket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class MessageWebSocketTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Connecting to ws://localhost:8080/ws/messages, subscribing to accounts 1 and 2, then posting a message for
+     * user 1; afterwards unsubscribing from account 1 and posting another one, and sending a malformed request.
+     *
+     * Expected Response:
+     *  A "subscribed" reply listing [1, 2], an "events" frame with a "created" event for the new message, a
+     *  "subscribed" reply listing [2], and an "error" reply, with no event for the second message.
+     */
+    @Test
+    public void webSocketReceivesChangesOfFollowedAccounts() throws Exception {
+        BlockingQueue<String> frames = new LinkedBlockingQueue<>();
+        WebSocket webSocket = webClient.newWebSocketBuilder()
+                .buildAsync(URI.create("ws://localhost:8080/ws/messages"), new WebSocket.Listener() {
+                    private final StringBuilder text = new StringBuilder();
+
+                    @Override
+                    public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+                        text.append(data);
+                        if (last) {
+                            frames.add(text.toString());
+                            text.setLength(0);
+                        }
+                        webSocket.request(1);
+                        return null;
+                    }
+                })
+                .get(5, TimeUnit.SECONDS);
+
+        webSocket.sendText("{\"action\": \"subscribe\", \"posted_by\": [1, 2]}", true).get(5, TimeUnit.SECONDS);
+        JsonNode subscribed = nextFrame(frames);
+        Assert.assertEquals("subscribed", subscribed.get("type").asText());
+        Assert.assertEquals("[1,2]", subscribed.get("posted_by").toString());
+
+        postMessage("{\"posted_by\": 1, \"message_text\": \"live message\"}");
+        JsonNode events = nextFrame(frames);
+        Assert.assertEquals("events", events.get("type").asText());
+        JsonNode event = events.get("events").get(0);
+        Assert.assertEquals("created", event.get("event").asText());
+        Assert.assertEquals(new Message(2, 1, "live message", 1669947792),
+                objectMapper.treeToValue(event.get("message"), Message.class));
+
+        webSocket.sendText("{\"action\": \"unsubscribe\", \"posted_by\": 1}", true).get(5, TimeUnit.SECONDS);
+        Assert.assertEquals("[2]", nextFrame(frames).get("posted_by").toString());
+        postMessage("{\"posted_by\": 1, \"message_text\": \"missed message\"}");
+        webSocket.sendText("not json", true).get(5, TimeUnit.SECONDS);
+        Assert.assertEquals("error", nextFrame(frames).get("type").asText());
+
+        webSocket.sendClose(WebSocket.NORMAL_CLOSURE, "").get(5, TimeUnit.SECONDS);
+    }
+
+    private JsonNode nextFrame(BlockingQueue<String> frames) throws Exception {
+        String frame = frames.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull("No frame received", frame);
+        return objectMapper.readTree(frame);
+    }
+
+    private void postMessage(String body) throws Exception {
+        HttpRequest postRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        HttpResponse<String> response = webClient.send(postRequest, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+    }
+}
@@ -0,0 +1,147 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.MessageDAO;
+import Model.Message;
+import Service.MessageWriteCoalescer;
+import Service.OverloadedException;
+import Util.ConnectionUtil;
+
+public class MessageWriteCoalescerTest {
+    MessageDAO messageDAO;
+    MessageWriteCoalescer coalescer;
+
+    /**
+     * Before every test, reset the database and create a coalescer with one writer thread that collects for up to
+     * 50 ms or 64 messages per batch, so concurrent writes from the test reliably share batches.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        messageDAO = new MessageDAO();
+        coalescer = new MessageWriteCoalescer(messageDAO, 1000, 64, 50_000, 1);
+    }
+
+    @After
+    public void tearDown() {
+        coalescer.close();
+    }
+
+    /**
+     * Writing 32 messages from 32 threads at once.
+     *
+     * Expected Result:
+     *  Every caller gets its own message back with a distinct generated ID, every message is in the database, and
+     *  the writes were committed in fewer batches than messages.
+     */
+    @Test
+    public void concurrentWritesShareBatches() throws Exception {
+        int writers = 32;
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Message>> results = new ArrayList<>();
+        for (int i = 0; i < writers; i++) {
+            String text = "coalesced " + i;
+            results.add(executor.submit(() -> {
+                start.await();
+                return coalescer.write(new Message(1, text, 1669947792));
+            }));
+        }
+        start.countDown();
+
+        Set<Integer> messageIds = new HashSet<>();
+        for (int i = 0; i < writers; i++) {
+            Message message = results.get(i).get();
+            Assert.assertEquals("coalesced " + i, message.getMessage_text());
+            Assert.assertEquals(message, messageDAO.getMessageById(message.getMessage_id()));
+            messageIds.add(message.getMessage_id());
+        }
+        executor.shutdown();
+
+        Assert.assertEquals(writers, messageIds.size());
+        Map<?, ?> batchSize = (Map<?, ?>) coalescer.stats().get("batchSize");
+        Assert.assertTrue((Long) batchSize.get("count") < writers);
+    }
+
+    /**
+     * Queueing messages with writeAsync while the only writer is stuck inserting the first one, on a coalescer that
+     * lets one message wait.
+     *
+     * Expected Result:
+     *  The second message waits in the queue and the third fails at once with OverloadedException, without the
+     *  caller blocking. Once the insert is let through, both queued messages complete on the writer thread with
+     *  their generated IDs.
+     */
+    @Test
+    public void writeAsyncFailsFastWhenTheQueueIsFull() throws Exception {
+        CountDownLatch inserting = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        MessageWriteCoalescer stuck = new MessageWriteCoalescer(new MessageDAO() {
+            @Override
+            public List<Message> createMessages(List<Message> messages) throws SQLException {
+                inserting.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.createMessages(messages);
+            }
+        }, 1, 64, 0, 1);
+        try {
+            CompletableFuture<Message> first = stuck.writeAsync(new Message(1, "first", 1669947792));
+            Assert.assertTrue(inserting.await(5, TimeUnit.SECONDS));
+            CompletableFuture<Message> second = stuck.writeAsync(new Message(1, "second", 1669947792));
+            CompletableFuture<Message> third = stuck.writeAsync(new Message(1, "third", 1669947792));
+
+            Assert.assertTrue(third.isCompletedExceptionally());
+            try {
+                third.join();
+                Assert.fail("The third message should have been turned away");
+            } catch (CompletionException e) {
+                Assert.assertTrue(e.getCause() instanceof OverloadedException);
+            }
+            Assert.assertFalse(second.isDone());
+
+            String[] completingThread = new String[1];
+            CompletableFuture<Void> completed = second.thenAccept(
+                    message -> completingThread[0] = Thread.currentThread().getName());
+            release.countDown();
+            completed.get(5, TimeUnit.SECONDS);
+            Assert.assertTrue(first.get(5, TimeUnit.SECONDS).getMessage_id() > 0);
+            Assert.assertTrue(second.get().getMessage_id() > first.get().getMessage_id());
+            Assert.assertEquals("message-writer-0", completingThread[0]);
+        } finally {
+            release.countDown();
+            stuck.close();
+        }
+    }
+
+    /**
+     * Writing after the coalescer has been closed.
+     *
+     * Expected Result:
+     *  SQLException instead of waiting for a writer that is gone.
+     */
+    @Test(expected = SQLException.class)
+    public void writeAfterCloseFails() throws SQLException {
+        coalescer.close();
+        coalescer.write(new Message(1, "too late", 1669947792));
+    }
+}
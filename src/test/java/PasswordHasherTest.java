@@ -0,0 +1,89 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Service.OverloadedException;
+import Service.PasswordHasher;
+
+public class PasswordHasherTest {
+
+    /**
+     * Hashing a password at 1000 iterations, then checking it, a wrong password, a plain text stored password, and
+     * a hash made at a lower cost.
+     *
+     * Expected Result:
+     *  The hash reads pbkdf2$1000$salt$hash, differs for the same password hashed twice, and only the right password
+     *  matches. Plain text and the cheaper hash match too but need a rehash; the new hash does not.
+     */
+    @Test
+    public void hashesVerifyAndReportOutdatedPasswords() {
+        PasswordHasher hasher = new PasswordHasher(1000, 1, 4, 1024 * 1024, 60_000);
+        String hash = hasher.hash("password");
+        Assert.assertTrue(hash.startsWith("pbkdf2$1000$"));
+        Assert.assertNotEquals(hash, hasher.hash("password"));
+
+        Assert.assertTrue(hasher.verify("password", hash));
+        Assert.assertFalse(hasher.verify("Password", hash));
+        Assert.assertFalse(hasher.verify("password", null));
+        Assert.assertFalse(hasher.needsRehash(hash));
+
+        Assert.assertTrue(hasher.verify("password", "password"));
+        Assert.assertFalse(hasher.verify("pass", "password"));
+        Assert.assertTrue(hasher.needsRehash("password"));
+
+        String cheaperHash = new PasswordHasher(500, 1, 4, 0, 0).hash("password");
+        Assert.assertTrue(hasher.verify("password", cheaperHash));
+        Assert.assertTrue(hasher.needsRehash(cheaperHash));
+    }
+
+    /**
+     * Checking the same password against the same hash three times, and a wrong password once.
+     *
+     * Expected Result:
+     *  The first check runs PBKDF2, the next two are answered from the remembered login without it, and the wrong
+     *  password still runs PBKDF2 and fails.
+     */
+    @Test
+    public void repeatedLoginsAreRemembered() throws Exception {
+        PasswordHasher hasher = new PasswordHasher(1000, 1, 4, 1024 * 1024, 60_000);
+        String hash = hasher.hash("password");
+        Assert.assertTrue(hasher.verifyAsync("password", hash).get(5, TimeUnit.SECONDS));
+        Assert.assertTrue(hasher.verify("password", hash));
+        CompletableFuture<Boolean> remembered = hasher.verifyAsync("password", hash);
+        Assert.assertTrue(remembered.isDone()); // Completed without going through the pool
+        Assert.assertTrue(remembered.get());
+        Assert.assertFalse(hasher.verify("wrong", hash));
+
+        Assert.assertEquals(2L, hasher.stats().get("slowChecks"));
+        Assert.assertEquals(2L, hasher.stats().get("cachedChecks"));
+    }
+
+    /**
+     * Submitting far more slow hashes than one thread and a queue of one can hold.
+     *
+     * Expected Result:
+     *  The excess fails at once with OverloadedException, and the accepted ones still complete.
+     */
+    @Test
+    public void fullQueueShedsLoad() throws Exception {
+        PasswordHasher hasher = new PasswordHasher(200_000, 1, 1, 0, 0);
+        CompletableFuture<?>[] hashes = new CompletableFuture<?>[10];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = hasher.hashAsync("password" + i);
+        }
+        int rejected = 0;
+        for (CompletableFuture<?> hash : hashes) {
+            try {
+                hash.get(30, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof OverloadedException);
+                rejected++;
+            }
+        }
+        Assert.assertTrue("Expected most hashes to be turned away", rejected >= 7);
+        Assert.assertEquals((long) rejected, hasher.stats().get("rejected"));
+    }
+}
@@ -0,0 +1,188 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import Util.RateLimiter;
+import io.javalin.Javalin;
+
+public class RateLimiterTest {
+
+    /**
+     * A postMessage limit of 2 per second with a burst of 4 per IP and 1 per second with a burst of 2 per account,
+     * on a clock moved by hand.
+     *
+     * Expected Result:
+     *  Account 1 gets 2 requests and is then told to retry in 1 second, while account 2 from the same IP still gets
+     *  through until the IP's burst of 4 is spent. Half a second later one token is back for the IP.
+     */
+    @Test
+    public void bucketsLimitPerAccountAndPerIp() {
+        AtomicLong clock = new AtomicLong(TimeUnit.SECONDS.toNanos(100));
+        Properties properties = new Properties();
+        properties.setProperty("socialmedia.ratelimit.postMessage.ip", "2:4");
+        properties.setProperty("socialmedia.ratelimit.postMessage.account", "1:2");
+        properties.setProperty("socialmedia.ratelimit.postMessage.global", "off");
+        RateLimiter limiter = new RateLimiter(properties, clock::get);
+
+        Assert.assertEquals(0, limiter.acquire(RateLimiter.Route.POST_MESSAGE, "10.0.0.1", 1));
+        Assert.assertEquals(0, limiter.acquire(RateLimiter.Route.POST_MESSAGE, "10.0.0.1", 1));
+        Assert.assertEquals(1, limiter.acquire(RateLimiter.Route.POST_MESSAGE, "10.0.0.1", 1));
+
+        Assert.assertEquals(0, limiter.acquire(RateLimiter.Route.POST_MESSAGE, "10.0.0.1", 2));
+        Assert.assertEquals(0, limiter.acquire(RateLimiter.Route.POST_MESSAGE, "10.0.0.1", 2));
+        Assert.assertEquals(1, limiter.acquire(RateLimiter.Route.POST_MESSAGE, "10.0.0.1", 0));
+        Assert.assertEquals(0, limiter.acquire(RateLimiter.Route.POST_MESSAGE, "10.0.0.2", 0));
+
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+        Assert.assertEquals(0, limiter.acquire(RateLimiter.Route.POST_MESSAGE, "10.0.0.1", 0));
+        Assert.assertEquals(1, limiter.acquire(RateLimiter.Route.POST_MESSAGE, "10.0.0.1", 0));
+    }
+
+    /**
+     * Requests from 100 IPs, then the clock moved on until every bucket is full again, then two more requests.
+     *
+     * Expected Result:
+     *  The limiter holds 100 IP buckets until the refill. The first request after it removes only 64 of the idle
+     *  ones, so no request pays for the whole sweep, and the second removes the rest.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void idleBucketsExpireIncrementally() {
+        AtomicLong clock = new AtomicLong();
+        RateLimiter limiter = new RateLimiter(new Properties(), clock::get);
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(0, limiter.acquire(RateLimiter.Route.REGISTER, "10.0.0." + i, 0));
+        }
+        Map<String, Object> register = (Map<String, Object>) limiter.stats().get("register");
+        Assert.assertEquals(100, register.get("ipBuckets"));
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        Assert.assertEquals(0, limiter.acquire(RateLimiter.Route.REGISTER, "10.0.1.1", 0));
+        register = (Map<String, Object>) limiter.stats().get("register");
+        Assert.assertEquals(100 - 64 + 1, register.get("ipBuckets"));
+
+        Assert.assertEquals(0, limiter.acquire(RateLimiter.Route.REGISTER, "10.0.1.1", 0));
+        register = (Map<String, Object>) limiter.stats().get("register");
+        Assert.assertEquals(1, register.get("ipBuckets"));
+        Assert.assertEquals(102L, register.get("allowed"));
+    }
+
+    /**
+     * Sending three POST localhost:8080/register requests back to back with socialmedia.ratelimit.register.ip set
+     * to 1:2.
+     *
+     * Expected Response:
+     *  First two: Status Code 200
+     *  Third: Status Code 429 with a Retry-After header of 1
+     */
+    @Test
+    public void registerOverLimitAnswers429() throws Exception {
+        System.setProperty("socialmedia.ratelimit.register.ip", "1:2");
+        Javalin app;
+        try {
+            ConnectionUtil.resetTestDatabase();
+            app = new SocialMediaController().startAPI();
+        } finally {
+            System.clearProperty("socialmedia.ratelimit.register.ip");
+        }
+        app.start(8080);
+        Thread.sleep(1000);
+        try {
+            HttpClient webClient = HttpClient.newHttpClient();
+            for (int i = 0; i < 3; i++) {
+                HttpRequest registerRequest = HttpRequest.newBuilder()
+                        .uri(URI.create("http://localhost:8080/register"))
+                        .POST(HttpRequest.BodyPublishers.ofString("{" +
+                                "\"username\": \"limited" + i + "\", " +
+                                "\"password\": \"password\" }"))
+                        .header("Content-Type", "application/json")
+                        .build();
+                HttpResponse<String> response = webClient.send(registerRequest, HttpResponse.BodyHandlers.ofString());
+                if (i < 2) {
+                    Assert.assertEquals(200, response.statusCode());
+                } else {
+                    Assert.assertEquals(429, response.statusCode());
+                    Assert.assertEquals("1", response.headers().firstValue("Retry-After").orElse(null));
+                }
+            }
+        } finally {
+            app.stop();
+        }
+    }
+
+    /**
+     * Sending three POST localhost:8080/messages requests with a body that is not JSON, with
+     * socialmedia.ratelimit.postMessage.ip set to 1:2.
+     *
+     * Expected Response:
+     *  First two: Status Code 500, as before the limit
+     *  Third: Status Code 429, as malformed bodies take tokens too
+     */
+    @Test
+    public void malformedPostsAreLimited() throws Exception {
+        Javalin app = startWithProperty("socialmedia.ratelimit.postMessage.ip", "1:2");
+        try {
+            for (int i = 0; i < 3; i++) {
+                HttpResponse<String> response = postMessage("not json");
+                Assert.assertEquals(i < 2 ? 500 : 429, response.statusCode());
+            }
+        } finally {
+            app.stop();
+        }
+    }
+
+    /**
+     * Sending three POST localhost:8080/messages requests without a session token, each naming posted_by 1, with
+     * socialmedia.ratelimit.postMessage.account set to 1:1.
+     *
+     * Expected Response:
+     *  Status Code 200 for all three: without a session posted_by is not trusted, so the requests are not charged
+     *  to account 1's bucket and can not use it up for its owner.
+     */
+    @Test
+    public void postedByIsNotChargedWithoutASession() throws Exception {
+        Javalin app = startWithProperty("socialmedia.ratelimit.postMessage.account", "1:1");
+        try {
+            for (int i = 0; i < 3; i++) {
+                HttpResponse<String> response = postMessage("{\"posted_by\": 1, \"message_text\": \"spoofed " + i
+                        + "\", \"time_posted_epoch\": 1669947792}");
+                Assert.assertEquals(200, response.statusCode());
+            }
+        } finally {
+            app.stop();
+        }
+    }
+
+    private static Javalin startWithProperty(String name, String value) throws InterruptedException {
+        System.setProperty(name, value);
+        Javalin app;
+        try {
+            ConnectionUtil.resetTestDatabase();
+            app = new SocialMediaController().startAPI();
+        } finally {
+            System.clearProperty(name);
+        }
+        app.start(8080);
+        Thread.sleep(1000);
+        return app;
+    }
+
+    private static HttpResponse<String> postMessage(String body) throws Exception {
+        HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        return HttpClient.newHttpClient().send(postMessageRequest, HttpResponse.BodyHandlers.ofString());
+    }
+}
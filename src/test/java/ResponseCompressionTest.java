@@ -0,0 +1,37 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+import Util.ResponseCompression;
+
+public class ResponseCompressionTest {
+
+    /**
+     * Accept-Encoding headers that accept gzip, plainly, with a weight, in another case, or through "*".
+     *
+     * Expected Result:
+     *  true for each.
+     */
+    @Test
+    public void acceptsGzip() {
+        Assert.assertTrue(ResponseCompression.acceptsGzip("gzip"));
+        Assert.assertTrue(ResponseCompression.acceptsGzip("br, gzip;q=0.5"));
+        Assert.assertTrue(ResponseCompression.acceptsGzip("deflate, GZIP ; Q=1"));
+        Assert.assertTrue(ResponseCompression.acceptsGzip("identity, *"));
+    }
+
+    /**
+     * Accept-Encoding headers that refuse gzip with q=0, list only other codings, refuse it while accepting "*", or
+     * are missing.
+     *
+     * Expected Result:
+     *  false for each; a substring check would have accepted the first and third.
+     */
+    @Test
+    public void refusesGzip() {
+        Assert.assertFalse(ResponseCompression.acceptsGzip("gzip;q=0"));
+        Assert.assertFalse(ResponseCompression.acceptsGzip("br, deflate"));
+        Assert.assertFalse(ResponseCompression.acceptsGzip("*, gzip;q=0.000"));
+        Assert.assertFalse(ResponseCompression.acceptsGzip("*;q=0"));
+        Assert.assertFalse(ResponseCompression.acceptsGzip(null));
+    }
+}
@@ -89,4 +89,85 @@ public class RetrieveAllMessagesForUserTest {
         List<Message> actualResult = objectMapper.readValue(response.body().toString(), new TypeReference<List<Message>>(){});
         Assert.assertTrue(actualResult.isEmpty());
     }
+
+    /**
+     * Sending GET localhost:8080/accounts/1/messages, then changing the user's messages with PATCH, POST and DELETE
+     * and sending the GET again after each change. The first GET fills the user's timeline cache, so the later ones
+     * are answered from it.
+     * 
+     * Expected Response:
+     *  Status Code: 200 for every GET
+     *  Response Body: the user's messages as they are after each change
+     */
+    @Test
+    public void getAllMessagesFromUserReflectsChanges() throws IOException, InterruptedException {
+        Assert.assertEquals(List.of(new Message(1, 1, "test message 1", 1669947792)), getMessagesOfUser1());
+
+        send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"updated message\"}"))
+                .header("Content-Type", "application/json")
+                .build());
+        Assert.assertEquals(List.of(new Message(1, 1, "updated message", 1669947792)), getMessagesOfUser1());
+
+        send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\": 1, \"message_text\": \"second message\"}"))
+                .header("Content-Type", "application/json")
+                .build());
+        Assert.assertEquals(List.of(new Message(1, 1, "updated message", 1669947792),
+                new Message(2, 1, "second message", 1669947792)), getMessagesOfUser1());
+
+        send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .DELETE()
+                .build());
+        Assert.assertEquals(List.of(new Message(2, 1, "second message", 1669947792)), getMessagesOfUser1());
+    }
+
+    /**
+     * Sending GET localhost:8080/accounts/1/messages again with the ETag of the first response in If-None-Match,
+     * then posting a message for the user and sending the same conditional GET once more.
+     * 
+     * Expected Response:
+     *  Status Code: 304 with an empty body while the user's messages are unchanged
+     *  Status Code: 200 with both messages after the new one is posted
+     */
+    @Test
+    public void getAllMessagesFromUserNotModified() throws IOException, InterruptedException {
+        HttpResponse<String> response = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/accounts/1/messages"))
+                .build());
+        HttpRequest conditionalRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/accounts/1/messages"))
+                .header("If-None-Match", response.headers().firstValue("ETag").orElseThrow())
+                .build();
+
+        HttpResponse<String> notModified = webClient.send(conditionalRequest, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(304, notModified.statusCode());
+        Assert.assertEquals("", notModified.body());
+
+        send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\": 1, \"message_text\": \"second message\"}"))
+                .header("Content-Type", "application/json")
+                .build());
+
+        HttpResponse<String> modified = webClient.send(conditionalRequest, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, modified.statusCode());
+        Assert.assertEquals(2, objectMapper.readValue(modified.body(), new TypeReference<List<Message>>(){}).size());
+    }
+
+    private List<Message> getMessagesOfUser1() throws IOException, InterruptedException {
+        HttpResponse<String> response = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/accounts/1/messages"))
+                .build());
+        return objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+    }
+
+    private HttpResponse<String> send(HttpRequest request) throws IOException, InterruptedException {
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        return response;
+    }
 }
@@ -87,4 +87,42 @@ public class RetrieveMessageByMessageIdTest {
     }
 
 
+
+    /**
+     * Sending GET localhost:8080/messages/1 again with the ETag of the first response in If-None-Match, then
+     * updating the message and sending the same conditional GET once more.
+     * 
+     * Expected Response:
+     *  Status Code: 304 with an empty body while the message is unchanged
+     *  Status Code: 200 with the updated message and a new ETag after the update
+     */
+    @Test
+    public void getMessageGivenMessageIdNotModified() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        String etag = response.headers().firstValue("ETag").orElseThrow();
+
+        HttpRequest conditionalRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .header("If-None-Match", etag)
+                .build();
+        HttpResponse<String> notModified = webClient.send(conditionalRequest, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(304, notModified.statusCode());
+        Assert.assertEquals("", notModified.body());
+        Assert.assertEquals(etag, notModified.headers().firstValue("ETag").orElseThrow());
+
+        HttpRequest updateRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"updated message\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        webClient.send(updateRequest, HttpResponse.BodyHandlers.ofString());
+
+        HttpResponse<String> modified = webClient.send(conditionalRequest, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, modified.statusCode());
+        Assert.assertEquals(new Message(1, 1, "updated message", 1669947792), objectMapper.readValue(modified.body(), Message.class));
+        Assert.assertNotEquals(etag, modified.headers().firstValue("ETag").orElseThrow());
+    }
 }
@@ -0,0 +1,144 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class RetrieveMessagesPageTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web. Two more messages are posted so the table holds message ids 1 to 3.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException, IOException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+        postMessage("test message 2");
+        postMessage("test message 3");
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?limit=2
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON representation of messages 1 and 2
+     *  Link Header: pointing at the next page, after message 2
+     */
+    @Test
+    public void getFirstPage() throws IOException, InterruptedException {
+        HttpResponse<String> response = get("/messages?limit=2");
+
+        Assert.assertEquals(200, response.statusCode());
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(1, 1, "test message 1", 1669947792));
+        expectedResult.add(new Message(2, 1, "test message 2", 1669947792));
+        Assert.assertEquals(expectedResult, readMessages(response));
+        Assert.assertEquals("</messages?after=2&limit=2>; rel=\"next\"", response.headers().firstValue("Link").orElse(null));
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?after=2&limit=2
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON representation of message 3 only
+     *  Link Header: none, since the page is not full
+     */
+    @Test
+    public void getLastPage() throws IOException, InterruptedException {
+        HttpResponse<String> response = get("/messages?after=2&limit=2");
+
+        Assert.assertEquals(200, response.statusCode());
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(3, 1, "test message 3", 1669947792));
+        Assert.assertEquals(expectedResult, readMessages(response));
+        Assert.assertFalse(response.headers().firstValue("Link").isPresent());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?stream=true
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the same JSON list as GET localhost:8080/messages
+     */
+    @Test
+    public void streamMatchesFullList() throws IOException, InterruptedException {
+        HttpResponse<String> streamed = get("/messages?stream=true");
+        HttpResponse<String> buffered = get("/messages");
+
+        Assert.assertEquals(200, streamed.statusCode());
+        Assert.assertEquals(3, readMessages(streamed).size());
+        Assert.assertEquals(readMessages(buffered), readMessages(streamed));
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?limit=abc
+     *
+     * Expected Response:
+     *  Status Code: 400
+     *  Response Body:
+     */
+    @Test
+    public void invalidLimit() throws IOException, InterruptedException {
+        HttpResponse<String> response = get("/messages?limit=abc");
+
+        Assert.assertEquals(400, response.statusCode());
+        Assert.assertTrue(response.body().isEmpty());
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private List<Message> readMessages(HttpResponse<String> response) throws IOException {
+        return objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+    }
+
+    private void postMessage(String text) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"posted_by\":1, " +
+                        "\"message_text\": \"" + text + "\", " +
+                        "\"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .build();
+        webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,102 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Util.SchemaMigrator;
+
+public class SchemaMigratorTest {
+    Connection conn;
+    SchemaMigrator migrator;
+
+    /**
+     * Before every test, open a fresh in-memory database that has never been migrated.
+     */
+    @Before
+    public void setUp() throws SQLException {
+        conn = DriverManager.getConnection("jdbc:h2:mem:migratortest", "sa", "sa");
+        migrator = SchemaMigrator.forApplication();
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        conn.close();
+    }
+
+    /**
+     * Migrating an empty database applies every script once and records it; migrating again applies nothing.
+     *
+     * Expected Result:
+     *  All application migrations applied on the first run, none on the second, one schema_version row each.
+     */
+    @Test
+    public void migratesOnceAndRecordsVersions() throws SQLException {
+        int total = SchemaMigrator.APPLICATION_MIGRATIONS.size();
+        Assert.assertEquals(total, migrator.migrate(conn));
+        Assert.assertEquals(0, migrator.migrate(conn));
+
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT count(*) FROM schema_version")) {
+            rs.next();
+            Assert.assertEquals(total, rs.getInt(1));
+        }
+    }
+
+    /**
+     * Applying migrations keeps rows that are already in the tables.
+     *
+     * Expected Result:
+     *  The account inserted before the index migration is still there afterwards.
+     */
+    @Test
+    public void migrationKeepsExistingData() throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            migrator.migrate(conn);
+            stmt.execute("DELETE FROM schema_version WHERE version = 2");
+            stmt.execute("INSERT INTO account (username, password) VALUES ('kept', 'password')");
+
+            Assert.assertEquals(1, migrator.migrate(conn));
+
+            try (ResultSet rs = stmt.executeQuery("SELECT count(*) FROM account WHERE username = 'kept'")) {
+                rs.next();
+                Assert.assertEquals(1, rs.getInt(1));
+            }
+        }
+    }
+
+    /**
+     * A script whose recorded checksum no longer matches its text stops the migration.
+     *
+     * Expected Result:
+     *  IllegalStateException
+     */
+    @Test(expected = IllegalStateException.class)
+    public void modifiedScriptIsRejected() throws SQLException {
+        migrator.migrate(conn);
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("UPDATE schema_version SET checksum = 'tampered' WHERE version = 1");
+        }
+        migrator.migrate(conn);
+    }
+
+    /**
+     * A database that has a newer version than this build knows about is refused.
+     *
+     * Expected Result:
+     *  IllegalStateException
+     */
+    @Test(expected = IllegalStateException.class)
+    public void newerDatabaseIsRejected() throws SQLException {
+        migrator.migrate(conn);
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("INSERT INTO schema_version (version, description, checksum) VALUES (999, 'future', 'x')");
+        }
+        migrator.migrate(conn);
+    }
+}
@@ -0,0 +1,59 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class ServerThreadsTest {
+    Javalin app;
+
+    /**
+     * Before every test, reset the database and start the app with an extra route that reports the thread running
+     * it. The execution mode is whatever socialmedia.server.threads says for this run: platform by default, virtual
+     * when the build runs on JDK 21 (see the jdk21 profile in the pom).
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        app = new SocialMediaController().startAPI();
+        app.get("/test/thread", context -> context.result(Thread.currentThread().toString()));
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/test/thread
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: a virtual thread when socialmedia.server.threads is virtual and the runtime is JDK 21 or newer,
+     *  otherwise one of the platform pool's threads
+     */
+    @Test
+    public void handlersRunInTheConfiguredMode() throws Exception {
+        HttpResponse<String> response = HttpClient.newHttpClient().send(
+                HttpRequest.newBuilder(URI.create("http://localhost:8080/test/thread")).build(),
+                HttpResponse.BodyHandlers.ofString());
+
+        Assert.assertEquals(200, response.statusCode());
+        boolean virtual = "virtual".equalsIgnoreCase(System.getProperty("socialmedia.server.threads"))
+                && Runtime.version().feature() >= 21;
+        Assert.assertEquals(response.body(), virtual, response.body().startsWith("VirtualThread"));
+        if (!virtual) {
+            Assert.assertTrue(response.body(), response.body().contains("JettyServerThreadPool"));
+        }
+    }
+}
@@ -0,0 +1,143 @@
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Service.SessionTokens;
+
+public class SessionTokensTest {
+
+    private static final byte[] KEY_1 = "first session key, 32 bytes long".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] KEY_2 = "second session key, also 32 byte".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Issuing a token for account 7 with a configured key, then checking it as is, behind a "Bearer " prefix, and
+     * with its account ID or signature altered.
+     *
+     * Expected Result:
+     *  The token reads 1.7.expiry.signature, its signature is the base64url HMAC-SHA256 javax.crypto computes for
+     *  the same key, it verifies to account 7 in both forms, and the altered tokens are rejected.
+     */
+    @Test
+    public void issuedTokensVerifyAndForgedOnesDoNot() throws Exception {
+        SessionTokens tokens = new SessionTokens(3600, "1:" + Base64.getEncoder().encodeToString(KEY_1));
+        String token = tokens.issue(7);
+        Assert.assertTrue(token.startsWith("1.7."));
+
+        int signatureStart = token.lastIndexOf('.') + 1;
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(KEY_1, "HmacSHA256"));
+        String expected = Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(mac.doFinal(token.substring(0, signatureStart - 1).getBytes(StandardCharsets.US_ASCII)));
+        Assert.assertEquals(expected, token.substring(signatureStart));
+
+        Assert.assertEquals(7, tokens.verify(token, 0));
+        Assert.assertEquals(7, tokens.verify("Bearer " + token, 7));
+        Assert.assertEquals(-1, tokens.verify(token.replace("1.7.", "1.8."), 0));
+        char last = token.charAt(token.length() - 1);
+        Assert.assertEquals(-1, tokens.verify(token.substring(0, token.length() - 1) + (last == 'A' ? 'B' : 'A'), 0));
+        Assert.assertEquals(-1, tokens.verify("", 0));
+        Assert.assertEquals(-1, tokens.verify("1.7", 0));
+        Assert.assertEquals(-1, new SessionTokens(0, null).verify(new SessionTokens(0, null).issue(7), 0));
+    }
+
+    /**
+     * Issuing a token with key 1 that has already expired, and one that has not; rotating to key 2; issuing again;
+     * then retiring key 1.
+     *
+     * Expected Result:
+     *  The expired token is rejected. After the rotation new tokens carry key 2 and the older token still verifies;
+     *  after key 1 is retired only the newer one does. Key 2 can not be retired while it signs.
+     */
+    @Test
+    public void rotatedKeysKeepOlderTokensUntilRetired() {
+        Assert.assertEquals(-1, new SessionTokens(-1, "1:" + Base64.getEncoder().encodeToString(KEY_1)).verify(
+                new SessionTokens(-1, "1:" + Base64.getEncoder().encodeToString(KEY_1)).issue(3), 0));
+
+        SessionTokens tokens = new SessionTokens(3600, "1:" + Base64.getEncoder().encodeToString(KEY_1));
+        String older = tokens.issue(3);
+        tokens.rotate(2, KEY_2);
+        String newer = tokens.issue(3);
+        Assert.assertTrue(newer.startsWith("2.3."));
+        Assert.assertEquals(3, tokens.verify(older, 0));
+        Assert.assertEquals(3, tokens.verify(newer, 0));
+
+        tokens.retire(1);
+        Assert.assertEquals(-1, tokens.verify(older, 0));
+        Assert.assertEquals(3, tokens.verify(newer, 0));
+        try {
+            tokens.retire(2);
+            Assert.fail("The signing key should not be retired");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Issuing tokens with a rotation every 100 seconds and a token lifetime of 150, on a clock moved by hand, at
+     * 1000, 1099, 1100, 1200 and 1300.
+     *
+     * Expected Result:
+     *  Key 1 signs until 1100, when key 2 takes over and key 1's tokens still verify; keys 3 and 4 follow at 1200 and
+     *  1300. A key that no longer signs is kept until its last token has expired, so at 1200 keys 3, 2 and 1 are
+     *  held and at 1300 only 4, 3 and 2.
+     */
+    @Test
+    public void keysRotateOnSchedule() {
+        AtomicLong clock = new AtomicLong(1000);
+        SessionTokens tokens = new SessionTokens(150, "1:" + Base64.getEncoder().encodeToString(KEY_1), 100, clock::get);
+        String first = tokens.issue(5);
+        clock.set(1099);
+        Assert.assertTrue(tokens.issue(5).startsWith("1.5."));
+
+        clock.set(1100);
+        String second = tokens.issue(5);
+        Assert.assertTrue(second.startsWith("2.5."));
+        Assert.assertEquals(5, tokens.verify(first, 0));
+        Assert.assertEquals(5, tokens.verify(second, 0));
+
+        clock.set(1200);
+        Assert.assertTrue(tokens.issue(5).startsWith("3.5."));
+        Assert.assertEquals(List.of(3, 2, 1), tokens.stats().get("keys"));
+        Assert.assertEquals(5, tokens.verify(second, 0));
+
+        clock.set(1300);
+        Assert.assertTrue(tokens.issue(5).startsWith("4.5."));
+        Assert.assertEquals(List.of(4, 3, 2), tokens.stats().get("keys"));
+        Assert.assertEquals(3L, tokens.stats().get("rotations"));
+    }
+
+    /**
+     * Verifying the same token 10000 times after a warm-up, measuring the bytes the thread allocated meanwhile.
+     *
+     * Expected Result:
+     *  Verifying allocates nothing; the little that is measured is the measurement itself.
+     */
+    @Test
+    public void verifyingDoesNotAllocate() {
+        SessionTokens tokens = new SessionTokens(3600, null);
+        String header = "Bearer " + tokens.issue(42);
+        for (int i = 0; i < 10_000; i++) {
+            tokens.verify(header, 7);
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        int accepted = 0;
+        for (int i = 0; i < 10_000; i++) {
+            if (tokens.verify(header, 7) == 42) {
+                accepted++;
+            }
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        Assert.assertEquals(10_000, accepted);
+        Assert.assertTrue("Verifying allocated " + allocated + " bytes", allocated < 1024);
+    }
+}
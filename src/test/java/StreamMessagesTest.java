@@ -0,0 +1,214 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class StreamMessagesTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database and add 300 more messages, about 40 KB of JSON, so a streamed list is
+     * larger than both the generator's buffer and the size Javalin starts compressing at. Then restart the Javalin
+     * app and create a new webClient and ObjectMapper.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException, SQLException {
+        ConnectionUtil.resetTestDatabase();
+        try (Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement insert = connection.prepareStatement(
+                     "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (1, ?, 1669947792)")) {
+            for (int i = 2; i <= 301; i++) {
+                insert.setString(1, "streamed message " + i + " with enough text to make the list worth compressing");
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages with Accept-Encoding: gzip
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Content-Encoding: gzip
+     *  Response Body: a gzip stream that decodes to all 301 messages, in ID order
+     */
+    @Test
+    public void streamedListDecodesFromGzip() throws IOException, InterruptedException {
+        HttpResponse<byte[]> response = get("/messages", "gzip");
+
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("gzip", response.headers().firstValue("Content-Encoding").orElse(null));
+        List<Message> messages = readMessages(gunzip(response.body()));
+        Assert.assertEquals(301, messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            Assert.assertEquals(i + 1, messages.get(i).getMessage_id());
+        }
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages without Accept-Encoding, so the first row is flushed
+     * ahead of the rest
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Content-Encoding: none
+     *  Response Body: JSON representation of all 301 messages
+     */
+    @Test
+    public void streamedListWithoutCompression() throws IOException, InterruptedException {
+        HttpResponse<byte[]> response = get("/messages", null);
+
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertFalse(response.headers().firstValue("Content-Encoding").isPresent());
+        Assert.assertEquals(301, readMessages(response.body()).size());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?limit=200 with Accept-Encoding: gzip
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Link Header: pointing at the next page, after message 200
+     *  Response Body: a gzip stream that decodes to messages 1 to 200
+     */
+    @Test
+    public void pagedListKeepsLinkHeader() throws IOException, InterruptedException {
+        HttpResponse<byte[]> response = get("/messages?limit=200", "gzip");
+
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("</messages?after=200&limit=200>; rel=\"next\"", response.headers().firstValue("Link").orElse(null));
+        byte[] body = "gzip".equals(response.headers().firstValue("Content-Encoding").orElse(null))
+                ? gunzip(response.body()) : response.body();
+        List<Message> messages = readMessages(body);
+        Assert.assertEquals(200, messages.size());
+        Assert.assertEquals(200, messages.get(199).getMessage_id());
+    }
+
+    /**
+     * Adding 400 more messages of user 1, then sending GET localhost:8080/accounts/1/messages twice: once filling the
+     * user's timeline cache and once answered partly from it. The list is longer than one streamed page.
+     *
+     * Expected Response:
+     *  Status Code: 200 both times
+     *  Response Body: all 701 messages of user 1, each once, in ID order
+     */
+    @Test
+    public void userListSpanningPagesAndTimeline() throws Exception {
+        insertMessages(400, "more of user 1");
+        for (int attempt = 0; attempt < 2; attempt++) {
+            HttpResponse<byte[]> response = get("/accounts/1/messages", null);
+
+            Assert.assertEquals(200, response.statusCode());
+            List<Message> messages = readMessages(response.body());
+            Assert.assertEquals(701, messages.size());
+            for (int i = 0; i < messages.size(); i++) {
+                Assert.assertEquals(i + 1, messages.get(i).getMessage_id());
+            }
+        }
+    }
+
+    /**
+     * Adding 20000 more long messages, about 6 MB of JSON, then opening 10 streamed GET localhost:8080/messages
+     * requests that never read their response, more than the 8 list reads the DatabaseExecutor runs at once. Then
+     * sending GET localhost:8080/messages?limit=10.
+     *
+     * Expected Response:
+     *  Status Code: 200 for the paged request, as the stalled streams hold no database thread or connection while
+     *  they wait for their clients
+     */
+    @Test
+    public void stalledStreamsDoNotHoldTheDatabase() throws Exception {
+        insertMessages(20000, "x".repeat(240));
+        List<Socket> stalled = new ArrayList<>();
+        try {
+            for (int i = 0; i < 10; i++) {
+                Socket socket = new Socket();
+                socket.setReceiveBufferSize(1024); // Before connecting, so the window stays small
+                socket.connect(new InetSocketAddress("localhost", 8080));
+                socket.getOutputStream().write("GET /messages HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                        .getBytes(StandardCharsets.US_ASCII));
+                socket.getOutputStream().flush(); // And never read
+                stalled.add(socket);
+            }
+            Thread.sleep(2000); // Let them fill their socket buffers and stall
+
+            HttpResponse<byte[]> response = get("/messages?limit=10", null);
+            Assert.assertEquals(200, response.statusCode());
+            Assert.assertEquals(10, readMessages(response.body()).size());
+        } finally {
+            for (Socket socket : stalled) {
+                socket.close();
+            }
+        }
+    }
+
+    private static void insertMessages(int count, String text) throws SQLException {
+        try (Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement insert = connection.prepareStatement(
+                     "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (1, ?, 1669947792)")) {
+            for (int i = 0; i < count; i++) {
+                insert.setString(1, text);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+    }
+
+    private HttpResponse<byte[]> get(String path, String acceptEncoding) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path));
+        if (acceptEncoding != null) {
+            request.header("Accept-Encoding", acceptEncoding);
+        }
+        return webClient.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private List<Message> readMessages(byte[] body) throws IOException {
+        return objectMapper.readValue(body, new TypeReference<List<Message>>(){});
+    }
+
+    private static byte[] gunzip(byte[] body) throws IOException {
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            return gzip.readAllBytes();
+        }
+    }
+}
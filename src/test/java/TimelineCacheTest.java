@@ -0,0 +1,84 @@
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Model.Message;
+import Service.TimelineCache;
+
+public class TimelineCacheTest {
+
+    /**
+     * Filling a timeline of depth 3, then creating, updating and deleting messages of that account.
+     *
+     * Expected Result:
+     *  The timeline keeps the 3 newest messages in ID order; once a create pushes the oldest one out, the floor moves
+     *  just past it, so a reader knows to fetch older messages from the database. Updates and deletes show up in the
+     *  next snapshot but not in one taken before them.
+     */
+    @Test
+    public void writesKeepTimelineCurrent() {
+        TimelineCache cache = new TimelineCache(3, 1024 * 1024);
+        cache.fill(1, cache.generation(1), 0, List.of(message(1, "one"), message(2, "two")));
+
+        TimelineCache.Snapshot before = cache.get(1);
+        Assert.assertEquals(0, before.getFloorId());
+
+        cache.onCreate(message(4, "four"));
+        cache.onCreate(message(3, "three")); // Arrives late, still goes in ID order
+        cache.onUpdate(message(4, "four, edited"));
+        cache.onDelete(message(3, "three"));
+
+        TimelineCache.Snapshot after = cache.get(1);
+        Assert.assertEquals(2, after.getFloorId());
+        Assert.assertEquals(List.of(message(2, "two"), message(4, "four, edited")), Arrays.asList(after.getMessages()));
+        Assert.assertEquals(List.of(message(1, "one"), message(2, "two")), Arrays.asList(before.getMessages()));
+    }
+
+    /**
+     * Filling a timeline with messages read before another message of the account was created.
+     *
+     * Expected Result:
+     *  The fill is dropped because the account's generation changed, and the account stays uncached.
+     */
+    @Test
+    public void fillAfterConcurrentWriteIsDropped() {
+        TimelineCache cache = new TimelineCache(10, 1024 * 1024);
+        long generation = cache.generation(1);
+        cache.onCreate(message(2, "written while the fill was reading"));
+        cache.fill(1, generation, 0, List.of(message(1, "one")));
+
+        Assert.assertNull(cache.get(1));
+        Assert.assertEquals(1L, cache.stats().get("staleFills"));
+    }
+
+    /**
+     * Filling timelines of three accounts when there is only room for two, after reading the first one.
+     *
+     * Expected Result:
+     *  The account read longest ago is evicted, and the estimated size stays within maxBytes.
+     */
+    @Test
+    public void coldAccountsAreEvicted() {
+        long oneTimeline = 2 * (128 + 2 * "text".length());
+        TimelineCache cache = new TimelineCache(10, 2 * oneTimeline);
+        for (int accountId = 1; accountId <= 3; accountId++) {
+            cache.fill(accountId, cache.generation(accountId), 0,
+                    List.of(new Message(accountId * 10, accountId, "text", 0), new Message(accountId * 10 + 1, accountId, "text", 0)));
+            if (accountId == 2) {
+                cache.get(1);
+            }
+        }
+
+        Assert.assertNotNull(cache.get(1));
+        Assert.assertNull(cache.get(2));
+        Assert.assertNotNull(cache.get(3));
+        Assert.assertEquals(1L, cache.stats().get("evictions"));
+        Assert.assertEquals(2 * oneTimeline, cache.stats().get("bytes"));
+    }
+
+    private static Message message(int messageId, String text) {
+        return new Message(messageId, 1, text, 1669947792);
+    }
+}
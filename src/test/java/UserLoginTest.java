@@ -3,6 +3,9 @@ import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 
 import org.junit.After;
 import org.junit.Assert;
@@ -119,4 +122,53 @@ public class UserLoginTest {
         Assert.assertEquals("", response.body().toString());
 
     }
+
+    /**
+     * Registering a new user through POST localhost:8080/register, then sending POST localhost:8080/login with its
+     * password and with a wrong one
+     * 
+     * Expected Response:
+     *  Status Code: 200 with the account for the right password, 401 for the wrong one
+     *  Database: the password is stored as a PBKDF2 hash, not as sent
+     */
+    @Test
+    public void loginWithHashedPassword() throws Exception {
+        HttpRequest registerRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/register"))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"username\": \"hasheduser\", " +
+                        "\"password\": \"secret123\" }"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(registerRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        try (Connection conn = ConnectionUtil.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement("SELECT password FROM Account WHERE username = ?")) {
+            pstmt.setString(1, "hasheduser");
+            try (ResultSet rs = pstmt.executeQuery()) {
+                Assert.assertTrue(rs.next());
+                Assert.assertTrue(rs.getString(1).startsWith("pbkdf2$"));
+            }
+        }
+
+        HttpRequest loginRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/login"))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"username\": \"hasheduser\", " +
+                        "\"password\": \"secret123\" }"))
+                .header("Content-Type", "application/json")
+                .build();
+        HttpResponse<String> response = webClient.send(loginRequest, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals(new Account(2, "hasheduser", "secret123"), objectMapper.readValue(response.body(), Account.class));
+
+        HttpRequest wrongPasswordRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/login"))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"username\": \"hasheduser\", " +
+                        "\"password\": \"secret124\" }"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(401, webClient.send(wrongPasswordRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
 }